@@ -0,0 +1,81 @@
+package com.fugui.carpal;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.fugui.carpal.core.YuvConverter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the previous JPEG round-trip conversion with {@link YuvConverter} on a 1280x720 frame.
+ * Timings are written to logcat under the tag "YuvBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class YuvConversionBenchmarkTest {
+
+    private static final String TAG = "YuvBenchmark";
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ROTATION = 90;
+    private static final int ITERATIONS = 30;
+
+    @Test
+    public void compareWithJpegRoundTrip() {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(42).nextBytes(nv21);
+        ByteBuffer y = ByteBuffer.wrap(nv21, 0, WIDTH * HEIGHT).slice();
+        ByteBuffer v = ByteBuffer.wrap(nv21, WIDTH * HEIGHT, WIDTH * HEIGHT / 2).slice();
+        ByteBuffer u = ByteBuffer.wrap(nv21, WIDTH * HEIGHT + 1, WIDTH * HEIGHT / 2 - 1).slice();
+
+        YuvConverter converter = new YuvConverter();
+        Bitmap legacy = jpegRoundTrip(nv21);
+        Bitmap converted = ImageUtils.toBitmap(converter.convert(WIDTH, HEIGHT, y, WIDTH, 1, u, v, WIDTH, 2, ROTATION));
+        assertEquals(legacy.getWidth(), converted.getWidth());
+        assertEquals(legacy.getHeight(), converted.getHeight());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            jpegRoundTrip(nv21).recycle();
+        }
+        double legacyMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            converter.convert(WIDTH, HEIGHT, y, WIDTH, 1, u, v, WIDTH, 2, ROTATION);
+        }
+        double convertMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        Log.i(TAG, String.format("jpeg round-trip %.2f ms/frame, YuvConverter %.2f ms/frame (%.1fx)",
+                legacyMs, convertMs, legacyMs / convertMs));
+    }
+
+    /** The conversion ImageUtils.imageToBitmap() used before YuvConverter. */
+    private static Bitmap jpegRoundTrip(byte[] nv21) {
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, WIDTH, HEIGHT, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        yuvImage.compressToJpeg(new Rect(0, 0, WIDTH, HEIGHT), 100, out);
+        byte[] imageBytes = out.toByteArray();
+        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+
+        Matrix matrix = new Matrix();
+        matrix.postRotate(ROTATION);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        bitmap.recycle();
+        return rotated;
+    }
+}
@@ -5,43 +5,123 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.RectF;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.camera.core.CameraInfo;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ConcurrentCamera.SingleCameraConfig;
 import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
+import androidx.camera.core.UseCaseGroup;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LifecycleOwner;
 
+import com.fugui.carpal.core.DetectionListener;
+import com.fugui.carpal.core.DetectionResult;
+import com.fugui.carpal.core.FairFrameScheduler;
+import com.fugui.carpal.core.ImageBuffer;
+import com.fugui.carpal.core.SceneChangeDetector;
+import com.fugui.carpal.core.VehicleDetector;
+import com.fugui.carpal.core.YuvConverter;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+/**
+ * Binds the camera(s) and runs detection on their frames. When the device can stream the back
+ * and front cameras concurrently both are analysed, sharing one {@link VehicleDetector}: each
+ * camera has its own analyzer thread, and a {@link FairFrameScheduler} interleaves their frames
+ * on a single inference thread so that under load both streams slow down evenly. Detections are
+ * tagged with {@link #SOURCE_BACK} or {@link #SOURCE_FRONT}.
+ */
 public class CameraController {
 
     private static final String TAG = "CameraController";
+    public static final String SOURCE_BACK = "back";
+    public static final String SOURCE_FRONT = "front";
+    private static final long ANALYSIS_INTERVAL_MS = 2000; // 2 seconds, per camera
+    // Longer than one detection with OCR, so stopCamera() normally returns after the frame in flight.
+    private static final long INFERENCE_STOP_TIMEOUT_MS = 3000;
+
     private final LifecycleOwner lifecycleOwner;
     private final PreviewView previewView;
     private final VehicleDetector vehicleDetector;
     private final DetectionCallback detectionCallback;
-    private ExecutorService cameraExecutor;
+    private final Supplier<SceneChangeDetector> sceneGateFactory;
+    private final List<DetectionListener> detectionListeners = new CopyOnWriteArrayList<>();
+    private final DetectionListener detectionListener = DetectionListener.all(detectionListeners);
+    private final FairFrameScheduler<ImageBuffer> scheduler = new FairFrameScheduler<>();
+    private final AtomicLong frameCounter = new AtomicLong(0);
+    private final List<ExecutorService> cameraExecutors = new ArrayList<>();
+    private EvidenceRecorder evidenceRecorder;
+    private boolean concurrentCamerasEnabled = true;
+    private ExecutorService inferenceExecutor;
 
     public CameraController(Context context, LifecycleOwner lifecycleOwner, PreviewView previewView, VehicleDetector vehicleDetector, DetectionCallback detectionCallback) {
+        this(context, lifecycleOwner, previewView, vehicleDetector, detectionCallback, SceneChangeDetector::new);
+    }
+
+    /**
+     * @param sceneGateFactory creates the gate that skips inference while a camera's scene is
+     *                         static, one per camera; null analyses every throttled frame.
+     */
+    public CameraController(Context context, LifecycleOwner lifecycleOwner, PreviewView previewView, VehicleDetector vehicleDetector,
+                            DetectionCallback detectionCallback, Supplier<SceneChangeDetector> sceneGateFactory) {
         this.lifecycleOwner = lifecycleOwner;
         this.previewView = previewView;
         this.vehicleDetector = vehicleDetector;
         this.detectionCallback = detectionCallback;
+        this.sceneGateFactory = sceneGateFactory;
+        this.detectionListeners.add(detectionCallback);
+    }
+
+    /**
+     * Registers an additional consumer of the streaming detection events, e.g. a
+     * {@link com.fugui.carpal.core.DetectionJournal}. Listeners are called on the inference thread
+     * and must not block.
+     */
+    public void addDetectionListener(DetectionListener listener) {
+        detectionListeners.add(listener);
+    }
+
+    /**
+     * Feeds every back camera frame, not just the analysed ones, to {@code recorder}. Must be
+     * called before {@link #startCamera()}.
+     */
+    public void setEvidenceRecorder(EvidenceRecorder recorder) {
+        this.evidenceRecorder = recorder;
+    }
+
+    /**
+     * Whether to also analyse the front camera when the device supports running it alongside the
+     * back one. Enabled by default; must be called before {@link #startCamera()}.
+     */
+    public void setConcurrentCamerasEnabled(boolean enabled) {
+        this.concurrentCamerasEnabled = enabled;
+    }
+
+    public List<FairFrameScheduler.SourceStats> getSourceStats() {
+        return scheduler.getStats();
     }
 
     public void startCamera() {
-        cameraExecutor = Executors.newSingleThreadExecutor();
+        inferenceExecutor = Executors.newSingleThreadExecutor();
+        // Warm the sessions while the camera opens; the first analysed frame queues behind it.
+        inferenceExecutor.execute(vehicleDetector::warmUp);
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(previewView.getContext());
 
         cameraProviderFuture.addListener(() -> {
@@ -51,15 +131,19 @@ public class CameraController {
                 Preview preview = new Preview.Builder().build();
                 preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
-                ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
-                        .build();
-
-                imageAnalysis.setAnalyzer(cameraExecutor, new FrameAnalyzer(vehicleDetector, detectionCallback));
-
                 cameraProvider.unbindAll();
+                if (concurrentCamerasEnabled && supportsBackAndFront(cameraProvider)) {
+                    try {
+                        bindBackAndFront(cameraProvider, preview);
+                        Log.i(TAG, "Analysing back and front cameras concurrently");
+                        return;
+                    } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                        Log.w(TAG, "Concurrent binding failed, using the back camera only", e);
+                        cameraProvider.unbindAll();
+                    }
+                }
                 cameraProvider.bindToLifecycle(
-                        lifecycleOwner, CameraSelector.DEFAULT_BACK_CAMERA, preview, imageAnalysis);
+                        lifecycleOwner, CameraSelector.DEFAULT_BACK_CAMERA, preview, newAnalysis(SOURCE_BACK, evidenceRecorder));
 
             } catch (Exception e) {
                 Log.e(TAG, "Use case binding failed", e);
@@ -67,84 +151,190 @@ public class CameraController {
         }, ContextCompat.getMainExecutor(previewView.getContext()));
     }
 
-    private static class FrameAnalyzer implements ImageAnalysis.Analyzer {
-        private final VehicleDetector vehicleDetector;
-        private final DetectionCallback detectionCallback;
+    private static boolean supportsBackAndFront(ProcessCameraProvider cameraProvider) {
+        for (List<CameraInfo> combination : cameraProvider.getAvailableConcurrentCameraInfos()) {
+            boolean back = false;
+            boolean front = false;
+            for (CameraInfo info : combination) {
+                back |= info.getLensFacing() == CameraSelector.LENS_FACING_BACK;
+                front |= info.getLensFacing() == CameraSelector.LENS_FACING_FRONT;
+            }
+            if (back && front) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void bindBackAndFront(ProcessCameraProvider cameraProvider, Preview preview) {
+        // The view finder shows the back camera; the front one is analysed only.
+        UseCaseGroup back = new UseCaseGroup.Builder()
+                .addUseCase(preview)
+                .addUseCase(newAnalysis(SOURCE_BACK, evidenceRecorder))
+                .build();
+        UseCaseGroup front = new UseCaseGroup.Builder()
+                .addUseCase(newAnalysis(SOURCE_FRONT, null))
+                .build();
+        cameraProvider.bindToLifecycle(Arrays.asList(
+                new SingleCameraConfig(CameraSelector.DEFAULT_BACK_CAMERA, back, lifecycleOwner),
+                new SingleCameraConfig(CameraSelector.DEFAULT_FRONT_CAMERA, front, lifecycleOwner)));
+    }
+
+    private ImageAnalysis newAnalysis(String source, EvidenceRecorder recorder) {
+        ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        cameraExecutors.add(executor);
+        SceneChangeDetector sceneGate = sceneGateFactory != null ? sceneGateFactory.get() : null;
+        imageAnalysis.setAnalyzer(executor, new FrameAnalyzer(source, sceneGate, recorder));
+        return imageAnalysis;
+    }
+
+    /** Runs on the inference thread; each queued task processes the next frame in fair order. */
+    private void processNextFrame() {
+        FairFrameScheduler.Frame<ImageBuffer> next = scheduler.poll();
+        if (next == null) {
+            return;
+        }
+        try {
+            runInference(next.source, next.frame);
+        } finally {
+            scheduler.complete(next.source);
+        }
+    }
+
+    private void runInference(String source, ImageBuffer frame) {
+        long startTime = System.currentTimeMillis();
+        long frameId = frameCounter.incrementAndGet();
+        List<DetectionResult> detections = vehicleDetector.detect(frame, true, frameId,
+                DetectionListener.taggingSource(source, detectionListener)); // Run with OCR
+        long endTime = System.currentTimeMillis();
+        Log.i(TAG, "vehicleDetector.detect duration (" + source + "): " + (endTime - startTime) + "ms, " + scheduler.getStats());
+
+        // There is one image view; it shows the back camera, whose frames match the preview.
+        Bitmap resultBitmap = SOURCE_BACK.equals(source) ? drawDetections(frame, detections) : null;
+        detectionCallback.onDetections(resultBitmap, detections);
+    }
+
+    /**
+     * Runs on its camera's executor and returns quickly so every frame reaches the evidence
+     * recorder. A frame is converted only when its camera has no frame waiting for or in
+     * inference, so the converter's reused output is never overwritten while still in use.
+     */
+    private class FrameAnalyzer implements ImageAnalysis.Analyzer {
+        private final String source;
+        private final SceneChangeDetector sceneChangeDetector;
+        private final EvidenceRecorder evidenceRecorder;
         private final AtomicLong lastAnalyzedTimestamp = new AtomicLong(0);
-        private static final long ANALYSIS_INTERVAL_MS = 2000; // 2 seconds
+        private final YuvConverter yuvConverter = new YuvConverter();
 
-        public FrameAnalyzer(VehicleDetector vehicleDetector, DetectionCallback detectionCallback) {
-            this.vehicleDetector = vehicleDetector;
-            this.detectionCallback = detectionCallback;
+        FrameAnalyzer(String source, SceneChangeDetector sceneChangeDetector, EvidenceRecorder evidenceRecorder) {
+            this.source = source;
+            this.sceneChangeDetector = sceneChangeDetector;
+            this.evidenceRecorder = evidenceRecorder;
         }
 
         @Override
         public void analyze(@NonNull ImageProxy imageProxy) {
+            if (evidenceRecorder != null) {
+                evidenceRecorder.encode(imageProxy);
+            }
             long currentTime = System.currentTimeMillis();
-            if (currentTime - lastAnalyzedTimestamp.get() < ANALYSIS_INTERVAL_MS) {
+            if (currentTime - lastAnalyzedTimestamp.get() < ANALYSIS_INTERVAL_MS || !scheduler.tryAcquire(source)) {
+                imageProxy.close();
+                return;
+            }
+            // The previous results stay on screen while nothing moves; the throttle clock is not
+            // reset so the first changed frame is analysed immediately.
+            if (sceneChangeDetector != null && !sceneHasChanged(imageProxy)) {
+                Log.d(TAG, "Static scene (" + source + "), skipped " + sceneChangeDetector.getFramesSkipped()
+                        + " of " + sceneChangeDetector.getFramesChecked() + " frames");
+                scheduler.release(source);
                 imageProxy.close();
                 return;
             }
             lastAnalyzedTimestamp.set(currentTime);
 
-            Bitmap bitmap = imageProxy.toBitmap();
-            if (bitmap != null) {
-                Bitmap resultBitmap = null;
-                List<DetectionResult> detections = null;
-                try {
-                    long startTime = System.currentTimeMillis();
-                    detections = vehicleDetector.detect(bitmap, true); // Run with OCR
-                    long endTime = System.currentTimeMillis();
-                    Log.i(TAG, "vehicleDetector.detect duration: " + (endTime - startTime) + "ms");
-
-                    resultBitmap = drawDetections(bitmap, detections);
-                    detectionCallback.onDetections(resultBitmap, detections);
-                } finally {
-                    if (bitmap != null && !bitmap.isRecycled()) {
-                        bitmap.recycle();
-                    }
-                }
+            ImageBuffer frame;
+            try {
+                frame = ImageUtils.imageProxyToImageBuffer(imageProxy, yuvConverter);
+            } catch (RuntimeException e) {
+                scheduler.release(source);
+                throw e;
+            } finally {
+                // The camera buffer is no longer needed once the frame has been converted.
+                imageProxy.close();
+            }
+
+            scheduler.submit(source, frame);
+            try {
+                inferenceExecutor.execute(CameraController.this::processNextFrame);
+            } catch (RejectedExecutionException e) {
+                // The camera is being stopped; free the slot so the source is not stuck pending.
+                scheduler.cancel(source);
             }
-            imageProxy.close();
         }
 
-        private Bitmap drawDetections(Bitmap originalBitmap, List<DetectionResult> detections) {
-            Bitmap mutableBitmap = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
-            Canvas canvas = new Canvas(mutableBitmap);
-            Paint paint = new Paint();
-            paint.setColor(Color.RED);
-            paint.setStyle(Paint.Style.STROKE);
-            paint.setStrokeWidth(3.0f);
-            paint.setTextSize(40.0f);
-            paint.setTextAlign(Paint.Align.LEFT);
-
-            Paint textBgPaint = new Paint();
-            textBgPaint.setColor(Color.argb(150, 0, 0, 0)); // Semi-transparent black background
-            textBgPaint.setStyle(Paint.Style.FILL);
-
-            for (DetectionResult detection : detections) {
-                canvas.drawRect(detection.getBoundingBox(), paint);
-
-                String yoloLabel = detection.getClassName() + ": " + String.format("%.2f", detection.getConfidence());
-                String ocrLabel = detection.getText();
-
-                canvas.drawRect(detection.getBoundingBox().left, detection.getBoundingBox().top - 45,
-                 detection.getBoundingBox().left + paint.measureText(yoloLabel), detection.getBoundingBox().top, textBgPaint);
-                canvas.drawText(yoloLabel, detection.getBoundingBox().left, detection.getBoundingBox().top - 5, paint);
-
-                if (ocrLabel != null && !ocrLabel.isEmpty()) {
-                    canvas.drawRect(detection.getBoundingBox().left, detection.getBoundingBox().top,
-                     detection.getBoundingBox().left + paint.measureText(ocrLabel), detection.getBoundingBox().top + 45, textBgPaint);
-                    canvas.drawText(ocrLabel, detection.getBoundingBox().left, detection.getBoundingBox().top + 40, paint);
-                }
+        private boolean sceneHasChanged(ImageProxy imageProxy) {
+            ImageProxy.PlaneProxy yPlane = imageProxy.getPlanes()[0];
+            return sceneChangeDetector.hasChanged(yPlane.getBuffer(), imageProxy.getWidth(), imageProxy.getHeight(),
+                    yPlane.getRowStride(), yPlane.getPixelStride());
+        }
+    }
+
+    private Bitmap drawDetections(ImageBuffer frame, List<DetectionResult> detections) {
+        Bitmap mutableBitmap = ImageUtils.toBitmap(frame);
+        Canvas canvas = new Canvas(mutableBitmap);
+        Paint paint = new Paint();
+        paint.setColor(Color.RED);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(3.0f);
+        paint.setTextSize(40.0f);
+        paint.setTextAlign(Paint.Align.LEFT);
+
+        Paint textBgPaint = new Paint();
+        textBgPaint.setColor(Color.argb(150, 0, 0, 0)); // Semi-transparent black background
+        textBgPaint.setStyle(Paint.Style.FILL);
+
+        for (DetectionResult detection : detections) {
+            RectF box = ImageUtils.toRectF(detection.getBoundingBox());
+            canvas.drawRect(box, paint);
+
+            String yoloLabel = detection.getClassName() + ": " + String.format("%.2f", detection.getConfidence());
+            String ocrLabel = detection.getText();
+
+            canvas.drawRect(box.left, box.top - 45,
+             box.left + paint.measureText(yoloLabel), box.top, textBgPaint);
+            canvas.drawText(yoloLabel, box.left, box.top - 5, paint);
+
+            if (ocrLabel != null && !ocrLabel.isEmpty()) {
+                canvas.drawRect(box.left, box.top,
+                 box.left + paint.measureText(ocrLabel), box.top + 45, textBgPaint);
+                canvas.drawText(ocrLabel, box.left, box.top + 40, paint);
             }
-            return mutableBitmap;
         }
+        return mutableBitmap;
     }
 
+    /**
+     * Stops analysis and waits, up to {@link #INFERENCE_STOP_TIMEOUT_MS}, for the frame being
+     * detected to finish, so that the detector can be closed afterwards.
+     */
     public void stopCamera() {
-        if (cameraExecutor != null) {
-            cameraExecutor.shutdown();
+        for (ExecutorService executor : cameraExecutors) {
+            executor.shutdown();
+        }
+        cameraExecutors.clear();
+        if (inferenceExecutor != null) {
+            inferenceExecutor.shutdown();
+            try {
+                if (!inferenceExecutor.awaitTermination(INFERENCE_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Inference still running after " + INFERENCE_STOP_TIMEOUT_MS + "ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }
@@ -2,15 +2,22 @@ package com.fugui.carpal;
 
 import android.graphics.Bitmap;
 
+import com.fugui.carpal.core.DetectionListener;
+import com.fugui.carpal.core.DetectionResult;
+
 import java.util.List;
 
 /**
  * A callback interface to receive the results of the detection process.
+ * <p>
+ * The {@link DetectionListener} methods are forwarded while a frame is still being processed, so
+ * implementations can show vehicles before OCR has finished; they are not called on the main thread.
  */
-public interface DetectionCallback {
+public interface DetectionCallback extends DetectionListener {
     /**
      * Called when a frame has been processed and detections are available.
-     * @param imageWithDetections The original bitmap with detection results drawn on it.
+     * @param imageWithDetections The original bitmap with detection results drawn on it, or null
+     *                            for frames that are not shown, such as the front camera's.
      * @param detections A list of detection results with detailed information.
      */
     void onDetections(Bitmap imageWithDetections, List<DetectionResult> detections);
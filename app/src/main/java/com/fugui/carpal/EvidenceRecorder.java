@@ -0,0 +1,398 @@
+package com.fugui.carpal;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageProxy;
+
+import com.fugui.carpal.core.DetectionListener;
+import com.fugui.carpal.core.DetectionResult;
+import com.fugui.carpal.core.PacketRingBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the last few seconds of camera video hardware-encoded in a fixed-size ring and, when a
+ * watched plate is recognised or {@link #trigger} is called, writes the pre-roll plus the
+ * following seconds to an MP4 clip.
+ * <p>
+ * Nothing is encoded while the watchlist is empty; the encoder is created with the first frame
+ * after plates are put on it. Frames are handed to the encoder from the analysis thread without
+ * waiting: if the encoder has no free input buffer the frame is simply not recorded. Encoded
+ * packets are drained into the ring on a dedicated thread. A finished clip is copied out of the
+ * ring and muxed on another thread, so draining carries on while it is written and neither
+ * analysis nor the Java heap grows with the clip.
+ */
+public class EvidenceRecorder implements DetectionListener {
+
+    private static final String TAG = "EvidenceRecorder";
+    private static final int FRAME_RATE = 30;
+    private static final int KEY_FRAME_INTERVAL_S = 1;
+    private static final long DRAIN_TIMEOUT_US = 10_000;
+
+    private final File outputDir;
+    private final String mimeType;
+    private final int bitRate;
+    private final long preRollUs;
+    private final long postRollUs;
+    private final int ringBytes;
+    private final int ringPackets;
+    private final PacketRingBuffer ring;
+    private final Set<String> watchlist = new CopyOnWriteArraySet<>();
+    private final AtomicLong framesEncoded = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong clipsWritten = new AtomicLong();
+
+    // Guards the encoder's lifecycle against the analysis thread.
+    private final Object codecLock = new Object();
+    private MediaCodec encoder;
+    private Thread drainThread;
+    private volatile boolean running;
+    private boolean stopped;
+    private int width;
+    private int height;
+    private int rotationDegrees;
+    private long lastQueuedUs = -1;
+
+    // Written by the drain thread, read by trigger().
+    private volatile long newestEncodedUs = -1;
+    private MediaFormat outputFormat;
+
+    // Clip waiting for its post-roll, and whether one is being muxed; guarded by this.
+    private long clipFromUs;
+    private long clipToUs;
+    private File clipFile;
+    private boolean clipWriting;
+
+    // Packets of the clip being muxed, copied out of the ring by the drain thread.
+    private PacketRingBuffer clipBuffer;
+    private final ExecutorService clipWriter = Executors.newSingleThreadExecutor(r -> new Thread(r, "EvidenceMuxer"));
+
+    /**
+     * @param mimeType {@link MediaFormat#MIMETYPE_VIDEO_AVC} or {@link MediaFormat#MIMETYPE_VIDEO_HEVC}.
+     */
+    public EvidenceRecorder(File outputDir, String mimeType, int bitRate, int preRollSeconds, int postRollSeconds) {
+        this.outputDir = outputDir;
+        this.mimeType = mimeType;
+        this.bitRate = bitRate;
+        this.preRollUs = preRollSeconds * 1_000_000L;
+        this.postRollUs = postRollSeconds * 1_000_000L;
+
+        // Room for the whole clip plus one key frame interval, with headroom for key frame spikes.
+        int windowSeconds = preRollSeconds + postRollSeconds + KEY_FRAME_INTERVAL_S;
+        this.ringBytes = bitRate / 8 * windowSeconds * 2;
+        this.ringPackets = FRAME_RATE * windowSeconds * 2;
+        this.ring = new PacketRingBuffer(ringBytes, ringPackets);
+    }
+
+    public EvidenceRecorder(File outputDir) {
+        this(outputDir, MediaFormat.MIMETYPE_VIDEO_AVC, 4_000_000, 10, 5);
+    }
+
+    /**
+     * Plates whose recognition triggers a clip. Matching ignores case, spaces and separators.
+     * Recording starts with the next frame once the list is non-empty and pauses while it is empty.
+     */
+    public void setWatchlist(Collection<String> plates) {
+        watchlist.clear();
+        for (String plate : plates) {
+            watchlist.add(normalizePlate(plate));
+        }
+    }
+
+    /**
+     * Hands a camera frame to the encoder. Called on the analysis thread for every frame, before
+     * any throttling; returns immediately and never closes the image.
+     */
+    public void encode(ImageProxy image) {
+        if (watchlist.isEmpty()) {
+            return;
+        }
+        synchronized (codecLock) {
+            if (!stopped) {
+                encodeLocked(image);
+            }
+        }
+    }
+
+    private void encodeLocked(ImageProxy image) {
+        long ptsUs = image.getImageInfo().getTimestamp() / 1000;
+        try {
+            if (encoder == null) {
+                start(image.getWidth(), image.getHeight(), image.getImageInfo().getRotationDegrees());
+            }
+            if (!running || image.getWidth() != width || image.getHeight() != height || ptsUs <= lastQueuedUs) {
+                framesDropped.incrementAndGet();
+                return;
+            }
+            int index = encoder.dequeueInputBuffer(0);
+            if (index < 0) {
+                framesDropped.incrementAndGet();
+                return;
+            }
+            Image input = encoder.getInputImage(index);
+            ImageProxy.PlaneProxy[] src = image.getPlanes();
+            Image.Plane[] dst = input.getPlanes();
+            for (int p = 0; p < 3; p++) {
+                int planeWidth = p == 0 ? width : (width + 1) / 2;
+                int planeHeight = p == 0 ? height : (height + 1) / 2;
+                copyPlane(src[p].getBuffer(), src[p].getRowStride(), src[p].getPixelStride(),
+                        dst[p].getBuffer(), dst[p].getRowStride(), dst[p].getPixelStride(), planeWidth, planeHeight);
+            }
+            encoder.queueInputBuffer(index, 0, width * height * 3 / 2, ptsUs, 0);
+            lastQueuedUs = ptsUs;
+            framesEncoded.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Encoding frame failed, recording disabled", e);
+            running = false;
+        }
+    }
+
+    private void start(int width, int height, int rotationDegrees) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.rotationDegrees = rotationDegrees;
+
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        // Frequent key frames keep the pre-roll close to the requested length.
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, KEY_FRAME_INTERVAL_S);
+
+        encoder = MediaCodec.createEncoderByType(mimeType);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.start();
+        running = true;
+        MediaCodec codec = encoder;
+        drainThread = new Thread(() -> drain(codec), "EvidenceEncoder");
+        drainThread.start();
+        Log.i(TAG, "Recording " + width + "x" + height + " " + mimeType + " into a "
+                + (preRollUs / 1_000_000) + "s pre-roll buffer");
+    }
+
+    private static void copyPlane(ByteBuffer src, int srcRowStride, int srcPixelStride,
+                                  ByteBuffer dst, int dstRowStride, int dstPixelStride, int planeWidth, int planeHeight) {
+        // Interleaved chroma may be ordered VU on one side and UV on the other, so only planar
+        // rows are copied in bulk.
+        if (srcPixelStride == 1 && dstPixelStride == 1) {
+            ByteBuffer srcRow = src.duplicate();
+            ByteBuffer dstRow = dst.duplicate();
+            for (int y = 0; y < planeHeight; y++) {
+                srcRow.limit(y * srcRowStride + planeWidth).position(y * srcRowStride);
+                dstRow.position(y * dstRowStride);
+                dstRow.put(srcRow);
+            }
+            return;
+        }
+        for (int y = 0; y < planeHeight; y++) {
+            int srcRow = y * srcRowStride;
+            int dstRow = y * dstRowStride;
+            for (int x = 0; x < planeWidth; x++) {
+                dst.put(dstRow + x * dstPixelStride, src.get(srcRow + x * srcPixelStride));
+            }
+        }
+    }
+
+    private void drain(MediaCodec encoder) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (running) {
+            int index;
+            try {
+                index = encoder.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Encoder failed", e);
+                break;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // Carries the codec config (SPS/PPS) the muxer needs.
+                outputFormat = encoder.getOutputFormat();
+            } else if (index >= 0) {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                    ByteBuffer data = encoder.getOutputBuffer(index);
+                    data.limit(info.offset + info.size).position(info.offset);
+                    ring.add(data, info.presentationTimeUs, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+                    newestEncodedUs = info.presentationTimeUs;
+                }
+                encoder.releaseOutputBuffer(index, false);
+                writeClipIfComplete(false);
+            }
+        }
+        // Whatever post-roll arrived before stopping is still worth keeping.
+        writeClipIfComplete(true);
+    }
+
+    /**
+     * Schedules a clip of the pre-roll and the next post-roll seconds. Ignored while a clip is
+     * still collecting its post-roll, since that clip already covers this moment, or is still
+     * being written.
+     *
+     * @return the file the clip will be written to, or null if nothing was scheduled.
+     */
+    public synchronized File trigger(String reason) {
+        long nowUs = newestEncodedUs;
+        if (nowUs < 0 || clipFile != null || clipWriting) {
+            return null;
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        clipFile = new File(outputDir, "evidence-" + stamp + ".mp4");
+        clipFromUs = nowUs - preRollUs;
+        clipToUs = nowUs + postRollUs;
+        Log.i(TAG, "Clip triggered (" + reason + "): " + clipFile.getName());
+        return clipFile;
+    }
+
+    /** On the drain thread: copies a clip whose post-roll is complete out of the ring for muxing. */
+    private void writeClipIfComplete(boolean force) {
+        File file;
+        long fromUs;
+        long toUs;
+        synchronized (this) {
+            if (clipFile == null || (!force && newestEncodedUs < clipToUs)) {
+                return;
+            }
+            file = clipFile;
+            fromUs = clipFromUs;
+            toUs = clipToUs;
+            clipFile = null;
+            clipWriting = outputFormat != null;
+        }
+        if (outputFormat == null) {
+            return;
+        }
+
+        if (clipBuffer == null) {
+            clipBuffer = new PacketRingBuffer(ringBytes, ringPackets);
+        }
+        PacketRingBuffer clip = clipBuffer;
+        ring.read(fromUs, toUs, clip::add);
+        MediaFormat format = outputFormat;
+        try {
+            clipWriter.execute(() -> writeClip(file, format, clip));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Recorder stopped, dropping clip " + file.getName());
+            clip.clear();
+            synchronized (this) {
+                clipWriting = false;
+            }
+        }
+    }
+
+    private void writeClip(File file, MediaFormat format, PacketRingBuffer clip) {
+        MediaMuxer muxer = null;
+        try {
+            outputDir.mkdirs();
+            muxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int track = muxer.addTrack(format);
+            muxer.setOrientationHint(rotationDegrees);
+            muxer.start();
+            MediaMuxer target = muxer;
+            MediaCodec.BufferInfo sample = new MediaCodec.BufferInfo();
+            int packets = clip.read(Long.MIN_VALUE, Long.MAX_VALUE, (data, ptsUs, keyFrame) -> {
+                sample.set(data.position(), data.remaining(), ptsUs, keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                target.writeSampleData(track, data, sample);
+            });
+            muxer.stop();
+            clipsWritten.incrementAndGet();
+            Log.i(TAG, "Wrote " + packets + " frames to " + file);
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Writing clip " + file + " failed", e);
+        } finally {
+            if (muxer != null) {
+                muxer.release();
+            }
+            clip.clear();
+            synchronized (this) {
+                clipWriting = false;
+            }
+        }
+    }
+
+    @Override
+    public void onTextRecognized(long frameId, DetectionResult detection, String text) {
+        if (watchlist.isEmpty() || text == null) {
+            return;
+        }
+        // Merged regions report several plates joined by ", ".
+        for (String plate : text.split(",")) {
+            String normalized = normalizePlate(plate);
+            if (!normalized.isEmpty() && watchlist.contains(normalized)) {
+                trigger("plate " + plate.trim());
+                return;
+            }
+        }
+    }
+
+    @NonNull
+    private static String normalizePlate(String plate) {
+        return plate.replaceAll("[\\s·.\\-]", "").toUpperCase(Locale.ROOT);
+    }
+
+    public long getFramesEncoded() {
+        return framesEncoded.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    public long getClipsWritten() {
+        return clipsWritten.get();
+    }
+
+    /**
+     * Stops the encoder, first writing a pending clip with whatever post-roll was recorded.
+     * Frames passed to {@link #encode} afterwards are ignored. Returns without waiting: the
+     * encoder is released and the clip written in the background, so this is safe to call from
+     * the main thread.
+     */
+    public void stop() {
+        synchronized (codecLock) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            running = false;
+            MediaCodec codec = encoder;
+            Thread drainer = drainThread;
+            encoder = null;
+            drainThread = null;
+            if (codec == null) {
+                clipWriter.shutdown();
+                return;
+            }
+            clipWriter.execute(() -> {
+                try {
+                    // Its last act is to queue the pending clip, which runs after this task.
+                    drainer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Encoder already stopped", e);
+                }
+                codec.release();
+                clipWriter.shutdown();
+            });
+        }
+    }
+}
@@ -2,37 +2,60 @@ package com.fugui.carpal;
 
 import android.graphics.*;
 import android.media.Image;
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
 
-public class ImageUtils {
+import androidx.camera.core.ImageProxy;
 
-    public static Bitmap imageToBitmap(Image image, int rotation) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
+import com.fugui.carpal.core.Box;
+import com.fugui.carpal.core.ImageBuffer;
+import com.fugui.carpal.core.YuvConverter;
 
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
+public class ImageUtils {
+
+    public static ImageBuffer toImageBuffer(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return new ImageBuffer(width, height, pixels);
+    }
 
-        byte[] nv21 = new byte[ySize + uSize + vSize];
+    /**
+     * Copies the frame into a new mutable bitmap, ready to be drawn on.
+     */
+    public static Bitmap toBitmap(ImageBuffer image) {
+        Bitmap bitmap = Bitmap.createBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(image.getPixels(), 0, image.getWidth(), 0, 0, image.getWidth(), image.getHeight());
+        return bitmap;
+    }
 
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
+    public static RectF toRectF(Box box) {
+        return new RectF(box.left, box.top, box.right, box.bottom);
+    }
 
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 100, out);
-        byte[] imageBytes = out.toByteArray();
+    public static Bitmap imageToBitmap(Image image, int rotation) {
+        return toBitmap(imageToImageBuffer(image, rotation, new YuvConverter(false)));
+    }
 
-        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+    /**
+     * Converts a YUV_420_888 {@link Image} to an upright ARGB frame without going through JPEG.
+     */
+    public static ImageBuffer imageToImageBuffer(Image image, int rotation, YuvConverter converter) {
+        Image.Plane[] planes = image.getPlanes();
+        return converter.convert(image.getWidth(), image.getHeight(),
+                planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                rotation);
+    }
 
-        // 根据旋转角度调整
-        Matrix matrix = new Matrix();
-        matrix.postRotate(rotation);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    /**
+     * Converts a YUV_420_888 {@link ImageProxy} to an ARGB frame rotated by the rotation CameraX
+     * reports for it, so the image is upright for the detectors.
+     */
+    public static ImageBuffer imageProxyToImageBuffer(ImageProxy imageProxy, YuvConverter converter) {
+        ImageProxy.PlaneProxy[] planes = imageProxy.getPlanes();
+        return converter.convert(imageProxy.getWidth(), imageProxy.getHeight(),
+                planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                imageProxy.getImageInfo().getRotationDegrees());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package com.fugui.carpal;
+
+import android.graphics.Bitmap;
+
+import com.fugui.carpal.core.CropEncoder;
+import com.fugui.carpal.core.ImageBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Sends offloaded crops as JPEG, a fraction of the deflated RGB size over the hotspot link.
+ */
+public class JpegCropEncoder implements CropEncoder {
+
+    private final int quality;
+
+    public JpegCropEncoder(int quality) {
+        this.quality = quality;
+    }
+
+    @Override
+    public int format() {
+        return FORMAT_JPEG;
+    }
+
+    @Override
+    public byte[] encode(ImageBuffer crop) throws IOException {
+        Bitmap bitmap = ImageUtils.toBitmap(crop);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, bytes)) {
+                throw new IOException("JPEG compression failed");
+            }
+            return bytes.toByteArray();
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Trace;
 import android.util.Log;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -12,10 +13,21 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.view.PreviewView;
+import androidx.camera.view.PreviewView.StreamState;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.fugui.carpal.core.DetectionJournal;
+import com.fugui.carpal.core.DetectionResult;
+import com.fugui.carpal.core.OffloadClient;
+import com.fugui.carpal.core.OrtRuntime;
+import com.fugui.carpal.core.PixelKernels;
+import com.fugui.carpal.core.VehicleDetector;
+
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -26,23 +38,75 @@ public class MainActivity extends AppCompatActivity implements DetectionCallback
     private static final String TAG = "MainActivity";
     private static final int REQUEST_CODE_PERMISSIONS = 10;
     private static final String[] REQUIRED_PERMISSIONS = {Manifest.permission.CAMERA, Manifest.permission.ACCESS_FINE_LOCATION};
+    // Async trace sections from onCreate to the first preview frame and to the first detection
+    // result; the startup macrobenchmark measures them by name.
+    private static final String TRACE_TIME_TO_PREVIEW = "carpal:timeToPreview";
+    private static final String TRACE_TIME_TO_FIRST_DETECTION = "carpal:timeToFirstDetection";
+    // Keeps OCR of a crowded frame inside the analysis interval; the rest is read on later frames.
+    private static final long OCR_BUDGET_MS = 1500;
+    // How long OCR waits for the in-cab gateway before reading a crop on the phone instead.
+    private static final long OFFLOAD_DEADLINE_MS = 400;
+    // Crops go to the gateway as JPEG; plates stay legible well below this.
+    private static final int OFFLOAD_JPEG_QUALITY = 85;
+    // Light model of the detection cascade, used when it is among the assets.
+    private static final String CASCADE_LIGHT_MODEL = "yolo11n.onnx";
+    // Size of the intra-op pool shared by every ORT session.
+    private static final int ORT_INTRA_OP_THREADS = Runtime.getRuntime().availableProcessors();
+    // Threads for the resize/tensor/threshold loops; about the number of big cores on a phone SoC.
+    private static final int PIXEL_KERNEL_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
     private CameraController cameraController;
+    private VehicleDetector vehicleDetector;
+    private DetectionJournal detectionJournal;
+    private EvidenceRecorder evidenceRecorder;
     private ImageView imageView;
     private TextView detectionTextView;
+    private volatile List<DetectionResult> streamingDetections;
+    private boolean previewStarted;
+    private boolean firstDetectionShown;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Trace.beginAsyncSection(TRACE_TIME_TO_PREVIEW, 0);
+        Trace.beginAsyncSection(TRACE_TIME_TO_FIRST_DETECTION, 0);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
         imageView = findViewById(R.id.imageView);
         detectionTextView = findViewById(R.id.detection_textview);
         PreviewView viewFinder = findViewById(R.id.viewFinder);
+        viewFinder.getPreviewStreamState().observe(this, state -> {
+            if (state == StreamState.STREAMING && !previewStarted) {
+                previewStarted = true;
+                Trace.endAsyncSection(TRACE_TIME_TO_PREVIEW, 0);
+            }
+        });
 
+        PixelKernels.setParallelism(PIXEL_KERNEL_THREADS);
         try {
-            VehicleDetector vehicleDetector = new VehicleDetector(this, "yolo11m.onnx");
+            if (!OrtRuntime.isInitialised()) {
+                Log.i(TAG, "Before loading models: " + OrtRuntime.processStats());
+                // One intra-op pool for YOLO and all OCR sessions instead of one per session.
+                OrtRuntime.initGlobalThreads(ORT_INTRA_OP_THREADS, 1);
+            }
+            vehicleDetector = new VehicleDetector(getAssets()::open, "yolo11m.onnx");
+            // yolo11n is not bundled by default; when it is, yolo11m only runs where it is unsure.
+            if (Arrays.asList(getAssets().list("")).contains(CASCADE_LIGHT_MODEL)) {
+                vehicleDetector.enableCascade(getAssets()::open, CASCADE_LIGHT_MODEL);
+            }
+            vehicleDetector.setOcrBudgetMs(OCR_BUDGET_MS);
+            String gatewayUrl = getString(R.string.offload_gateway_url);
+            if (!gatewayUrl.isEmpty()) {
+                OffloadClient offload = new OffloadClient(new URL(gatewayUrl), new JpegCropEncoder(OFFLOAD_JPEG_QUALITY));
+                vehicleDetector.setOffload(offload, OFFLOAD_DEADLINE_MS);
+            }
             cameraController = new CameraController(this, this, viewFinder, vehicleDetector, this);
+            detectionJournal = new DetectionJournal(new File(getFilesDir(), "journal"));
+            cameraController.addDetectionListener(detectionJournal);
+            // Idle until plates are put on the watchlist; only then is the encoder started.
+            evidenceRecorder = new EvidenceRecorder(new File(getExternalFilesDir(null), "evidence"));
+            cameraController.setEvidenceRecorder(evidenceRecorder);
+            cameraController.addDetectionListener(evidenceRecorder);
 
             if (allPermissionsGranted()) {
                 cameraController.startCamera();
@@ -84,6 +148,33 @@ public class MainActivity extends AppCompatActivity implements DetectionCallback
         if (cameraController != null) {
             cameraController.stopCamera();
         }
+        if (evidenceRecorder != null) {
+            evidenceRecorder.stop();
+        }
+        if (vehicleDetector != null) {
+            vehicleDetector.close();
+        }
+        if (detectionJournal != null) {
+            try {
+                detectionJournal.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close detection journal", e);
+            }
+        }
+    }
+
+    @Override
+    public void onVehiclesDetected(long frameId, List<DetectionResult> detections) {
+        streamingDetections = detections;
+        runOnUiThread(() -> showDetectionText(detections));
+    }
+
+    @Override
+    public void onTextRecognized(long frameId, DetectionResult detection, String text) {
+        List<DetectionResult> detections = streamingDetections;
+        if (detections != null) {
+            runOnUiThread(() -> showDetectionText(detections));
+        }
     }
 
     @Override
@@ -92,13 +183,24 @@ public class MainActivity extends AppCompatActivity implements DetectionCallback
             // Update the ImageView with the annotated bitmap
             if (imageWithDetections != null && !imageWithDetections.isRecycled()) {
                 imageView.setImageBitmap(imageWithDetections);
+                imageView.setContentDescription(getString(R.string.detections_description, detections.size()));
+            }
+            if (!firstDetectionShown) {
+                firstDetectionShown = true;
+                Trace.endAsyncSection(TRACE_TIME_TO_FIRST_DETECTION, 0);
+                reportFullyDrawn();
             }
 
-            // Format and display the detection results in the TextView
-            String detectionText = detections.stream()
-                    .map(d -> d.getClassName() + (d.getText() != null ? ": " + d.getText() : ""))
-                    .collect(Collectors.joining("\n"));
-            detectionTextView.setText(detectionText);
+            showDetectionText(detections);
         });
     }
+
+    private void showDetectionText(List<DetectionResult> detections) {
+        // Format and display the detection results in the TextView
+        String detectionText = detections.stream()
+                .map(d -> (d.getSource() != null ? "[" + d.getSource() + "] " : "")
+                        + d.getClassName() + (d.getText() != null ? ": " + d.getText() : ""))
+                .collect(Collectors.joining("\n"));
+        detectionTextView.setText(detectionText);
+    }
 }
\ No newline at end of file
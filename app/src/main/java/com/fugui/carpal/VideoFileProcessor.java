@@ -0,0 +1,257 @@
+package com.fugui.carpal;
+
+import android.content.Context;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.util.Log;
+
+import com.fugui.carpal.core.DetectionResult;
+import com.fugui.carpal.core.ImageBuffer;
+import com.fugui.carpal.core.VehicleDetector;
+import com.fugui.carpal.core.YuvConverter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs recorded video files through a {@link VehicleDetector} as fast as the device allows.
+ * <p>
+ * Frames are decoded with the hardware {@link MediaCodec} decoder, every {@code frameStep}-th
+ * frame is handed to a pool of detection workers, and results are delivered to the
+ * {@link Listener} in presentation order on the thread that called {@link #process}.
+ */
+public class VideoFileProcessor {
+
+    private static final String TAG = "VideoFileProcessor";
+    private static final long CODEC_TIMEOUT_US = 10_000;
+    // Two frames in detection let one run YOLO while the other waits on OCR; the OCR and ORT
+    // thread pools already spread each frame over the cores, so more workers only oversubscribe.
+    public static final int DEFAULT_WORKERS = 2;
+
+    /**
+     * Receives the results of an offline processing run.
+     */
+    public interface Listener {
+        /**
+         * Called once per analysed frame, in presentation order.
+         */
+        void onFrameProcessed(FrameResult result);
+
+        /**
+         * Called after each delivered frame with the fraction of the file decoded so far.
+         */
+        void onProgress(float progress);
+    }
+
+    public static class FrameResult {
+        public final long frameIndex;
+        public final long presentationTimeUs;
+        public final List<DetectionResult> detections;
+
+        public FrameResult(long frameIndex, long presentationTimeUs, List<DetectionResult> detections) {
+            this.frameIndex = frameIndex;
+            this.presentationTimeUs = presentationTimeUs;
+            this.detections = detections;
+        }
+    }
+
+    public static class Summary {
+        public final long framesDecoded;
+        public final long framesAnalyzed;
+        public final long elapsedMs;
+
+        public Summary(long framesDecoded, long framesAnalyzed, long elapsedMs) {
+            this.framesDecoded = framesDecoded;
+            this.framesAnalyzed = framesAnalyzed;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public float getAnalyzedFps() {
+            return elapsedMs > 0 ? framesAnalyzed * 1000f / elapsedMs : 0f;
+        }
+
+        public float getDecodedFps() {
+            return elapsedMs > 0 ? framesDecoded * 1000f / elapsedMs : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("decoded %d frames, analyzed %d frames in %d ms (%.1f analyzed fps, %.1f decoded fps)",
+                    framesDecoded, framesAnalyzed, elapsedMs, getAnalyzedFps(), getDecodedFps());
+        }
+    }
+
+    private final VehicleDetector vehicleDetector;
+    private final int frameStep;
+    private final boolean recognizeText;
+    private final int workerCount;
+
+    /**
+     * @param frameStep     analyse every N-th decoded frame; 1 analyses every frame.
+     * @param recognizeText whether to run OCR on the detected vehicles.
+     * @param workerCount   number of frames analysed concurrently; see {@link #DEFAULT_WORKERS}.
+     */
+    public VideoFileProcessor(VehicleDetector vehicleDetector, int frameStep, boolean recognizeText, int workerCount) {
+        if (frameStep < 1) {
+            throw new IllegalArgumentException("frameStep must be >= 1");
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be >= 1");
+        }
+        this.vehicleDetector = vehicleDetector;
+        this.frameStep = frameStep;
+        this.recognizeText = recognizeText;
+        this.workerCount = workerCount;
+    }
+
+    public VideoFileProcessor(VehicleDetector vehicleDetector, int frameStep) {
+        this(vehicleDetector, frameStep, true, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Decodes and analyses the whole file. Blocks until every selected frame has been delivered,
+     * so it must not be called on the main thread.
+     */
+    public Summary process(Context context, Uri uri, Listener listener) throws IOException, InterruptedException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+        // One frame decoded ahead of the workers keeps them busy; full-size ARGB frames are large.
+        Semaphore inFlight = new Semaphore(workerCount + 1);
+        Deque<Future<FrameResult>> pending = new ArrayDeque<>();
+        // Frames are handed to other threads, so each conversion gets its own output buffer.
+        YuvConverter yuvConverter = new YuvConverter(false);
+
+        long startTime = System.currentTimeMillis();
+        long framesDecoded = 0;
+        long framesAnalyzed = 0;
+        try {
+            extractor.setDataSource(context, uri, null);
+            int trackIndex = selectVideoTrack(extractor);
+            if (trackIndex < 0) {
+                throw new IOException("No video track found in " + uri);
+            }
+            extractor.selectTrack(trackIndex);
+            MediaFormat format = extractor.getTrackFormat(trackIndex);
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            int rotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone) {
+                if (!inputDone) {
+                    int inputIndex = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+                        int sampleSize = extractor.readSampleData(inputBuffer, 0);
+                        if (sampleSize < 0) {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outputIndex < 0) {
+                    continue;
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    outputDone = true;
+                }
+
+                if (info.size > 0) {
+                    long frameIndex = framesDecoded++;
+                    if (frameIndex % frameStep == 0) {
+                        ImageBuffer frame = null;
+                        try (Image image = decoder.getOutputImage(outputIndex)) {
+                            if (image != null) {
+                                frame = ImageUtils.imageToImageBuffer(image, rotation, yuvConverter);
+                            }
+                        }
+                        if (frame != null) {
+                            inFlight.acquire();
+                            pending.add(submit(workers, inFlight, frame, frameIndex, info.presentationTimeUs));
+                            framesAnalyzed++;
+                        }
+                    }
+                    float progress = durationUs > 0 ? Math.min(1f, info.presentationTimeUs / (float) durationUs) : 0f;
+                    deliverCompleted(pending, listener, progress, false);
+                }
+                decoder.releaseOutputBuffer(outputIndex, false);
+            }
+
+            deliverCompleted(pending, listener, 1f, true);
+        } finally {
+            workers.shutdownNow();
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            extractor.release();
+        }
+
+        Summary summary = new Summary(framesDecoded, framesAnalyzed, System.currentTimeMillis() - startTime);
+        Log.i(TAG, "Processed " + uri + ": " + summary);
+        return summary;
+    }
+
+    private Future<FrameResult> submit(ExecutorService workers, Semaphore inFlight, ImageBuffer frame,
+                                       long frameIndex, long presentationTimeUs) {
+        return workers.submit(() -> {
+            try {
+                List<DetectionResult> detections = vehicleDetector.detect(frame, recognizeText);
+                return new FrameResult(frameIndex, presentationTimeUs, detections);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Delivers finished frames from the head of the queue so the listener always sees them in
+     * presentation order. When {@code waitForAll} is set, blocks until the queue is empty.
+     */
+    private void deliverCompleted(Deque<Future<FrameResult>> pending, Listener listener, float progress,
+                                  boolean waitForAll) throws InterruptedException, IOException {
+        while (!pending.isEmpty() && (waitForAll || pending.peekFirst().isDone())) {
+            Future<FrameResult> head = pending.pollFirst();
+            try {
+                listener.onFrameProcessed(head.get());
+            } catch (ExecutionException e) {
+                throw new IOException("Frame analysis failed", e.getCause());
+            }
+            listener.onProgress(progress);
+        }
+    }
+
+    private static int selectVideoTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,43 @@
+package com.fugui.carpal.benchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import kotlin.Unit;
+
+/**
+ * Generates app/src/main/generated/baselineProfiles/baseline-prof.txt from the startup journey,
+ * which covers model loading, warm-up and one full detection pass. Run with
+ * {@code ./gradlew :app:generateBaselineProfile}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    @Rule
+    public BaselineProfileRule baselineProfileRule = new BaselineProfileRule();
+
+    @Test
+    public void generate() {
+        baselineProfileRule.collect(
+                CarPalJourney.TARGET_PACKAGE,
+                /* maxIterations */ 15,
+                /* stableIterations */ 3,
+                /* outputFilePrefix */ null,
+                /* includeInStartupProfile */ true,
+                /* strictStability */ false,
+                /* filterPredicate */ rule -> true,
+                scope -> {
+                    CarPalJourney.grantPermissions();
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    CarPalJourney.waitForFirstDetection(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,47 @@
+package com.fugui.carpal.benchmark;
+
+import android.Manifest;
+import android.app.UiAutomation;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Until;
+
+/**
+ * The startup journey shared by the benchmarks and the baseline profile generator: launch the
+ * app and wait until the first frame has been through detection and OCR.
+ */
+final class CarPalJourney {
+
+    static final String TARGET_PACKAGE = "com.fugui.carpal";
+
+    // Async trace sections emitted by MainActivity.
+    static final String TRACE_TIME_TO_PREVIEW = "carpal:timeToPreview";
+    static final String TRACE_TIME_TO_FIRST_DETECTION = "carpal:timeToFirstDetection";
+
+    private static final long FIRST_DETECTION_TIMEOUT_MS = 60_000;
+
+    private CarPalJourney() {
+    }
+
+    /** Grants the runtime permissions up front so no dialog interrupts the launch. */
+    static void grantPermissions() {
+        UiAutomation automation = InstrumentationRegistry.getInstrumentation().getUiAutomation();
+        automation.grantRuntimePermission(TARGET_PACKAGE, Manifest.permission.CAMERA);
+        automation.grantRuntimePermission(TARGET_PACKAGE, Manifest.permission.ACCESS_FINE_LOCATION);
+    }
+
+    /**
+     * MainActivity sets the result image's content description once the first detection is
+     * drawn, at the same time it reports itself fully drawn.
+     */
+    static void waitForFirstDetection(MacrobenchmarkScope scope) {
+        boolean shown = scope.getDevice().wait(
+                Until.hasObject(By.res(TARGET_PACKAGE, "imageView").descStartsWith("Detections")),
+                FIRST_DETECTION_TIMEOUT_MS);
+        if (!shown) {
+            throw new AssertionError("No detection within " + FIRST_DETECTION_TIMEOUT_MS + "ms");
+        }
+    }
+}
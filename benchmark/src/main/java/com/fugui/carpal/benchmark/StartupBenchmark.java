@@ -0,0 +1,80 @@
+package com.fugui.carpal.benchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * Cold start of the camera screen with and without the baseline profile. Reports, per iteration:
+ * <ul>
+ *     <li>timeToInitialDisplay - first app frame, from {@link StartupTimingMetric};</li>
+ *     <li>timeToFullDisplay - first detection result drawn (MainActivity reports fully drawn then);</li>
+ *     <li>{@code carpal:timeToPreview} - onCreate until the camera preview is streaming;</li>
+ *     <li>{@code carpal:timeToFirstDetection} - onCreate until the first detection result.</li>
+ * </ul>
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class StartupBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> compilationModes() {
+        return Arrays.asList(new Object[][]{
+                {"none", new CompilationMode.None()},
+                {"baselineProfile", new CompilationMode.Partial(BaselineProfileMode.Require, 0)},
+        });
+    }
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    private final CompilationMode compilationMode;
+
+    public StartupBenchmark(String name, CompilationMode compilationMode) {
+        this.compilationMode = compilationMode;
+    }
+
+    @Test
+    public void coldStartToFirstDetection() {
+        List<Metric> metrics = Arrays.asList(
+                new StartupTimingMetric(),
+                new TraceSectionMetric(CarPalJourney.TRACE_TIME_TO_PREVIEW,
+                        TraceSectionMetric.Mode.First.INSTANCE, CarPalJourney.TRACE_TIME_TO_PREVIEW, true),
+                new TraceSectionMetric(CarPalJourney.TRACE_TIME_TO_FIRST_DETECTION,
+                        TraceSectionMetric.Mode.First.INSTANCE, CarPalJourney.TRACE_TIME_TO_FIRST_DETECTION, true));
+
+        benchmarkRule.measureRepeated(
+                CarPalJourney.TARGET_PACKAGE,
+                metrics,
+                compilationMode,
+                StartupMode.COLD,
+                ITERATIONS,
+                scope -> {
+                    CarPalJourney.grantPermissions();
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    CarPalJourney.waitForFirstDetection(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+}
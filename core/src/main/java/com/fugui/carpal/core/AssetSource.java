@@ -0,0 +1,62 @@
+package com.fugui.carpal.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Opens model and dictionary files by name. On Android this is {@code context.getAssets()::open};
+ * on the JVM it usually resolves names against a directory.
+ */
+public interface AssetSource {
+
+    InputStream open(String path) throws IOException;
+
+    default byte[] readBytes(String path) throws IOException {
+        try (InputStream is = open(path)) {
+            return readFully(is);
+        }
+    }
+
+    static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int nRead;
+        byte[] data = new byte[16 * 1024];
+        while ((nRead = is.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, nRead);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Reads {@code is} into a direct buffer, flipped for reading. Model files go through here so that
+     * loading them does not briefly need several times their size in Java heap; the buffer is
+     * sized from {@link InputStream#available()}, which Android assets report exactly.
+     */
+    static ByteBuffer readDirect(InputStream is) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(is.available(), 64 * 1024));
+        ReadableByteChannel channel = Channels.newChannel(is);
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                // Probe before growing so an exactly sized buffer is not doubled just to see EOF.
+                int next = is.read();
+                if (next < 0) {
+                    break;
+                }
+                ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                buffer.flip();
+                grown.put(buffer);
+                grown.put((byte) next);
+                buffer = grown;
+            }
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,56 @@
+package com.fugui.carpal.core;
+
+/**
+ * An axis-aligned rectangle in image coordinates, the platform-independent counterpart of
+ * {@code android.graphics.RectF}.
+ */
+public final class Box {
+    public final float left;
+    public final float top;
+    public final float right;
+    public final float bottom;
+
+    public Box(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public float width() {
+        return right - left;
+    }
+
+    public float height() {
+        return bottom - top;
+    }
+
+    public float centerX() {
+        return (left + right) * 0.5f;
+    }
+
+    public float centerY() {
+        return (top + bottom) * 0.5f;
+    }
+
+    public float area() {
+        return Math.max(0, width()) * Math.max(0, height());
+    }
+
+    public float intersectionArea(Box other) {
+        float w = Math.min(right, other.right) - Math.max(left, other.left);
+        float h = Math.min(bottom, other.bottom) - Math.max(top, other.top);
+        return Math.max(0, w) * Math.max(0, h);
+    }
+
+    public float iou(Box other) {
+        float intersection = intersectionArea(other);
+        float union = area() + other.area() - intersection;
+        return union > 0 ? intersection / union : 0f;
+    }
+
+    @Override
+    public String toString() {
+        return "Box(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,92 @@
+package com.fugui.carpal.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ai.onnxruntime.OnnxJavaType;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+
+/**
+ * A dense uint8 tensor in a direct buffer, fed to models whose graphs take raw pixels and do the
+ * scaling and mean/std normalisation themselves (see {@code tools/fold_normalization.py}). ORT
+ * reads a direct buffer in place, so the input costs one byte per channel instead of four and
+ * no float conversion.
+ */
+public final class ByteTensor {
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<>();
+
+    private final ByteBuffer data;
+    private final long[] shape;
+
+    public ByteTensor(ByteBuffer data, long... shape) {
+        long size = 1;
+        for (long dim : shape) {
+            size *= dim;
+        }
+        if (size != data.remaining()) {
+            throw new IllegalArgumentException("Shape does not match data length " + data.remaining());
+        }
+        if (!data.isDirect()) {
+            throw new IllegalArgumentException("ByteTensor needs a direct buffer");
+        }
+        this.data = data;
+        this.shape = shape;
+    }
+
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public long[] getShape() {
+        return shape;
+    }
+
+    public OnnxTensor toOnnxTensor(OrtEnvironment env) throws OrtException {
+        return OnnxTensor.createTensor(env, data, shape, OnnxJavaType.UINT8);
+    }
+
+    /**
+     * Copies the RGB bytes of {@code image} into a {1, 3, H, W} tensor, or {1, H, W, 3} when
+     * {@code channelsLast}.
+     * <p>
+     * The buffer is reused by the calling thread, so the tensor and any {@link OnnxTensor} made
+     * from it are only valid until the thread's next call.
+     */
+    static ByteTensor fromImage(ImageBuffer image, boolean channelsLast) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int n = w * h;
+        ByteBuffer buf = scratch(3 * n);
+        int[] pixels = image.getPixels();
+
+        if (channelsLast) {
+            for (int i = 0, o = 0; i < n; i++, o += 3) {
+                int p = pixels[i];
+                buf.put(o, (byte) (p >> 16));
+                buf.put(o + 1, (byte) (p >> 8));
+                buf.put(o + 2, (byte) p);
+            }
+            return new ByteTensor(buf, 1, h, w, 3);
+        }
+        for (int i = 0; i < n; i++) {
+            int p = pixels[i];
+            buf.put(i, (byte) (p >> 16));
+            buf.put(n + i, (byte) (p >> 8));
+            buf.put(2 * n + i, (byte) p);
+        }
+        return new ByteTensor(buf, 1, 3, h, w);
+    }
+
+    private static ByteBuffer scratch(int size) {
+        ByteBuffer buf = SCRATCH.get();
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            SCRATCH.set(buf);
+        }
+        buf.clear().limit(size);
+        return buf;
+    }
+}
@@ -0,0 +1,188 @@
+package com.fugui.carpal.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Two-tier detection: a light model such as yolo11n runs on every frame, and the heavy model,
+ * yolo11m, only where the light one is unsure.
+ * <p>
+ * Light detections scoring at least {@code acceptThreshold} are taken as they are. Those between
+ * {@code uncertainThreshold} and {@code acceptThreshold} are uncertain. If there are any, the heavy
+ * model runs once: on the smallest region covering them, grown by {@link #TILE_MARGIN} of its size
+ * on each side, when that region is at most {@code maxTileFraction} of the frame, otherwise on the
+ * whole frame. Its detections are merged with the accepted light ones, non-maximum suppression
+ * keeping the higher-scoring box of a vehicle both tiers found. Frames with nothing uncertain, such
+ * as empty road or large nearby vehicles, never reach the heavy model.
+ * <p>
+ * A tile is scaled to the model input just like a whole frame, so a heavy run costs about the same
+ * either way, while small distant vehicles in a tile get more pixels. {@link #detect} keeps no state
+ * between calls apart from atomic counters, so it may run on several frame threads at once when
+ * both stages can, as {@link YoloModelDetector#detect(ImageBuffer, float)} does.
+ */
+public class CascadeDetector {
+
+    /** One tier: detections in {@code image} scoring at least {@code minConfidence}. */
+    public interface Stage {
+        List<DetectionResult> detect(ImageBuffer image, float minConfidence);
+    }
+
+    public static final float DEFAULT_UNCERTAIN_THRESHOLD = 0.25f;
+    public static final float DEFAULT_ACCEPT_THRESHOLD = 0.6f;
+    public static final float DEFAULT_MAX_TILE_FRACTION = 0.5f;
+
+    /** Context added around the uncertain boxes, as a fraction of their extent. */
+    static final float TILE_MARGIN = 0.25f;
+
+    private final Stage light;
+    private final Stage heavy;
+    private final LongSupplier nanoClock;
+
+    private volatile float uncertainThreshold = DEFAULT_UNCERTAIN_THRESHOLD;
+    private volatile float acceptThreshold = DEFAULT_ACCEPT_THRESHOLD;
+    private volatile float maxTileFraction = DEFAULT_MAX_TILE_FRACTION;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong heavyTileRuns = new AtomicLong();
+    private final AtomicLong heavyFrameRuns = new AtomicLong();
+    private final AtomicLong lightNanos = new AtomicLong();
+    private final AtomicLong heavyNanos = new AtomicLong();
+
+    public CascadeDetector(Stage light, Stage heavy) {
+        this(light, heavy, System::nanoTime);
+    }
+
+    CascadeDetector(Stage light, Stage heavy, LongSupplier nanoClock) {
+        this.light = light;
+        this.heavy = heavy;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param uncertainThreshold light score from which a detection is considered at all.
+     * @param acceptThreshold    light score from which a detection is taken without the heavy
+     *                           model; equal to {@code uncertainThreshold} disables the heavy tier.
+     */
+    public void setBands(float uncertainThreshold, float acceptThreshold) {
+        if (uncertainThreshold < 0 || uncertainThreshold > acceptThreshold || acceptThreshold > 1) {
+            throw new IllegalArgumentException("Need 0 <= uncertainThreshold <= acceptThreshold <= 1");
+        }
+        this.uncertainThreshold = uncertainThreshold;
+        this.acceptThreshold = acceptThreshold;
+    }
+
+    /**
+     * Fraction of the frame up to which the heavy model runs on a tile rather than the whole
+     * frame; 0 always runs it on the whole frame.
+     */
+    public void setMaxTileFraction(float maxTileFraction) {
+        this.maxTileFraction = maxTileFraction;
+    }
+
+    public List<DetectionResult> detect(ImageBuffer image) {
+        float low = uncertainThreshold;
+        float accept = acceptThreshold;
+        long start = nanoClock.getAsLong();
+        List<DetectionResult> candidates = light.detect(image, low);
+        long lightDone = nanoClock.getAsLong();
+        frames.incrementAndGet();
+        lightNanos.addAndGet(lightDone - start);
+
+        List<DetectionResult> accepted = new ArrayList<>(candidates.size());
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (DetectionResult detection : candidates) {
+            if (detection.getConfidence() >= accept) {
+                accepted.add(detection);
+            } else {
+                Box box = detection.getBoundingBox();
+                left = Math.min(left, box.left);
+                top = Math.min(top, box.top);
+                right = Math.max(right, box.right);
+                bottom = Math.max(bottom, box.bottom);
+            }
+        }
+        if (accepted.size() == candidates.size()) {
+            return accepted;
+        }
+
+        Box region = tile(new Box(left, top, right, bottom), image.getWidth(), image.getHeight());
+        List<DetectionResult> refined;
+        if (region.area() <= maxTileFraction * image.getWidth() * image.getHeight()) {
+            int x = (int) region.left;
+            int y = (int) region.top;
+            ImageBuffer crop = image.crop(x, y, (int) region.right - x, (int) region.bottom - y);
+            refined = offset(heavy.detect(crop, YoloModelDetector.confidenceThreshold), x, y);
+            heavyTileRuns.incrementAndGet();
+        } else {
+            refined = heavy.detect(image, YoloModelDetector.confidenceThreshold);
+            heavyFrameRuns.incrementAndGet();
+        }
+        heavyNanos.addAndGet(nanoClock.getAsLong() - lightDone);
+
+        List<DetectionResult> merged = new ArrayList<>(accepted);
+        merged.addAll(refined);
+        return YoloModelDetector.nonMaxSuppression(merged);
+    }
+
+    /** {@code box} grown by {@link #TILE_MARGIN} on each side and clipped to whole frame pixels. */
+    static Box tile(Box box, int width, int height) {
+        float dx = box.width() * TILE_MARGIN;
+        float dy = box.height() * TILE_MARGIN;
+        float left = (float) Math.floor(Math.max(0, box.left - dx));
+        float top = (float) Math.floor(Math.max(0, box.top - dy));
+        float right = (float) Math.ceil(Math.min(width, box.right + dx));
+        float bottom = (float) Math.ceil(Math.min(height, box.bottom + dy));
+        return new Box(left, top, Math.max(right, left + 1), Math.max(bottom, top + 1));
+    }
+
+    private static List<DetectionResult> offset(List<DetectionResult> detections, int x, int y) {
+        List<DetectionResult> moved = new ArrayList<>(detections.size());
+        for (DetectionResult d : detections) {
+            Box b = d.getBoundingBox();
+            moved.add(new DetectionResult(d.getClassName(), d.getConfidence(),
+                    new Box(b.left + x, b.top + y, b.right + x, b.bottom + y)));
+        }
+        return moved;
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    /** Frames the light model ran on, which is every frame. */
+    public long getLightRuns() {
+        return frames.get();
+    }
+
+    public long getHeavyTileRuns() {
+        return heavyTileRuns.get();
+    }
+
+    public long getHeavyFrameRuns() {
+        return heavyFrameRuns.get();
+    }
+
+    /**
+     * Time saved against running the heavy model alone on every frame, estimated from the mean
+     * heavy run; 0 until the heavy model has run once.
+     */
+    public long getLatencySavedMs() {
+        long heavyRuns = heavyTileRuns.get() + heavyFrameRuns.get();
+        if (heavyRuns == 0) {
+            return 0;
+        }
+        long heavyOnly = heavyNanos.get() / heavyRuns * frames.get();
+        return TimeUnit.NANOSECONDS.toMillis(heavyOnly - lightNanos.get() - heavyNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "CascadeDetector{frames=" + getFrames()
+                + ", heavyTiles=" + getHeavyTileRuns()
+                + ", heavyFrames=" + getHeavyFrameRuns()
+                + ", savedMs=" + getLatencySavedMs() + '}';
+    }
+}
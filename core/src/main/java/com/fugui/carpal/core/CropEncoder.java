@@ -0,0 +1,31 @@
+package com.fugui.carpal.core;
+
+import java.io.IOException;
+
+/**
+ * Compresses the crops {@link OffloadClient} sends to the gateway. The format id is tagged in each
+ * request so the gateway knows how to decode the crops.
+ */
+public interface CropEncoder {
+
+    /** RGB pixels, deflated. Lossless but large; the default, as it needs nothing but the JDK. */
+    int FORMAT_DEFLATE_RGB = 0;
+    /** A baseline JPEG file. */
+    int FORMAT_JPEG = 1;
+
+    CropEncoder DEFLATE_RGB = new CropEncoder() {
+        @Override
+        public int format() {
+            return FORMAT_DEFLATE_RGB;
+        }
+
+        @Override
+        public byte[] encode(ImageBuffer crop) throws IOException {
+            return OffloadProtocol.deflateRgb(crop);
+        }
+    };
+
+    int format();
+
+    byte[] encode(ImageBuffer crop) throws IOException;
+}
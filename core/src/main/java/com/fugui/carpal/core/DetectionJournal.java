@@ -0,0 +1,387 @@
+package com.fugui.carpal.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of every detection, for post-incident analysis.
+ * <p>
+ * Records have a fixed size and are written into a ring of pre-sized, memory-mapped segment files
+ * ({@code journal-<seq>.seg}). A segment is closed when it is full or older than the configured
+ * age, and the oldest segments are deleted once more than {@code maxSegments} exist. Every record
+ * carries a CRC32, so a record torn by a crash is detected and skipped on replay. Records written
+ * before the camera source was journalled are still replayed, with a null source.
+ * <p>
+ * {@link #append} and the {@link DetectionListener} callbacks only enqueue; a background thread
+ * does the writing. When the queue is full, frames are dropped and counted rather than blocking
+ * the caller.
+ */
+public class DetectionJournal implements DetectionListener, Closeable {
+
+    private static final Logger LOG = Logger.getLogger("DetectionJournal");
+
+    public static final int RECORD_SIZE = 160;
+    public static final int DEFAULT_SEGMENT_BYTES = RECORD_SIZE * 64 * 1024; // 10 MiB
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    public static final long DEFAULT_MAX_SEGMENT_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int MAGIC = 0x43504A32; // "CPJ2"
+    private static final int CLASS_BYTES = 23;
+    private static final int SOURCE_BYTES = 7;
+    // "CPJ1" records have a longer class name and no source in the same record size.
+    private static final int MAGIC_V1 = 0x43504A31;
+    private static final int CLASS_BYTES_V1 = 31;
+    private static final int TEXT_BYTES = 83;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int QUEUE_CAPACITY = 256;
+
+    /** One journalled detection. */
+    public static class Record {
+        public final long frameId;
+        public final long timestampMs;
+        /** Camera the frame came from; see {@link DetectionResult#getSource()}. */
+        public final String source;
+        public final String className;
+        public final float confidence;
+        public final Box boundingBox;
+        public final String text;
+
+        public Record(long frameId, long timestampMs, String source, String className, float confidence,
+                      Box boundingBox, String text) {
+            this.frameId = frameId;
+            this.timestampMs = timestampMs;
+            this.source = source;
+            this.className = className;
+            this.confidence = confidence;
+            this.boundingBox = boundingBox;
+            this.text = text;
+        }
+    }
+
+    /** Totals from {@link #replay}. */
+    public static class ReplayStats {
+        public final long records;
+        public final long corruptRecords;
+
+        ReplayStats(long records, long corruptRecords) {
+            this.records = records;
+            this.corruptRecords = corruptRecords;
+        }
+    }
+
+    private static final class Frame {
+        final long frameId;
+        final long timestampMs;
+        final List<DetectionResult> detections;
+
+        Frame(long frameId, long timestampMs, List<DetectionResult> detections) {
+            this.frameId = frameId;
+            this.timestampMs = timestampMs;
+            this.detections = detections;
+        }
+    }
+
+    private static final Frame STOP = new Frame(-1, 0, null);
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long maxSegmentAgeMs;
+    private final LongSupplier clock;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+
+    // Owned by the writer thread.
+    private long nextSequence;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentOpenedAt;
+    private volatile boolean closed;
+
+    public DetectionJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS, DEFAULT_MAX_SEGMENT_AGE_MS);
+    }
+
+    /**
+     * @param segmentBytes    size of each segment file, rounded down to whole records.
+     * @param maxSegments     number of segment files kept before the oldest is deleted.
+     * @param maxSegmentAgeMs a segment receives no further records once it is this old.
+     */
+    public DetectionJournal(File directory, int segmentBytes, int maxSegments, long maxSegmentAgeMs) throws IOException {
+        this(directory, segmentBytes, maxSegments, maxSegmentAgeMs, System::currentTimeMillis);
+    }
+
+    DetectionJournal(File directory, int segmentBytes, int maxSegments, long maxSegmentAgeMs, LongSupplier clock) throws IOException {
+        if (segmentBytes < RECORD_SIZE) {
+            throw new IllegalArgumentException("segmentBytes must hold at least one record");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be >= 1");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes - segmentBytes % RECORD_SIZE;
+        this.maxSegments = maxSegments;
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.clock = clock;
+
+        // Never append to a segment left by a previous run; its tail may be torn.
+        File[] existing = listSegments(directory);
+        nextSequence = existing.length > 0 ? sequenceOf(existing[existing.length - 1].getName()) + 1 : 0;
+
+        writerThread = new Thread(this::writeLoop, "DetectionJournal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues one frame's detections. Never blocks; returns false if the frame was dropped because
+     * the writer is behind or the journal is closed.
+     */
+    public boolean append(long frameId, long timestampMs, List<DetectionResult> detections) {
+        if (closed || detections.isEmpty()) {
+            return !closed;
+        }
+        if (!queue.offer(new Frame(frameId, timestampMs, new ArrayList<>(detections)))) {
+            framesDropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void onFrameComplete(long frameId, List<DetectionResult> detections) {
+        append(frameId, clock.getAsLong(), detections);
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    /**
+     * Flushes queued frames, syncs the current segment and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing journal", e);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Frame frame = queue.take();
+                if (frame == STOP) {
+                    break;
+                }
+                for (DetectionResult detection : frame.detections) {
+                    try {
+                        write(frame, detection);
+                    } catch (IOException e) {
+                        LOG.log(Level.SEVERE, "Failed to journal detection", e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to close journal segment", e);
+            }
+        }
+    }
+
+    private void write(Frame frame, DetectionResult detection) throws IOException {
+        long now = clock.getAsLong();
+        if (segment == null || !segment.hasRemaining() || now - segmentOpenedAt >= maxSegmentAgeMs) {
+            rotate(now);
+        }
+
+        ByteBuffer record = scratch;
+        record.clear();
+        Box box = detection.getBoundingBox();
+        record.putInt(MAGIC);
+        record.putLong(frame.timestampMs);
+        record.putLong(frame.frameId);
+        record.putFloat(box.left);
+        record.putFloat(box.top);
+        record.putFloat(box.right);
+        record.putFloat(box.bottom);
+        record.putFloat(detection.getConfidence());
+        putString(record, detection.getClassName(), CLASS_BYTES);
+        putString(record, detection.getSource(), SOURCE_BYTES);
+        putString(record, detection.getText(), TEXT_BYTES);
+        while (record.position() < CRC_OFFSET) {
+            record.put((byte) 0);
+        }
+        crc.reset();
+        crc.update(record.array(), 0, CRC_OFFSET);
+        record.putInt((int) crc.getValue());
+
+        record.flip();
+        segment.put(record);
+        recordsWritten.incrementAndGet();
+    }
+
+    private void rotate(long now) throws IOException {
+        closeSegment();
+        File file = new File(directory, SEGMENT_PREFIX + String.format("%016d", nextSequence++) + SEGMENT_SUFFIX);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segmentOpenedAt = now;
+
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segments[i].delete()) {
+                LOG.warning("Could not delete old journal segment " + segments[i]);
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Reads every valid record in {@code directory}, oldest first. Records with a bad checksum are
+     * skipped and counted; reading a segment stops at its first never-written slot.
+     */
+    public static ReplayStats replay(File directory, Consumer<Record> consumer) throws IOException {
+        long records = 0;
+        long corrupt = 0;
+        byte[] bytes = new byte[RECORD_SIZE];
+        CRC32 crc = new CRC32();
+        for (File file : listSegments(directory)) {
+            try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (segment.remaining() >= RECORD_SIZE) {
+                    segment.get(bytes);
+                    ByteBuffer record = ByteBuffer.wrap(bytes);
+                    int magic = record.getInt(0);
+                    if (magic == 0 && isBlank(bytes)) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(bytes, 0, CRC_OFFSET);
+                    boolean v1 = magic == MAGIC_V1;
+                    if ((magic != MAGIC && !v1) || record.getInt(CRC_OFFSET) != (int) crc.getValue()) {
+                        corrupt++;
+                        continue;
+                    }
+                    record.position(4);
+                    long timestampMs = record.getLong();
+                    long frameId = record.getLong();
+                    Box box = new Box(record.getFloat(), record.getFloat(), record.getFloat(), record.getFloat());
+                    float confidence = record.getFloat();
+                    String className = getString(record, v1 ? CLASS_BYTES_V1 : CLASS_BYTES);
+                    String source = v1 ? null : getString(record, SOURCE_BYTES);
+                    String text = getString(record, TEXT_BYTES);
+                    consumer.accept(new Record(frameId, timestampMs, source, className, confidence, box, text));
+                    records++;
+                }
+            }
+        }
+        return new ReplayStats(records, corrupt);
+    }
+
+    /** Writes a length byte followed by at most {@code maxBytes} of UTF-8, cut on a character boundary. */
+    private static void putString(ByteBuffer buffer, String value, int maxBytes) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = Math.min(bytes.length, maxBytes);
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        buffer.put((byte) (value != null ? length : 0xFF));
+        buffer.put(bytes, 0, length);
+        buffer.position(buffer.position() + maxBytes - length);
+    }
+
+    private static String getString(ByteBuffer buffer, int maxBytes) {
+        int length = buffer.get() & 0xFF;
+        int start = buffer.position();
+        buffer.position(start + maxBytes);
+        if (length == 0xFF) {
+            return null;
+        }
+        return new String(buffer.array(), start, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBlank(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static File[] listSegments(File directory) {
+        // Files that merely look like segments, such as a copy someone renamed, are left alone.
+        File[] files = directory.listFiles((dir, name) -> sequenceOf(name) >= 0);
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(sequenceOf(a.getName()), sequenceOf(b.getName())));
+        return files;
+    }
+
+    /** The sequence number in a segment file name, or -1 if {@code name} is not a segment's. */
+    private static long sequenceOf(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
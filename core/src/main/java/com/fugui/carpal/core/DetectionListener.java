@@ -0,0 +1,110 @@
+package com.fugui.carpal.core;
+
+import java.util.List;
+
+/**
+ * Receives the results of {@link VehicleDetector#detect(ImageBuffer, boolean, long, DetectionListener)}
+ * as they become available, so consumers can show vehicle boxes after the YOLO pass instead of
+ * waiting for OCR on every vehicle.
+ * <p>
+ * The same {@link DetectionResult} instances are passed to every callback of a frame and gain their
+ * text as OCR completes. {@link #onTextRecognized} may be called concurrently from OCR worker
+ * threads; the other callbacks run on the thread that called {@code detect}.
+ */
+public interface DetectionListener {
+
+    DetectionListener NONE = new DetectionListener() {
+    };
+
+    /**
+     * Called once per frame as soon as vehicle detection has finished, before any OCR.
+     */
+    default void onVehiclesDetected(long frameId, List<DetectionResult> detections) {
+    }
+
+    /**
+     * Called each time text has been recognised and attached to a vehicle.
+     */
+    default void onTextRecognized(long frameId, DetectionResult detection, String text) {
+    }
+
+    /**
+     * Called once per frame after OCR, with the number of vehicles OCR'd and the number deferred to
+     * later frames because the frame's OCR budget ran out.
+     */
+    default void onOcrScheduled(long frameId, int vehiclesRead, int vehiclesDeferred) {
+    }
+
+    /**
+     * Called once per frame after all OCR has finished.
+     */
+    default void onFrameComplete(long frameId, List<DetectionResult> detections) {
+    }
+
+    /**
+     * Tags every detection with {@code source} before {@code delegate} sees it, so consumers fed
+     * from several cameras can tell the streams apart.
+     */
+    static DetectionListener taggingSource(String source, DetectionListener delegate) {
+        return new DetectionListener() {
+            @Override
+            public void onVehiclesDetected(long frameId, List<DetectionResult> detections) {
+                for (DetectionResult detection : detections) {
+                    detection.setSource(source);
+                }
+                delegate.onVehiclesDetected(frameId, detections);
+            }
+
+            @Override
+            public void onTextRecognized(long frameId, DetectionResult detection, String text) {
+                delegate.onTextRecognized(frameId, detection, text);
+            }
+
+            @Override
+            public void onOcrScheduled(long frameId, int vehiclesRead, int vehiclesDeferred) {
+                delegate.onOcrScheduled(frameId, vehiclesRead, vehiclesDeferred);
+            }
+
+            @Override
+            public void onFrameComplete(long frameId, List<DetectionResult> detections) {
+                delegate.onFrameComplete(frameId, detections);
+            }
+        };
+    }
+
+    /**
+     * Forwards every callback to each listener in {@code listeners}, in list order. The list is read
+     * on every call, so a concurrent list may be modified while frames are being processed.
+     */
+    static DetectionListener all(List<? extends DetectionListener> listeners) {
+        return new DetectionListener() {
+            @Override
+            public void onVehiclesDetected(long frameId, List<DetectionResult> detections) {
+                for (DetectionListener listener : listeners) {
+                    listener.onVehiclesDetected(frameId, detections);
+                }
+            }
+
+            @Override
+            public void onTextRecognized(long frameId, DetectionResult detection, String text) {
+                for (DetectionListener listener : listeners) {
+                    listener.onTextRecognized(frameId, detection, text);
+                }
+            }
+
+            @Override
+            public void onOcrScheduled(long frameId, int vehiclesRead, int vehiclesDeferred) {
+                for (DetectionListener listener : listeners) {
+                    listener.onOcrScheduled(frameId, vehiclesRead, vehiclesDeferred);
+                }
+            }
+
+            @Override
+            public void onFrameComplete(long frameId, List<DetectionResult> detections) {
+                for (DetectionListener listener : listeners) {
+                    listener.onFrameComplete(frameId, detections);
+                }
+            }
+        };
+    }
+}
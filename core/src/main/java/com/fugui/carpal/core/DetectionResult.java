@@ -0,0 +1,47 @@
+package com.fugui.carpal.core;
+
+public class DetectionResult {
+    private final String className;
+    private final float confidence;
+    private final Box boundingBox;
+    private volatile String text;
+    private volatile String source;
+
+    public DetectionResult(String className, float confidence, Box boundingBox) {
+        this.className = className;
+        this.confidence = confidence;
+        this.boundingBox = boundingBox;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public Box getBoundingBox() {
+        return boundingBox;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * The camera or other input this detection came from, e.g. "back" or "front"; null when the
+     * pipeline has a single source.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+}
@@ -0,0 +1,164 @@
+package com.fugui.carpal.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares one inference pipeline between several frame sources, such as the front and rear
+ * cameras, without letting a busy source starve the others.
+ * <p>
+ * Each source holds at most one frame in the scheduler, from {@link #tryAcquire} until
+ * {@link #complete}. Frames a source produces meanwhile are skipped at the source, before any
+ * conversion work is spent on them. The inference thread takes frames with {@link #poll} in
+ * round-robin order over the sources that have one waiting, so under load every source's analysis
+ * rate drops by the same factor.
+ * <p>
+ * Sources are registered on first use. All methods are thread-safe.
+ */
+public class FairFrameScheduler<T> {
+
+    /** A frame handed out by {@link #poll}. */
+    public static final class Frame<T> {
+        public final String source;
+        public final T frame;
+
+        Frame(String source, T frame) {
+            this.source = source;
+            this.frame = frame;
+        }
+    }
+
+    /** Per-source counters. */
+    public static final class SourceStats {
+        public final String source;
+        /** Frames taken by the inference thread. */
+        public final long processed;
+        /** Frames the source offered while it already had one in the scheduler. */
+        public final long skipped;
+
+        SourceStats(String source, long processed, long skipped) {
+            this.source = source;
+            this.processed = processed;
+            this.skipped = skipped;
+        }
+
+        @Override
+        public String toString() {
+            return source + ": processed=" + processed + ", skipped=" + skipped;
+        }
+    }
+
+    private enum State {IDLE, RESERVED, PENDING, IN_FLIGHT}
+
+    private static final class Source<T> {
+        final String name;
+        State state = State.IDLE;
+        T frame;
+        long processed;
+        long skipped;
+
+        Source(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Source<T>> sources = new LinkedHashMap<>();
+    private final List<Source<T>> order = new ArrayList<>();
+    private int next;
+
+    private Source<T> source(String name) {
+        Source<T> source = sources.get(name);
+        if (source == null) {
+            source = new Source<>(name);
+            sources.put(name, source);
+            order.add(source);
+        }
+        return source;
+    }
+
+    /**
+     * Reserves the source's slot before its frame is prepared. Returns false, counting the frame
+     * as skipped, if the source still has a frame waiting or being processed.
+     */
+    public synchronized boolean tryAcquire(String name) {
+        Source<T> source = source(name);
+        if (source.state != State.IDLE) {
+            source.skipped++;
+            return false;
+        }
+        source.state = State.RESERVED;
+        return true;
+    }
+
+    /** Queues the frame for a slot reserved with {@link #tryAcquire}. */
+    public synchronized void submit(String name, T frame) {
+        Source<T> source = source(name);
+        if (source.state != State.RESERVED) {
+            throw new IllegalStateException(name + " has no reserved slot");
+        }
+        source.frame = frame;
+        source.state = State.PENDING;
+    }
+
+    /** Gives up a reserved slot, e.g. when preparing the frame failed. */
+    public synchronized void release(String name) {
+        Source<T> source = source(name);
+        if (source.state == State.RESERVED) {
+            source.state = State.IDLE;
+        }
+    }
+
+    /**
+     * Drops the source's waiting frame and frees its slot, e.g. when the inference thread can no
+     * longer be asked to {@link #poll} it. Returns the dropped frame, or null if none was waiting.
+     */
+    public synchronized T cancel(String name) {
+        Source<T> source = source(name);
+        if (source.state != State.PENDING) {
+            return null;
+        }
+        T frame = source.frame;
+        source.frame = null;
+        source.state = State.IDLE;
+        return frame;
+    }
+
+    /**
+     * Takes the next waiting frame, starting after the source served last. Returns null if no
+     * source has a frame waiting.
+     */
+    public synchronized Frame<T> poll() {
+        int n = order.size();
+        for (int i = 0; i < n; i++) {
+            int index = (next + i) % n;
+            Source<T> source = order.get(index);
+            if (source.state == State.PENDING) {
+                next = (index + 1) % n;
+                source.state = State.IN_FLIGHT;
+                source.processed++;
+                T frame = source.frame;
+                source.frame = null;
+                return new Frame<>(source.name, frame);
+            }
+        }
+        return null;
+    }
+
+    /** Frees the source's slot once the frame from {@link #poll} has been processed. */
+    public synchronized void complete(String name) {
+        Source<T> source = source(name);
+        if (source.state == State.IN_FLIGHT) {
+            source.state = State.IDLE;
+        }
+    }
+
+    public synchronized List<SourceStats> getStats() {
+        List<SourceStats> stats = new ArrayList<>(order.size());
+        for (Source<T> source : order) {
+            stats.add(new SourceStats(source.name, source.processed, source.skipped));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,39 @@
+package com.fugui.carpal.core;
+
+import java.nio.FloatBuffer;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+
+/**
+ * A dense float tensor in row-major order, produced by the preprocessing steps and handed to ORT.
+ */
+public final class FloatTensor {
+    private final float[] data;
+    private final long[] shape;
+
+    public FloatTensor(float[] data, long... shape) {
+        long size = 1;
+        for (long dim : shape) {
+            size *= dim;
+        }
+        if (size != data.length) {
+            throw new IllegalArgumentException("Shape does not match data length " + data.length);
+        }
+        this.data = data;
+        this.shape = shape;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    public long[] getShape() {
+        return shape;
+    }
+
+    public OnnxTensor toOnnxTensor(OrtEnvironment env) throws OrtException {
+        return OnnxTensor.createTensor(env, FloatBuffer.wrap(data), shape);
+    }
+}
@@ -0,0 +1,119 @@
+package com.fugui.carpal.core;
+
+/**
+ * A platform-independent ARGB_8888 image, laid out row by row in a flat int array.
+ * <p>
+ * Android code converts {@code Bitmap}s into this type at the edge of the pipeline so the
+ * detection code itself runs unchanged on a plain JVM.
+ */
+public final class ImageBuffer {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public ImageBuffer(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public ImageBuffer(int width, int height, int[] pixels) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel array too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The backing ARGB pixels; not copied.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    public ImageBuffer crop(int left, int top, int cropWidth, int cropHeight) {
+        if (left < 0 || top < 0 || left + cropWidth > width || top + cropHeight > height) {
+            throw new IllegalArgumentException("Crop " + left + "," + top + " " + cropWidth + "x" + cropHeight
+                    + " outside of " + width + "x" + height);
+        }
+        int[] out = new int[cropWidth * cropHeight];
+        for (int y = 0; y < cropHeight; y++) {
+            System.arraycopy(pixels, (top + y) * width + left, out, y * cropWidth, cropWidth);
+        }
+        return new ImageBuffer(cropWidth, cropHeight, out);
+    }
+
+    /**
+     * Bilinear resize, equivalent to {@code Bitmap.createScaledBitmap(src, w, h, true)}.
+     */
+    public ImageBuffer scale(int dstWidth, int dstHeight) {
+        if (dstWidth == width && dstHeight == height) {
+            return this;
+        }
+        int[] out = new int[dstWidth * dstHeight];
+        float sx = width / (float) dstWidth;
+        float sy = height / (float) dstHeight;
+
+        int[] x0 = new int[dstWidth];
+        int[] x1 = new int[dstWidth];
+        float[] fx = new float[dstWidth];
+        for (int x = 0; x < dstWidth; x++) {
+            float srcX = Math.max(0f, (x + 0.5f) * sx - 0.5f);
+            x0[x] = Math.min((int) srcX, width - 1);
+            x1[x] = Math.min(x0[x] + 1, width - 1);
+            fx[x] = srcX - x0[x];
+        }
+
+        PixelKernels.forEachRow(dstHeight, dstWidth, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                float srcY = Math.max(0f, (y + 0.5f) * sy - 0.5f);
+                int y0 = Math.min((int) srcY, height - 1);
+                int y1 = Math.min(y0 + 1, height - 1);
+                float fy = srcY - y0;
+                int row0 = y0 * width;
+                int row1 = y1 * width;
+                int outRow = y * dstWidth;
+                for (int x = 0; x < dstWidth; x++) {
+                    out[outRow + x] = lerp(pixels[row0 + x0[x]], pixels[row0 + x1[x]],
+                            pixels[row1 + x0[x]], pixels[row1 + x1[x]], fx[x], fy);
+                }
+            }
+        });
+        return new ImageBuffer(dstWidth, dstHeight, out);
+    }
+
+    public ImageBuffer rotate180() {
+        int n = width * height;
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = pixels[n - 1 - i];
+        }
+        return new ImageBuffer(width, height, out);
+    }
+
+    private static int lerp(int p00, int p01, int p10, int p11, float fx, float fy) {
+        int result = 0;
+        for (int shift = 0; shift <= 24; shift += 8) {
+            float top = ((p00 >>> shift) & 0xFF) * (1 - fx) + ((p01 >>> shift) & 0xFF) * fx;
+            float bottom = ((p10 >>> shift) & 0xFF) * (1 - fx) + ((p11 >>> shift) & 0xFF) * fx;
+            int v = (int) (top * (1 - fy) + bottom * fy + 0.5f);
+            result |= Math.min(255, v) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package com.fugui.carpal.core;
+
+import java.util.function.Function;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxJavaType;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * The image input a model expects, read from its first input: the original float NCHW models
+ * need normalised floats, while the uint8 variants made by {@code tools/fold_normalization.py}
+ * take raw RGB bytes in either layout.
+ */
+enum InputFormat {
+    FLOAT_NCHW,
+    UINT8_NCHW,
+    UINT8_NHWC;
+
+    static InputFormat of(OrtSession session) throws OrtException {
+        NodeInfo input = session.getInputInfo().values().iterator().next();
+        if (!(input.getInfo() instanceof TensorInfo)) {
+            return FLOAT_NCHW;
+        }
+        TensorInfo info = (TensorInfo) input.getInfo();
+        if (info.type != OnnxJavaType.UINT8) {
+            return FLOAT_NCHW;
+        }
+        long[] shape = info.getShape();
+        return shape.length == 4 && shape[3] == 3 ? UINT8_NHWC : UINT8_NCHW;
+    }
+
+    /**
+     * Builds the input tensor for {@code image}; {@code floatTensor} is only called for float
+     * models and must apply the model's normalisation.
+     */
+    OnnxTensor tensor(OrtEnvironment env, ImageBuffer image, Function<ImageBuffer, FloatTensor> floatTensor) throws OrtException {
+        if (this == FLOAT_NCHW) {
+            return floatTensor.apply(image).toOnnxTensor(env);
+        }
+        return ByteTensor.fromImage(image, this == UINT8_NHWC).toOnnxTensor(env);
+    }
+}
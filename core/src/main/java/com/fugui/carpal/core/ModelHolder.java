@@ -0,0 +1,222 @@
+package com.fugui.carpal.core;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds a loaded model that can be replaced while inference is running.
+ * <p>
+ * Callers {@link #acquire()} a lease for each inference and close it afterwards. {@link #swap}
+ * publishes the replacement at once, so new leases get it, while leases already taken keep the
+ * old model; the old model is closed when the last of them is closed. Two models are therefore
+ * only resident for as long as the slowest in-flight inference on the old one.
+ * <p>
+ * A holder created with a reloader may also {@link #unloadIfIdle() unload} its model while no
+ * lease is open, for example to stay within {@link OrtRuntime}'s memory budget; the next
+ * {@link #acquire()} loads it again on the calling thread.
+ *
+ * @param <T> the model, closed when it is retired.
+ */
+public final class ModelHolder<T extends AutoCloseable> implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("ModelHolder");
+
+    /** Use of one model by one inference; close it exactly once, when the inference is done. */
+    public static final class Lease<T extends AutoCloseable> implements AutoCloseable {
+        private final T model;
+        // One count per open lease, plus one while the model is the holder's current model.
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Lease(T model) {
+            this.model = model;
+        }
+
+        public T get() {
+            return model;
+        }
+
+        private boolean retain() {
+            int n;
+            do {
+                n = refs.get();
+                if (n == 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0) {
+                closeQuietly(model);
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+
+    // Null while the model is unloaded.
+    private final AtomicReference<Lease<T>> current;
+    private final AtomicInteger swaps = new AtomicInteger();
+    private final AtomicInteger unloads = new AtomicInteger();
+    private final AtomicInteger reloads = new AtomicInteger();
+    private volatile Callable<T> reloader;
+    private volatile long lastUsedNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    public ModelHolder(T initial) {
+        this(initial, null);
+    }
+
+    /**
+     * @param reloader loads the model again after {@link #unloadIfIdle()}; null keeps it resident.
+     *                 {@link #swapAsync} replaces it with the loader of the model swapped in.
+     */
+    public ModelHolder(T initial, Callable<T> reloader) {
+        current = new AtomicReference<>(new Lease<>(initial));
+        this.reloader = reloader;
+    }
+
+    /** Leases the current model, reloading it first if it was unloaded. */
+    public Lease<T> acquire() {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("Model holder closed");
+            }
+            Lease<T> lease = current.get();
+            if (lease == null) {
+                reload();
+                continue;
+            }
+            // Fails only if a swap or unload retired this model and its last lease closed in between.
+            if (lease.retain()) {
+                lastUsedNanos = System.nanoTime();
+                return lease;
+            }
+        }
+    }
+
+    private synchronized void reload() {
+        if (closed || current.get() != null) {
+            return;
+        }
+        T model;
+        try {
+            model = reloader.call();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to reload model", e);
+        }
+        current.set(new Lease<>(model));
+        reloads.incrementAndGet();
+    }
+
+    /**
+     * Closes the model if the holder has a reloader and no lease is open; the next
+     * {@link #acquire()} reloads it.
+     *
+     * @return whether the model was unloaded.
+     */
+    public synchronized boolean unloadIfIdle() {
+        Lease<T> lease = current.get();
+        if (closed || reloader == null || lease == null || !lease.refs.compareAndSet(1, 0)) {
+            return false;
+        }
+        current.set(null);
+        unloads.incrementAndGet();
+        closeQuietly(lease.model);
+        return true;
+    }
+
+    public boolean isLoaded() {
+        return current.get() != null;
+    }
+
+    /** Whether {@link #unloadIfIdle()} can unload the model. */
+    public boolean isUnloadable() {
+        return reloader != null;
+    }
+
+    /** {@link System#nanoTime()} of the last {@link #acquire()}, or of construction. */
+    long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    /**
+     * Makes {@code replacement} the current model; the holder takes ownership of it. The previous
+     * one is closed once its last lease is closed, possibly right away.
+     */
+    public synchronized void swap(T replacement) {
+        if (closed) {
+            closeQuietly(replacement);
+            throw new IllegalStateException("Model holder closed");
+        }
+        Lease<T> previous = current.getAndSet(new Lease<>(replacement));
+        swaps.incrementAndGet();
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Loads a replacement with {@code loader} on {@code executor} and swaps it in when it is ready;
+     * inference keeps using the current model meanwhile. The loader should also warm the model up
+     * so that the first frame on it does not stall.
+     */
+    public CompletableFuture<Void> swapAsync(Callable<T> loader, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            T replacement;
+            try {
+                replacement = loader.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            if (reloader != null) {
+                reloader = loader;
+            }
+            swap(replacement);
+        }, executor);
+    }
+
+    public int getSwaps() {
+        return swaps.get();
+    }
+
+    public int getUnloads() {
+        return unloads.get();
+    }
+
+    public int getReloads() {
+        return reloads.get();
+    }
+
+    /** Closes the current model once its open leases are closed. */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Lease<T> lease = current.getAndSet(null);
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable model) {
+        try {
+            model.close();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to close retired model", e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.fugui.carpal.core;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * Reads the text in a vehicle crop: {@link PaddleOrtEngine} on the device, or
+ * {@link OffloadOcrBackend} on a gateway with the device as fallback.
+ */
+public interface OcrBackend {
+
+    /**
+     * @param vehicles number of vehicles in {@code src}, which scales how many text boxes are
+     *                 recognised.
+     */
+    PaddleOrtEngine.OcrResult runOcr(ImageBuffer src, int vehicles) throws OrtException;
+}
@@ -0,0 +1,113 @@
+package com.fugui.carpal.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans OCR over the union of vehicle regions so that pixels shared by overlapping vehicle boxes
+ * (the same car reported as car and truck, or neighbours in a queue) go through text detection and
+ * recognition only once.
+ */
+final class OcrRegionPlanner {
+
+    /** A region OCR'd in one pass and the vehicles whose boxes it covers. */
+    static final class Region {
+        final Box bounds;
+        final List<DetectionResult> members;
+
+        Region(Box bounds, List<DetectionResult> members) {
+            this.bounds = bounds;
+            this.members = members;
+        }
+    }
+
+    private OcrRegionPlanner() {
+    }
+
+    /**
+     * Clusters detections whose boxes overlap by at least {@code minOverlap} of the smaller box.
+     * Regions are returned in the order of their first member, and members keep detection order.
+     * A {@code minOverlap} above 1 disables merging.
+     */
+    static List<Region> plan(List<DetectionResult> detections, float minOverlap) {
+        int n = detections.size();
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            Box a = detections.get(i).getBoundingBox();
+            for (int j = i + 1; j < n; j++) {
+                Box b = detections.get(j).getBoundingBox();
+                float smaller = Math.min(a.area(), b.area());
+                if (smaller > 0 && a.intersectionArea(b) >= minOverlap * smaller) {
+                    parent[find(parent, j)] = find(parent, i);
+                }
+            }
+        }
+
+        Map<Integer, List<DetectionResult>> clusters = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            clusters.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(detections.get(i));
+        }
+
+        List<Region> regions = new ArrayList<>(clusters.size());
+        for (List<DetectionResult> members : clusters.values()) {
+            float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+            float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+            for (DetectionResult member : members) {
+                Box box = member.getBoundingBox();
+                left = Math.min(left, box.left);
+                top = Math.min(top, box.top);
+                right = Math.max(right, box.right);
+                bottom = Math.max(bottom, box.bottom);
+            }
+            regions.add(new Region(new Box(left, top, right, bottom), members));
+        }
+        return regions;
+    }
+
+    /**
+     * Assigns each recognised line to the member box that contains the largest share of it, breaking
+     * ties in favour of the smaller, more specific box. Text boxes are in region coordinates.
+     * Lines are kept in recognition order per member.
+     */
+    static Map<DetectionResult, List<String>> assign(Region region, List<Box> textBoxes, List<String> texts) {
+        Map<DetectionResult, List<String>> assigned = new IdentityHashMap<>();
+        float offsetX = (int) region.bounds.left;
+        float offsetY = (int) region.bounds.top;
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text.isEmpty()) {
+                continue;
+            }
+            Box local = textBoxes.get(i);
+            Box textBox = new Box(local.left + offsetX, local.top + offsetY, local.right + offsetX, local.bottom + offsetY);
+
+            DetectionResult best = null;
+            float bestOverlap = -1;
+            for (DetectionResult member : region.members) {
+                Box box = member.getBoundingBox();
+                float overlap = textBox.intersectionArea(box);
+                if (overlap > bestOverlap
+                        || (overlap == bestOverlap && best != null && box.area() < best.getBoundingBox().area())) {
+                    best = member;
+                    bestOverlap = overlap;
+                }
+            }
+            assigned.computeIfAbsent(best, k -> new ArrayList<>()).add(text);
+        }
+        return assigned;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,118 @@
+package com.fugui.carpal.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders a frame's OCR regions by priority and decides which still fit in the frame's time
+ * budget, so a crowded frame cannot hold up the pipeline.
+ * <p>
+ * Regions whose vehicles have not been read recently come first, then larger (closer) regions,
+ * then more confident ones. A vehicle counts as read when a box overlapping it by
+ * {@link #SAME_VEHICLE_IOU} was OCR'd within the last {@link #READ_MEMORY_MS} on the same source,
+ * whether or not text came back; otherwise a large vehicle without a readable plate would lead
+ * every frame. Regions skipped for lack of time are not remembered as read, so they move to the
+ * front on the next frame.
+ * <p>
+ * The cost of a region is estimated from a moving average of past regions. All methods are
+ * thread-safe.
+ */
+final class OcrScheduler {
+
+    static final long READ_MEMORY_MS = 5000;
+    static final float SAME_VEHICLE_IOU = 0.5f;
+    private static final double COST_SMOOTHING = 0.2;
+
+    private static final class Read {
+        final Box box;
+        final long timeMs;
+
+        Read(Box box, long timeMs) {
+            this.box = box;
+            this.timeMs = timeMs;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final Map<String, List<Read>> reads = new HashMap<>();
+    private double regionCostMs;
+
+    OcrScheduler(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    long now() {
+        return clock.getAsLong();
+    }
+
+    /** Returns {@code regions} sorted by descending priority. */
+    synchronized List<OcrRegionPlanner.Region> prioritize(List<OcrRegionPlanner.Region> regions) {
+        long now = now();
+        Map<OcrRegionPlanner.Region, Boolean> unread = new HashMap<>();
+        for (OcrRegionPlanner.Region region : regions) {
+            boolean anyUnread = false;
+            for (DetectionResult member : region.members) {
+                anyUnread |= !wasRead(member, now);
+            }
+            unread.put(region, anyUnread);
+        }
+
+        List<OcrRegionPlanner.Region> ordered = new ArrayList<>(regions);
+        ordered.sort(Comparator
+                .comparing((OcrRegionPlanner.Region r) -> !unread.get(r))
+                .thenComparing(r -> -r.bounds.area())
+                .thenComparing(r -> -maxConfidence(r)));
+        return ordered;
+    }
+
+    private static float maxConfidence(OcrRegionPlanner.Region region) {
+        float max = 0f;
+        for (DetectionResult member : region.members) {
+            max = Math.max(max, member.getConfidence());
+        }
+        return max;
+    }
+
+    private boolean wasRead(DetectionResult detection, long now) {
+        List<Read> sourceReads = reads.get(detection.getSource());
+        if (sourceReads == null) {
+            return false;
+        }
+        for (Iterator<Read> it = sourceReads.iterator(); it.hasNext(); ) {
+            Read read = it.next();
+            if (now - read.timeMs > READ_MEMORY_MS) {
+                it.remove();
+            } else if (read.box.iou(detection.getBoundingBox()) >= SAME_VEHICLE_IOU) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Remembers that {@code detection} was OCR'd, with or without text. */
+    synchronized void markAttempted(DetectionResult detection) {
+        reads.computeIfAbsent(detection.getSource(), k -> new ArrayList<>())
+                .add(new Read(detection.getBoundingBox(), now()));
+    }
+
+    /**
+     * Whether a region started now is expected to finish by {@code deadlineMs}. The first region
+     * of a frame should be started regardless, so every frame makes progress.
+     */
+    synchronized boolean fits(long deadlineMs) {
+        return now() + regionCostMs <= deadlineMs;
+    }
+
+    synchronized void recordRegionCost(long elapsedMs) {
+        regionCostMs = regionCostMs == 0 ? elapsedMs : regionCostMs + COST_SMOOTHING * (elapsedMs - regionCostMs);
+    }
+
+    synchronized double getRegionCostMs() {
+        return regionCostMs;
+    }
+}
@@ -0,0 +1,223 @@
+package com.fugui.carpal.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends vehicle crops to an OCR gateway over HTTP (see {@link OffloadProtocol} for the body).
+ * <p>
+ * Each of {@code maxInFlight} sender threads owns at most one request at a time, so that many
+ * requests are pipelined on the gateway's keep-alive connections. A sender that picks up a crop
+ * waits up to {@code lingerMs} for more and sends up to {@code maxBatch} crops in one request.
+ * Crops beyond what the senders can absorb are rejected straight away rather than queued, so a
+ * slow link shows up as failures the caller can fall back on instead of a growing backlog.
+ */
+public class OffloadClient implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("OffloadClient");
+
+    public static final int DEFAULT_MAX_BATCH = 4;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    public static final long DEFAULT_LINGER_MS = 5;
+    public static final int DEFAULT_TIMEOUT_MS = 2000;
+
+    private static final class Pending {
+        final OffloadProtocol.Crop crop;
+        final CompletableFuture<PaddleOrtEngine.OcrResult> result = new CompletableFuture<>();
+
+        Pending(OffloadProtocol.Crop crop) {
+            this.crop = crop;
+        }
+    }
+
+    private final URL endpoint;
+    private final CropEncoder encoder;
+    private final int maxBatch;
+    private final long lingerMs;
+    private final int timeoutMs;
+    private final BlockingQueue<Pending> queue;
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean closed;
+
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong cropsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    public OffloadClient(URL endpoint) {
+        this(endpoint, CropEncoder.DEFLATE_RGB);
+    }
+
+    public OffloadClient(URL endpoint, CropEncoder encoder) {
+        this(endpoint, encoder, DEFAULT_MAX_BATCH, DEFAULT_MAX_IN_FLIGHT, DEFAULT_LINGER_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public OffloadClient(URL endpoint, int maxBatch, int maxInFlight, long lingerMs, int timeoutMs) {
+        this(endpoint, CropEncoder.DEFLATE_RGB, maxBatch, maxInFlight, lingerMs, timeoutMs);
+    }
+
+    /**
+     * @param endpoint    URL the crops are POSTed to.
+     * @param encoder     compresses each crop; runs on the sender threads.
+     * @param maxBatch    crops per request at most.
+     * @param maxInFlight requests outstanding at once at most.
+     * @param lingerMs    how long a sender waits to fill a batch once it has one crop.
+     * @param timeoutMs   connect and read timeout of each request.
+     */
+    public OffloadClient(URL endpoint, CropEncoder encoder, int maxBatch, int maxInFlight, long lingerMs,
+                         int timeoutMs) {
+        if (maxBatch < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("maxBatch and maxInFlight must be >= 1");
+        }
+        this.endpoint = endpoint;
+        this.encoder = encoder;
+        this.maxBatch = maxBatch;
+        this.lingerMs = lingerMs;
+        this.timeoutMs = timeoutMs;
+        this.queue = new ArrayBlockingQueue<>(maxBatch * maxInFlight);
+        for (int i = 0; i < maxInFlight; i++) {
+            Thread sender = new Thread(this::sendLoop, "ocr-offload-" + i);
+            sender.setDaemon(true);
+            senders.add(sender);
+            sender.start();
+        }
+    }
+
+    /**
+     * Queues {@code crop} for the gateway. The future fails with a
+     * {@link RejectedExecutionException} if the client is closed or saturated, and with an
+     * {@link IOException} if the request fails. Cancelling it before it is sent drops the crop.
+     */
+    public Future<PaddleOrtEngine.OcrResult> submit(ImageBuffer crop, int vehicles) {
+        Pending pending = new Pending(new OffloadProtocol.Crop(crop, vehicles));
+        if (closed) {
+            pending.result.completeExceptionally(new RejectedExecutionException("Offload client closed"));
+        } else if (!queue.offer(pending)) {
+            pending.result.completeExceptionally(new RejectedExecutionException("Offload queue full"));
+        }
+        return pending.result;
+    }
+
+    private void sendLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (!closed) {
+            try {
+                batch.clear();
+                batch.add(queue.take());
+                long lingerEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < maxBatch) {
+                    Pending next = queue.poll(Math.max(0, lingerEnd - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // Callers cancel crops they stopped waiting for.
+                batch.removeIf(pending -> pending.result.isDone());
+                if (!batch.isEmpty()) {
+                    send(batch);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        try {
+            List<OffloadProtocol.Crop> crops = new ArrayList<>(batch.size());
+            for (Pending pending : batch) {
+                crops.add(pending.crop);
+            }
+            byte[] body = OffloadProtocol.encodeRequest(crops, encoder);
+
+            HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", OffloadProtocol.CONTENT_TYPE);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    error.close();
+                }
+                throw new IOException("Gateway returned HTTP " + status);
+            }
+            List<PaddleOrtEngine.OcrResult> results;
+            try (InputStream in = new BufferedInputStream(connection.getInputStream())) {
+                results = OffloadProtocol.decodeResponse(in, batch.size());
+            }
+
+            requestsSent.incrementAndGet();
+            cropsSent.addAndGet(batch.size());
+            bytesSent.addAndGet(body.length);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            failedRequests.incrementAndGet();
+            LOG.log(Level.FINE, "Offload request failed", e);
+            for (Pending pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    public long getRequestsSent() {
+        return requestsSent.get();
+    }
+
+    public long getCropsSent() {
+        return cropsSent.get();
+    }
+
+    /** Request body bytes sent, i.e. the compressed crops plus framing. */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    /** Stops the senders and fails any crop not yet sent. */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new RejectedExecutionException("Offload client closed"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OffloadClient{" + endpoint + ", requests=" + getRequestsSent() + ", crops=" + getCropsSent()
+                + ", bytes=" + getBytesSent() + ", failed=" + getFailedRequests() + '}';
+    }
+}
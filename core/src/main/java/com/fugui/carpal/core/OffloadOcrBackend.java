@@ -0,0 +1,112 @@
+package com.fugui.carpal.core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * OCRs crops on a gateway through an {@link OffloadClient}, falling back to a local backend when
+ * the gateway does not answer within the deadline, fails, or the client is saturated.
+ * <p>
+ * After a fallback every crop is read locally for {@code retryAfterMs}; the next crop after
+ * that probes the gateway again. A crop that misses the deadline is read locally at once, so
+ * its worst case is the deadline plus one local run. Thread-safe.
+ */
+public class OffloadOcrBackend implements OcrBackend {
+
+    private static final Logger LOG = Logger.getLogger("OffloadOcrBackend");
+
+    public static final long DEFAULT_RETRY_AFTER_MS = 5000;
+
+    private final OffloadClient client;
+    private final OcrBackend local;
+    private final long deadlineMs;
+    private final long retryAfterMs;
+    private final LongSupplier clock;
+    private volatile long offlineUntilMs = Long.MIN_VALUE;
+
+    private final AtomicLong offloaded = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong localRuns = new AtomicLong();
+
+    /**
+     * @param deadlineMs how long to wait for the gateway per crop before reading it locally.
+     */
+    public OffloadOcrBackend(OffloadClient client, OcrBackend local, long deadlineMs) {
+        this(client, local, deadlineMs, DEFAULT_RETRY_AFTER_MS, () -> System.nanoTime() / 1_000_000);
+    }
+
+    OffloadOcrBackend(OffloadClient client, OcrBackend local, long deadlineMs, long retryAfterMs, LongSupplier clock) {
+        this.client = client;
+        this.local = local;
+        this.deadlineMs = deadlineMs;
+        this.retryAfterMs = retryAfterMs;
+        this.clock = clock;
+    }
+
+    @Override
+    public PaddleOrtEngine.OcrResult runOcr(ImageBuffer src, int vehicles) throws OrtException {
+        if (isOffline()) {
+            localRuns.incrementAndGet();
+            return local.runOcr(src, vehicles);
+        }
+
+        Future<PaddleOrtEngine.OcrResult> remote = client.submit(src, vehicles);
+        String failure;
+        try {
+            PaddleOrtEngine.OcrResult result = remote.get(deadlineMs, TimeUnit.MILLISECONDS);
+            offloaded.incrementAndGet();
+            return result;
+        } catch (TimeoutException e) {
+            failure = "no answer within " + deadlineMs + "ms";
+        } catch (ExecutionException e) {
+            failure = String.valueOf(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = "interrupted";
+        }
+        remote.cancel(false);
+
+        offlineUntilMs = clock.getAsLong() + retryAfterMs;
+        fallbacks.incrementAndGet();
+        localRuns.incrementAndGet();
+        LOG.warning("OCR offload failed (" + failure + "), reading on device for the next " + retryAfterMs + "ms.");
+        return local.runOcr(src, vehicles);
+    }
+
+    /** Whether crops currently go straight to the local backend after a recent failure. */
+    public boolean isOffline() {
+        return clock.getAsLong() < offlineUntilMs;
+    }
+
+    /** Crops read by the gateway. */
+    public long getOffloaded() {
+        return offloaded.get();
+    }
+
+    /** Crops the gateway failed to read in time, each of which switched OCR to the device. */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /** Crops read by the local backend, including fallbacks. */
+    public long getLocalRuns() {
+        return localRuns.get();
+    }
+
+    public OffloadClient getClient() {
+        return client;
+    }
+
+    @Override
+    public String toString() {
+        return "OffloadOcrBackend{offloaded=" + getOffloaded() + ", fallbacks=" + getFallbacks()
+                + ", local=" + getLocalRuns() + ", offline=" + isOffline() + ", " + client + '}';
+    }
+}
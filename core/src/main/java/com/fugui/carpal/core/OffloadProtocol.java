@@ -0,0 +1,214 @@
+package com.fugui.carpal.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Body format of the OCR offload requests exchanged by {@link OffloadClient} and a gateway.
+ * <p>
+ * A request is {@code MAGIC, count, format} followed by each crop as {@code width, height,
+ * vehicles, length, bytes}, the bytes being the crop compressed by a {@link CropEncoder} whose
+ * {@link CropEncoder#format() format} the header names. The response is
+ * {@code MAGIC, count} followed by each crop's text lines as {@code lines} then
+ * {@code left, top, right, bottom, score, text} per line, with the box in crop pixels. All
+ * numbers are big-endian and the text is modified UTF-8 ({@link DataOutputStream#writeUTF}).
+ */
+final class OffloadProtocol {
+
+    static final int MAGIC = 0x43504F32; // "CPO2"
+    static final String CONTENT_TYPE = "application/x-carpal-ocr";
+
+    // Bounds on what a peer may ask us to allocate.
+    private static final int MAX_CROPS = 64;
+    private static final int MAX_PIXELS = 4096 * 4096;
+    private static final int MAX_LINES = 256;
+
+    /** Decodes crops of a format other than {@link CropEncoder#FORMAT_DEFLATE_RGB}. */
+    interface CropDecoder {
+        ImageBuffer decode(byte[] data, int width, int height) throws IOException;
+    }
+
+    static final class Crop {
+        final ImageBuffer image;
+        final int vehicles;
+
+        Crop(ImageBuffer image, int vehicles) {
+            this.image = image;
+            this.vehicles = vehicles;
+        }
+    }
+
+    private OffloadProtocol() {
+    }
+
+    static byte[] encodeRequest(List<Crop> crops, CropEncoder encoder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(crops.size());
+        out.writeInt(encoder.format());
+        for (Crop crop : crops) {
+            byte[] pixels = encoder.encode(crop.image);
+            out.writeInt(crop.image.getWidth());
+            out.writeInt(crop.image.getHeight());
+            out.writeInt(crop.vehicles);
+            out.writeInt(pixels.length);
+            out.write(pixels);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<Crop> decodeRequest(InputStream stream) throws IOException {
+        return decodeRequest(stream, null);
+    }
+
+    /**
+     * @param decoder decodes the crops if the request is not in
+     *                {@link CropEncoder#FORMAT_DEFLATE_RGB}, or null to reject such requests.
+     */
+    static List<Crop> decodeRequest(InputStream stream, CropDecoder decoder) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int count = readHeader(in, MAX_CROPS);
+        int format = in.readInt();
+        if (format != CropEncoder.FORMAT_DEFLATE_RGB && decoder == null) {
+            throw new IOException("Unsupported crop format " + format);
+        }
+        List<Crop> crops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int width = in.readInt();
+            int height = in.readInt();
+            int vehicles = in.readInt();
+            int length = in.readInt();
+            if (width <= 0 || height <= 0 || (long) width * height > MAX_PIXELS || length < 0 || length > 3 * MAX_PIXELS) {
+                throw new IOException("Malformed crop " + width + "x" + height + ", " + length + " bytes");
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            ImageBuffer image = format == CropEncoder.FORMAT_DEFLATE_RGB
+                    ? inflateRgb(data, width, height) : decoder.decode(data, width, height);
+            if (image.getWidth() != width || image.getHeight() != height) {
+                throw new IOException("Crop decoded to " + image.getWidth() + "x" + image.getHeight()
+                        + ", expected " + width + "x" + height);
+            }
+            crops.add(new Crop(image, vehicles));
+        }
+        return crops;
+    }
+
+    static byte[] encodeResponse(List<PaddleOrtEngine.OcrResult> results) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(results.size());
+        for (PaddleOrtEngine.OcrResult result : results) {
+            out.writeInt(result.texts.size());
+            for (int i = 0; i < result.texts.size(); i++) {
+                Box region = result.regions.get(i);
+                out.writeInt((int) region.left);
+                out.writeInt((int) region.top);
+                out.writeInt((int) region.right);
+                out.writeInt((int) region.bottom);
+                out.writeFloat(result.boxes.get(i).score);
+                out.writeUTF(result.texts.get(i));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a response. The boxes of the returned results are the text regions, in crop
+     * coordinates, rather than the det input coordinates a local run reports.
+     */
+    static List<PaddleOrtEngine.OcrResult> decodeResponse(InputStream stream, int expected) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int count = readHeader(in, MAX_CROPS);
+        if (count != expected) {
+            throw new IOException("Expected " + expected + " results, got " + count);
+        }
+        List<PaddleOrtEngine.OcrResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int lines = in.readInt();
+            if (lines < 0 || lines > MAX_LINES) {
+                throw new IOException("Malformed line count " + lines);
+            }
+            List<PaddleOrtEngine.RotatedBox> boxes = new ArrayList<>(lines);
+            List<String> texts = new ArrayList<>(lines);
+            List<Box> regions = new ArrayList<>(lines);
+            for (int j = 0; j < lines; j++) {
+                int left = in.readInt();
+                int top = in.readInt();
+                int right = in.readInt();
+                int bottom = in.readInt();
+                float score = in.readFloat();
+                texts.add(in.readUTF());
+                regions.add(new Box(left, top, right, bottom));
+                boxes.add(new PaddleOrtEngine.RotatedBox(new float[][]{
+                        {left, top}, {right, top}, {right, bottom}, {left, bottom}}, score));
+            }
+            results.add(new PaddleOrtEngine.OcrResult(boxes, texts, regions));
+        }
+        return results;
+    }
+
+    private static int readHeader(DataInputStream in, int maxCount) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not an OCR offload message: " + Integer.toHexString(magic));
+        }
+        int count = in.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("Malformed count " + count);
+        }
+        return count;
+    }
+
+    static byte[] deflateRgb(ImageBuffer image) throws IOException {
+        int n = image.getWidth() * image.getHeight();
+        int[] pixels = image.getPixels();
+        byte[] rgb = new byte[3 * n];
+        for (int i = 0, o = 0; i < n; i++, o += 3) {
+            int p = pixels[i];
+            rgb[o] = (byte) (p >> 16);
+            rgb[o + 1] = (byte) (p >> 8);
+            rgb[o + 2] = (byte) p;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(n);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+                out.write(rgb);
+            }
+            return bytes.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ImageBuffer inflateRgb(byte[] deflated, int width, int height) throws IOException {
+        int n = width * height;
+        byte[] rgb = new byte[3 * n];
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(deflated), inflater))) {
+            in.readFully(rgb);
+        } finally {
+            inflater.end();
+        }
+        int[] pixels = new int[n];
+        for (int i = 0, o = 0; i < n; i++, o += 3) {
+            pixels[i] = 0xFF000000 | (rgb[o] & 0xFF) << 16 | (rgb[o + 1] & 0xFF) << 8 | (rgb[o + 2] & 0xFF);
+        }
+        return new ImageBuffer(width, height, pixels);
+    }
+}
@@ -0,0 +1,23 @@
+package com.fugui.carpal.core;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/** An ORT session and the input format read from it, swapped as one in a {@link ModelHolder}. */
+final class OrtModel implements AutoCloseable {
+    final OrtSession session;
+    final InputFormat input;
+    /** Size of the model file, which approximates what the session keeps resident. */
+    final long bytes;
+
+    OrtModel(OrtSession session, long bytes) throws OrtException {
+        this.session = session;
+        this.input = InputFormat.of(session);
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void close() throws OrtException {
+        session.close();
+    }
+}
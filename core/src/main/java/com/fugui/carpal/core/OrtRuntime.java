@@ -0,0 +1,260 @@
+package com.fugui.carpal.core;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtLoggingLevel;
+import ai.onnxruntime.OrtSession;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The process-wide ONNX Runtime environment and the options every session is created with.
+ * <p>
+ * By default each session owns an intra-op thread pool, so YOLO and the three OCR sessions keep
+ * four pools alive between them. {@link #initGlobalThreads} instead creates the environment with
+ * one intra-op and one inter-op pool that all sessions share. ORT fixes the environment when it is
+ * first created, so that call has to come before any model is loaded.
+ * <p>
+ * Sessions are tracked against an optional memory budget, see {@link #setMemoryBudget}.
+ */
+public final class OrtRuntime {
+
+    private static final Logger LOG = Logger.getLogger("OrtRuntime");
+
+    private static OrtRuntime instance;
+
+    private static final class Tracked {
+        final String name;
+        final ModelHolder<?> holder;
+        final long bytes;
+        // Taken once per trim so the sort order cannot change under concurrent acquires.
+        long lastUsedNanos;
+
+        Tracked(String name, ModelHolder<?> holder, long bytes) {
+            this.name = name;
+            this.holder = holder;
+            this.bytes = bytes;
+        }
+    }
+
+    private final OrtEnvironment env;
+    private final int globalIntraOpThreads;
+    private volatile boolean arenaAllocator = true;
+    private volatile boolean memoryPattern = true;
+    private final List<Tracked> tracked = new ArrayList<>();
+    private long budgetBytes;
+    private long minIdleNanos;
+
+    private OrtRuntime(OrtEnvironment env, int globalIntraOpThreads) {
+        this.env = env;
+        this.globalIntraOpThreads = globalIntraOpThreads;
+    }
+
+    /**
+     * Creates the environment with thread pools shared by all sessions. Spinning is turned off so
+     * that idle pool threads sleep instead of burning a core between frames.
+     *
+     * @param intraOpThreads threads for work inside one operator; 0 keeps the ORT default of one
+     *                       per core.
+     * @param interOpThreads threads for running independent operators in parallel; 0 keeps the
+     *                       ORT default.
+     * @throws IllegalStateException if the environment already exists.
+     */
+    public static synchronized OrtRuntime initGlobalThreads(int intraOpThreads, int interOpThreads)
+            throws OrtException {
+        if (instance != null) {
+            throw new IllegalStateException("ORT runtime already initialised");
+        }
+        try (OrtEnvironment.ThreadingOptions threading = new OrtEnvironment.ThreadingOptions()) {
+            threading.setGlobalIntraOpNumThreads(intraOpThreads);
+            threading.setGlobalInterOpNumThreads(interOpThreads);
+            threading.setGlobalSpinControl(false);
+            instance = new OrtRuntime(OrtEnvironment.getEnvironment(
+                    OrtLoggingLevel.ORT_LOGGING_LEVEL_WARNING, "carpal", threading),
+                    Math.max(1, intraOpThreads == 0 ? Runtime.getRuntime().availableProcessors() : intraOpThreads));
+        }
+        LOG.info("Global ORT thread pools: " + intraOpThreads + " intra-op, " + interOpThreads + " inter-op");
+        return instance;
+    }
+
+    /** Whether the environment has been created, by either {@link #initGlobalThreads} or {@link #get()}. */
+    public static synchronized boolean isInitialised() {
+        return instance != null;
+    }
+
+    /** The runtime, with per-session thread pools unless {@link #initGlobalThreads} ran first. */
+    public static synchronized OrtRuntime get() {
+        if (instance == null) {
+            instance = new OrtRuntime(OrtEnvironment.getEnvironment(), 0);
+        }
+        return instance;
+    }
+
+    public OrtEnvironment environment() {
+        return env;
+    }
+
+    public boolean hasGlobalThreads() {
+        return globalIntraOpThreads > 0;
+    }
+
+    /**
+     * Whether sessions keep freed tensor memory in an arena for reuse (the ORT default). Turning it
+     * off lowers resident memory at some cost per run. Applies to sessions created afterwards.
+     */
+    public void setArenaAllocator(boolean arenaAllocator) {
+        this.arenaAllocator = arenaAllocator;
+    }
+
+    /**
+     * Whether sessions plan memory from the first run's allocation pattern (the ORT default). It
+     * only pays off for fixed input shapes. Applies to sessions created afterwards.
+     */
+    public void setMemoryPattern(boolean memoryPattern) {
+        this.memoryPattern = memoryPattern;
+    }
+
+    /**
+     * @param intraOpThreads per-session pool size, 0 for the ORT default; ignored when the pools
+     *                       are global.
+     */
+    OrtSession.SessionOptions sessionOptions(int intraOpThreads) throws OrtException {
+        OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
+        opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+        opts.setCPUArenaAllocator(arenaAllocator);
+        opts.setMemoryPatternOptimization(memoryPattern);
+        if (hasGlobalThreads()) {
+            opts.disablePerSessionThreads();
+        } else if (intraOpThreads > 0) {
+            opts.setIntraOpNumThreads(intraOpThreads);
+        }
+        return opts;
+    }
+
+    /** Creates a session from a model read with {@link AssetSource#readDirect}. */
+    OrtSession createSession(ByteBuffer model, int intraOpThreads) throws OrtException {
+        try (OrtSession.SessionOptions opts = sessionOptions(intraOpThreads)) {
+            return env.createSession(model, opts);
+        }
+    }
+
+    OrtSession createSession(InputStream model, int intraOpThreads) throws IOException, OrtException {
+        return createSession(AssetSource.readDirect(model), intraOpThreads);
+    }
+
+    /**
+     * Counts {@code holder}'s model against the memory budget; {@code bytes}, usually the model file
+     * size, approximates what it keeps resident.
+     */
+    synchronized void track(String name, ModelHolder<?> holder, long bytes) {
+        tracked.add(new Tracked(name, holder, bytes));
+    }
+
+    synchronized void untrack(ModelHolder<?> holder) {
+        tracked.removeIf(t -> t.holder == holder);
+    }
+
+    /**
+     * Lets {@link #trimToBudget()} unload models while the tracked ones exceed {@code bytes}. Only
+     * unloadable models (see {@link ModelHolder#isUnloadable()}) that have not been used for
+     * {@code minIdleMs} are unloaded, least recently used first; they are reloaded when next used.
+     *
+     * @param bytes the budget, or 0 to keep every model loaded.
+     */
+    public synchronized void setMemoryBudget(long bytes, long minIdleMs) {
+        budgetBytes = bytes;
+        minIdleNanos = TimeUnit.MILLISECONDS.toNanos(minIdleMs);
+    }
+
+    /** Bytes of the tracked models that are currently loaded. */
+    public synchronized long getResidentModelBytes() {
+        long resident = 0;
+        for (Tracked t : tracked) {
+            if (t.holder.isLoaded()) {
+                resident += t.bytes;
+            }
+        }
+        return resident;
+    }
+
+    /**
+     * Unloads idle models until the tracked ones fit the memory budget, or no more can go. Cheap
+     * when they already fit; call it between frames.
+     *
+     * @return the number of models unloaded.
+     */
+    public synchronized int trimToBudget() {
+        if (budgetBytes <= 0) {
+            return 0;
+        }
+        long resident = getResidentModelBytes();
+        if (resident <= budgetBytes) {
+            return 0;
+        }
+        List<Tracked> candidates = new ArrayList<>();
+        for (Tracked t : tracked) {
+            if (t.holder.isUnloadable() && t.holder.isLoaded()) {
+                t.lastUsedNanos = t.holder.getLastUsedNanos();
+                candidates.add(t);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(t -> t.lastUsedNanos));
+        long now = System.nanoTime();
+        int unloaded = 0;
+        for (Tracked t : candidates) {
+            if (resident <= budgetBytes || now - t.lastUsedNanos < minIdleNanos) {
+                break;
+            }
+            if (t.holder.unloadIfIdle()) {
+                resident -= t.bytes;
+                unloaded++;
+                LOG.info("Unloaded idle model " + t.name + " to stay within the memory budget");
+            }
+        }
+        return unloaded;
+    }
+
+    /** Thread count, resident set size and which tracked models are loaded, for logs. */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder(processStats())
+                .append(" pools=").append(hasGlobalThreads() ? "global(" + globalIntraOpThreads + ")" : "per-session")
+                .append(" models=[");
+        for (int i = 0; i < tracked.size(); i++) {
+            Tracked t = tracked.get(i);
+            sb.append(i == 0 ? "" : ", ").append(t.name).append(t.holder.isLoaded() ? "" : " (unloaded)");
+        }
+        return sb.append("] modelKb=").append(getResidentModelBytes() / 1024).toString();
+    }
+
+    /** Thread count and resident set size of this process; -1 each where /proc is unavailable. */
+    public static String processStats() {
+        return "threads=" + readStatus("Threads:") + " rssKb=" + readStatus("VmRSS:");
+    }
+
+    /**
+     * Reads a numeric field such as {@code "Threads:"} or {@code "VmRSS:"} (in kB) from
+     * /proc/self/status; -1 where that file does not exist.
+     */
+    static long readStatus(String field) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux; callers report -1.
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,154 @@
+package com.fugui.carpal.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size ring of encoded video packets backed by one preallocated direct buffer, so holding
+ * the last few seconds of video costs a constant amount of memory outside the Java heap.
+ * <p>
+ * Packets are stored contiguously; when the newest packet does not fit before the end of the
+ * buffer it wraps to the start, and the oldest packets are evicted until it fits. Not thread-safe.
+ */
+public class PacketRingBuffer {
+
+    /** Receives packets read back out of the ring. */
+    public interface PacketConsumer {
+        /**
+         * @param data a read-only view of the packet, positioned at its first byte.
+         */
+        void accept(ByteBuffer data, long presentationTimeUs, boolean keyFrame);
+    }
+
+    private final ByteBuffer storage;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] timestamps;
+    private final boolean[] keyFrames;
+    private int head; // index of the oldest packet
+    private int count;
+
+    /**
+     * @param capacityBytes total bytes of packet data kept.
+     * @param maxPackets    maximum number of packets kept, e.g. frame rate times window seconds.
+     */
+    public PacketRingBuffer(int capacityBytes, int maxPackets) {
+        storage = ByteBuffer.allocateDirect(capacityBytes);
+        offsets = new int[maxPackets];
+        sizes = new int[maxPackets];
+        timestamps = new long[maxPackets];
+        keyFrames = new boolean[maxPackets];
+    }
+
+    /**
+     * Copies the remaining bytes of {@code data} into the ring, evicting old packets as needed.
+     * Returns false, keeping the ring unchanged, if the packet is larger than the whole ring.
+     */
+    public boolean add(ByteBuffer data, long presentationTimeUs, boolean keyFrame) {
+        int size = data.remaining();
+        if (size > storage.capacity()) {
+            return false;
+        }
+        if (count == offsets.length) {
+            evictOldest();
+        }
+
+        int offset = freeOffset(size);
+        while (offset < 0) {
+            evictOldest();
+            offset = freeOffset(size);
+        }
+
+        ByteBuffer target = storage.duplicate();
+        target.position(offset);
+        target.put(data.duplicate());
+
+        int index = (head + count) % offsets.length;
+        offsets[index] = offset;
+        sizes[index] = size;
+        timestamps[index] = presentationTimeUs;
+        keyFrames[index] = keyFrame;
+        count++;
+        return true;
+    }
+
+    /** Where a packet of {@code size} bytes fits without touching live data, or -1 if nowhere. */
+    private int freeOffset(int size) {
+        if (count == 0) {
+            return 0;
+        }
+        int oldest = offsets[head];
+        int newestIndex = (head + count - 1) % offsets.length;
+        int newestEnd = offsets[newestIndex] + sizes[newestIndex];
+        if (oldest < newestEnd) {
+            // Live data is one run [oldest, newestEnd); free space is after it or before it.
+            if (newestEnd + size <= storage.capacity()) {
+                return newestEnd;
+            }
+            return size <= oldest ? 0 : -1;
+        }
+        // Live data wraps around; free space is the gap [newestEnd, oldest).
+        return newestEnd + size <= oldest ? newestEnd : -1;
+    }
+
+    private void evictOldest() {
+        head = (head + 1) % offsets.length;
+        count--;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /** Timestamp of the newest packet, or -1 when empty. */
+    public long newestTimestampUs() {
+        return count == 0 ? -1 : timestamps[(head + count - 1) % offsets.length];
+    }
+
+    /** Timestamp of the oldest packet, or -1 when empty. */
+    public long oldestTimestampUs() {
+        return count == 0 ? -1 : timestamps[head];
+    }
+
+    /**
+     * Passes packets in order, starting at the last key frame at or before {@code fromUs} (or the
+     * oldest key frame if that one has been evicted) and ending with the last packet at or before
+     * {@code toUs}. Returns the number of packets passed.
+     */
+    public int read(long fromUs, long toUs, PacketConsumer consumer) {
+        int start = -1;
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % offsets.length;
+            if (!keyFrames[index]) {
+                continue;
+            }
+            if (start < 0 || timestamps[index] <= fromUs) {
+                start = i;
+            }
+            if (timestamps[index] > fromUs) {
+                break;
+            }
+        }
+        if (start < 0) {
+            return 0;
+        }
+
+        int passed = 0;
+        for (int i = start; i < count; i++) {
+            int index = (head + i) % offsets.length;
+            if (timestamps[index] > toUs) {
+                break;
+            }
+            ByteBuffer view = storage.asReadOnlyBuffer();
+            view.limit(offsets[index] + sizes[index]);
+            view.position(offsets[index]);
+            consumer.accept(view.slice(), timestamps[index], keyFrames[index]);
+            passed++;
+        }
+        return passed;
+    }
+}
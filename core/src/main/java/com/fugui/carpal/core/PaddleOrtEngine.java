@@ -0,0 +1,559 @@
+package com.fugui.carpal.core;
+
+import ai.onnxruntime.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+public class PaddleOrtEngine implements OcrBackend, Closeable {
+
+    /* ========== 静态配置 ========== */
+    private static final int[] DET_SHAPE = {1, 3, 736, 1280};
+    private static final int[] CLS_SHAPE = {1, 3, 48, 192};
+    private static final int[] REC_SHAPE = {1, 3, 48, 320};
+
+    private static final float[] MEAN = {0.485f, 0.456f, 0.406f};
+    private static final float[] STD = {0.229f, 0.224f, 0.225f};
+
+    /* ========== 成员 ========== */
+    private final OrtRuntime runtime;
+    private final OrtEnvironment env;
+    private final ModelHolder<OrtModel> det, cls;
+    private final ModelHolder<RecModel> rec;
+    private final int intraOpThreads;
+    private volatile PlateCandidateFilter candidateFilter;
+    private volatile RecognitionCache recognitionCache;
+
+    /* ========== 构造 ========== */
+    public PaddleOrtEngine(AssetSource assets,
+                           String detPath, String clsPath,
+                           String recPath, String dictPath)
+            throws IOException, OrtException {
+        this(assets, detPath, clsPath, recPath, dictPath, 0);
+    }
+
+    /**
+     * @param intraOpThreads threads each session may use inside a single run() call; 0 keeps the
+     *                       ORT default of one per core. Lower it when several callers run OCR
+     *                       concurrently so the sessions do not oversubscribe the CPU. Ignored
+     *                       when {@link OrtRuntime#initGlobalThreads} gave all sessions one pool.
+     */
+    public PaddleOrtEngine(AssetSource assets,
+                           String detPath, String clsPath,
+                           String recPath, String dictPath,
+                           int intraOpThreads)
+            throws IOException, OrtException {
+        runtime = OrtRuntime.get();
+        env = runtime.environment();
+        this.intraOpThreads = intraOpThreads;
+        OrtModel detModel = load(assets, detPath);
+        det = new ModelHolder<>(detModel);
+        runtime.track("det", det, detModel.bytes);
+        // cls is the smallest session and only decides whether a box is upside down, so it is the
+        // one that may be unloaded under a memory budget; it comes back warm when next needed.
+        OrtModel clsModel = load(assets, clsPath);
+        cls = new ModelHolder<>(clsModel, () -> loadWarm(assets, clsPath, CLS_SHAPE));
+        runtime.track("cls", cls, clsModel.bytes);
+        RecModel recModel = new RecModel(load(assets, recPath), loadDict(assets, dictPath));
+        rec = new ModelHolder<>(recModel);
+        runtime.track("rec", rec, recModel.model.bytes);
+    }
+
+    /** The rec session and the character dictionary its output indexes, swapped as one. */
+    private static final class RecModel implements AutoCloseable {
+        final OrtModel model;
+        final List<String> dictionary;
+
+        RecModel(OrtModel model, List<String> dictionary) {
+            this.model = model;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void close() throws OrtException {
+            model.close();
+        }
+    }
+
+    private OrtModel load(AssetSource assets, String path) throws IOException, OrtException {
+        try (InputStream is = assets.open(path)) {
+            ByteBuffer raw = AssetSource.readDirect(is);
+            return new OrtModel(runtime.createSession(raw, intraOpThreads), raw.limit());
+        }
+    }
+
+    /**
+     * Limits which detected text boxes {@link #runOcr} passes on to cls and rec; null, the
+     * default, recognises every box.
+     */
+    public void setCandidateFilter(PlateCandidateFilter candidateFilter) {
+        this.candidateFilter = candidateFilter;
+    }
+
+    public PlateCandidateFilter getCandidateFilter() {
+        return candidateFilter;
+    }
+
+    /**
+     * Lets {@link #recognize} reuse what rec read from a crop that looks the same as a recent one;
+     * null, the default, runs rec on every crop.
+     */
+    public void setRecognitionCache(RecognitionCache recognitionCache) {
+        this.recognitionCache = recognitionCache;
+    }
+
+    public RecognitionCache getRecognitionCache() {
+        return recognitionCache;
+    }
+
+    /* ========== 1. 检测 ========== */
+    public DetectResult detect(ImageBuffer src) throws OrtException {
+        ResizeResult resizeResult = resizeKeepAspect(src, DET_SHAPE[2], DET_SHAPE[3]);
+
+        try (ModelHolder.Lease<OrtModel> model = det.acquire();
+             OnnxTensor tensor = tensor(model.get(), resizeResult.image, DET_SHAPE);
+             OrtSession.Result res = model.get().session.run(Map.of("x", tensor))) {
+            float[][] probMap = ((float[][][][]) res.get(0).getValue())[0][0];
+            List<RotatedBox> boxes = postDb(probMap, 0.3f, 0.5f);
+            return new DetectResult(boxes, resizeResult.scale, resizeResult.padW, resizeResult.padH);
+        }
+    }
+
+    static List<RotatedBox> postDb(float[][] prob, float thresh, float boxThresh) {
+        int H = prob.length;
+        int W = prob[0].length;
+
+        boolean[][] bitmap = new boolean[H][W];
+        PixelKernels.forEachRow(H, W, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                float[] probRow = prob[i];
+                boolean[] bitmapRow = bitmap[i];
+                for (int j = 0; j < W; j++)
+                    bitmapRow[j] = probRow[j] > thresh;
+            }
+        });
+
+        List<List<int[]>> contours = new ArrayList<>();
+        boolean[][] vis = new boolean[H][W];
+        int[] dx = {1, -1, 0, 0}, dy = {0, 0, 1, -1};
+        for (int i = 0; i < H; i++) {
+            for (int j = 0; j < W; j++) {
+                if (!bitmap[i][j] || vis[i][j]) continue;
+                List<int[]> queue = new LinkedList<>();
+                List<int[]> component = new ArrayList<>();
+                queue.add(new int[]{i, j});
+                vis[i][j] = true;
+                while (!queue.isEmpty()) {
+                    int[] p = queue.remove(0);
+                    component.add(p);
+                    for (int d = 0; d < 4; d++) {
+                        int ni = p[0] + dx[d], nj = p[1] + dy[d];
+                        if (ni < 0 || ni >= H || nj < 0 || nj >= W) continue;
+                        if (!bitmap[ni][nj] || vis[ni][nj]) continue;
+                        vis[ni][nj] = true;
+                        queue.add(new int[]{ni, nj});
+                    }
+                }
+                if (component.size() > 10) contours.add(component);
+            }
+        }
+
+        List<RotatedBox> result = new ArrayList<>();
+        for (List<int[]> pts : contours) {
+            float score = 0;
+            for (int[] p : pts) score += prob[p[0]][p[1]];
+            score /= pts.size();
+            if (score < boxThresh) continue;
+
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int[] p : pts) {
+                minX = Math.min(minX, p[1]);
+                maxX = Math.max(maxX, p[1]);
+                minY = Math.min(minY, p[0]);
+                maxY = Math.max(maxY, p[0]);
+            }
+
+            int boxHeight = maxY - minY;
+            // Reduced the padding to 50% of the height plus a small constant.
+            int padding = (int) (boxHeight * 0.5) + 3;
+
+            minX = Math.max(0, minX - padding);
+            maxX = Math.min(W, maxX + padding);
+            minY = Math.max(0, minY - padding);
+            maxY = Math.min(H, maxY + padding);
+
+            float[][] pf = new float[4][];
+            pf[0] = new float[]{minX, minY};
+            pf[1] = new float[]{maxX, minY};
+            pf[2] = new float[]{maxX, maxY};
+            pf[3] = new float[]{minX, maxY};
+            result.add(new RotatedBox(pf, score));
+        }
+        return result;
+    }
+
+    /* ========== 2. 方向分类 & 3. 识别 ========== */
+    public boolean isRotated180(ImageBuffer crop) throws OrtException {
+        ResizeResult resizeResult = resizeKeepAspect(crop, CLS_SHAPE[2], CLS_SHAPE[3]);
+        try (ModelHolder.Lease<OrtModel> model = cls.acquire();
+             OnnxTensor tensor = tensor(model.get(), resizeResult.image, CLS_SHAPE);
+             OrtSession.Result res = model.get().session.run(Map.of("x", tensor))) {
+            float[][] prob = (float[][]) res.get(0).getValue();
+            return prob[0][1] > 0.5f;
+        }
+    }
+
+    public String recognize(ImageBuffer crop) throws OrtException {
+        return recognizeLine(crop).text;
+    }
+
+    /** Reads one text line, from the recognition cache when one is set and the crop is in it. */
+    public Recognition recognizeLine(ImageBuffer crop) throws OrtException {
+        ResizeResult resizeResult = resizeKeepAspect(crop, REC_SHAPE[2], REC_SHAPE[3]);
+        RecognitionCache cache = recognitionCache;
+        long[] hash = null;
+        if (cache != null) {
+            hash = RecognitionCache.hash(resizeResult);
+            Recognition cached = cache.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int swaps = rec.getSwaps();
+        Recognition recognition = runRec(resizeResult.image);
+        // A read that may have run on a model swapped out meanwhile would outlive the cache clear.
+        if (cache != null && rec.getSwaps() == swaps) {
+            cache.put(hash, recognition);
+        }
+        return recognition;
+    }
+
+    private Recognition runRec(ImageBuffer input) throws OrtException {
+        try (ModelHolder.Lease<RecModel> model = rec.acquire();
+             OnnxTensor tensor = tensor(model.get().model, input, REC_SHAPE);
+             OrtSession.Result res = model.get().model.session.run(Map.of("x", tensor))) {
+            float[][][] logits = (float[][][]) res.get(0).getValue();
+            int[] pred = ctcDecode(logits[0]);
+            return new Recognition(idxToStr(pred, model.get().dictionary), ctcConfidence(logits[0]));
+        }
+    }
+
+    /**
+     * Runs det, cls and rec once each on blank input. ORT allocates its buffers and the JIT
+     * compiles the pre/post-processing on first use, which otherwise lands on the first real frame.
+     */
+    public void warmUp() throws OrtException {
+        detect(new ImageBuffer(DET_SHAPE[3], DET_SHAPE[2]));
+        ImageBuffer crop = new ImageBuffer(REC_SHAPE[3], REC_SHAPE[2]);
+        isRotated180(crop);
+        // Bypasses the cache so that rec itself is warmed up however often this is called.
+        runRec(resizeKeepAspect(crop, REC_SHAPE[2], REC_SHAPE[3]).image);
+    }
+
+    /**
+     * Loads replacement det/cls/rec models in the background and switches to each once it has
+     * been warmed up; a null path keeps that model. Runs already in progress finish on the old
+     * sessions, which are closed afterwards. The future completes when every swap is done.
+     *
+     * @param dictPath character dictionary of the new rec model, switched to together with it;
+     *                 null keeps the current one, which suits a rec model trained on the same
+     *                 characters.
+     * @throws IllegalArgumentException if {@code dictPath} is given without {@code recPath}.
+     */
+    public CompletableFuture<Void> swapModels(AssetSource assets, String detPath, String clsPath, String recPath,
+                                              String dictPath, Executor executor) {
+        if (dictPath != null && recPath == null) {
+            throw new IllegalArgumentException("A dictionary can only be swapped with its rec model");
+        }
+        List<CompletableFuture<Void>> swaps = new ArrayList<>(3);
+        if (detPath != null) {
+            swaps.add(det.swapAsync(() -> loadWarm(assets, detPath, DET_SHAPE), executor));
+        }
+        if (clsPath != null) {
+            swaps.add(cls.swapAsync(() -> loadWarm(assets, clsPath, CLS_SHAPE), executor));
+        }
+        if (recPath != null) {
+            swaps.add(rec.swapAsync(() -> {
+                List<String> dictionary;
+                if (dictPath != null) {
+                    dictionary = loadDict(assets, dictPath);
+                } else {
+                    try (ModelHolder.Lease<RecModel> current = rec.acquire()) {
+                        dictionary = current.get().dictionary;
+                    }
+                }
+                return new RecModel(loadWarm(assets, recPath, REC_SHAPE), dictionary);
+            }, executor).thenRun(() -> {
+                // Cached reads came from the old model.
+                RecognitionCache cache = recognitionCache;
+                if (cache != null) {
+                    cache.clear();
+                }
+            }));
+        }
+        return CompletableFuture.allOf(swaps.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private OrtModel loadWarm(AssetSource assets, String path, int[] shape) throws IOException, OrtException {
+        OrtModel model = load(assets, path);
+        try (OnnxTensor tensor = tensor(model, new ImageBuffer(shape[3], shape[2]), shape)) {
+            // One run on a blank input so the first real frame doesn't pay for the allocations.
+            model.session.run(Map.of("x", tensor)).close();
+            return model;
+        } catch (OrtException e) {
+            model.close();
+            throw e;
+        }
+    }
+
+    private OnnxTensor tensor(OrtModel model, ImageBuffer image, int[] shape) throws OrtException {
+        return model.input.tensor(env, image, i -> toTensor(i, shape));
+    }
+
+    /* ========== 完整端到端 ========== */
+    public OcrResult runOcr(ImageBuffer src) throws OrtException {
+        return runOcr(src, 1);
+    }
+
+    /**
+     * @param vehicles number of vehicles in {@code src}, which scales how many text boxes the
+     *                 candidate filter lets through.
+     */
+    @Override
+    public OcrResult runOcr(ImageBuffer src, int vehicles) throws OrtException {
+        DetectResult detectResult = detect(src);
+        List<RotatedBox> candidates = detectResult.boxes;
+        List<Box> candidateRegions = new ArrayList<>(candidates.size());
+        float[] scores = new float[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            candidateRegions.add(toSourceBox(src, candidates.get(i), detectResult.scale, detectResult.padW, detectResult.padH));
+            scores[i] = candidates.get(i).score;
+        }
+
+        PlateCandidateFilter filter = candidateFilter;
+        int[] selected = filter != null
+                ? filter.select(candidateRegions, scores, src.getWidth(), src.getHeight(), vehicles)
+                : IntStream.range(0, candidates.size()).toArray();
+
+        List<RotatedBox> boxes = new ArrayList<>(selected.length);
+        List<String> texts = new ArrayList<>(selected.length);
+        List<Box> regions = new ArrayList<>(selected.length);
+        for (int i : selected) {
+            Box region = candidateRegions.get(i);
+            ImageBuffer crop = cropBox(src, region);
+            if (isRotated180(crop)) {
+                crop = crop.rotate180();
+            }
+            boxes.add(candidates.get(i));
+            texts.add(recognize(crop));
+            regions.add(region);
+        }
+        return new OcrResult(boxes, texts, regions);
+    }
+
+    /* ========== 工具 ========== */
+    static FloatTensor toTensor(ImageBuffer image, int[] shape) {
+        int H = image.getHeight();
+        int W = image.getWidth();
+        float[] buf = new float[shape[1] * H * W];
+        int[] pixels = image.getPixels();
+
+        int plane = H * W;
+        PixelKernels.forEachRow(H, W, (from, to) -> {
+            for (int j = from * W, end = to * W; j < end; j++) {
+                int p = pixels[j];
+                float r = ((p >> 16) & 0xff) / 255.0f;
+                float g = ((p >> 8) & 0xff) / 255.0f;
+                float b = (p & 0xff) / 255.0f;
+                buf[j] = (r - MEAN[0]) / STD[0];
+                buf[plane + j] = (g - MEAN[1]) / STD[1];
+                buf[plane * 2 + j] = (b - MEAN[2]) / STD[2];
+            }
+        });
+
+        long[] longShape = Arrays.stream(shape).asLongStream().toArray();
+        return new FloatTensor(buf, longShape);
+    }
+
+    static ResizeResult resizeKeepAspect(ImageBuffer src, int tarH, int tarW) {
+        float scale = Math.min((float) tarW / src.getWidth(), (float) tarH / src.getHeight());
+        int scaledW = Math.max(1, (int) (src.getWidth() * scale));
+        int scaledH = Math.max(1, (int) (src.getHeight() * scale));
+
+        ImageBuffer scaled = src.scale(scaledW, scaledH);
+        ImageBuffer letterboxed = new ImageBuffer(tarW, tarH);
+
+        int padW = (tarW - scaledW) / 2;
+        int padH = (tarH - scaledH) / 2;
+
+        int[] from = scaled.getPixels();
+        int[] to = letterboxed.getPixels();
+        for (int y = 0; y < scaledH; y++) {
+            System.arraycopy(from, y * scaledW, to, (y + padH) * tarW + padW, scaledW);
+        }
+        return new ResizeResult(letterboxed, scale, padW, padH);
+    }
+
+    /**
+     * Maps a box from the letterboxed det input back to integer pixel bounds in {@code src}.
+     */
+    static Box toSourceBox(ImageBuffer src, RotatedBox box, float scale, int padW, int padH) {
+        Box r = box.bound();
+        int left = (int) ((r.left - padW) / scale);
+        int top = (int) ((r.top - padH) / scale);
+        int right = (int) ((r.right - padW) / scale);
+        int bottom = (int) ((r.bottom - padH) / scale);
+
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(src.getWidth(), right);
+        bottom = Math.min(src.getHeight(), bottom);
+
+        return new Box(left, top, right, bottom);
+    }
+
+    static ImageBuffer cropBox(ImageBuffer src, Box region) {
+        int width = (int) region.width();
+        int height = (int) region.height();
+
+        if (width <= 0 || height <= 0) {
+            return new ImageBuffer(1, 1);
+        }
+        return src.crop((int) region.left, (int) region.top, width, height);
+    }
+
+    static int[] ctcDecode(float[][] prob) {
+        List<Integer> idx = new ArrayList<>();
+        int last = -1;
+        for (float[] step : prob) {
+            int maxIdx = 0;
+            for (int i = 1; i < step.length; i++)
+                if (step[i] > step[maxIdx]) maxIdx = i;
+            if (maxIdx != 0 && maxIdx != last) idx.add(maxIdx);
+            last = maxIdx;
+        }
+        return idx.stream().mapToInt(i -> i).toArray();
+    }
+
+    /** Mean probability of the characters {@link #ctcDecode} emits; 0 when it emits none. */
+    static float ctcConfidence(float[][] prob) {
+        float sum = 0;
+        int count = 0;
+        int last = -1;
+        for (float[] step : prob) {
+            int maxIdx = 0;
+            for (int i = 1; i < step.length; i++)
+                if (step[i] > step[maxIdx]) maxIdx = i;
+            if (maxIdx != 0 && maxIdx != last) {
+                sum += step[maxIdx];
+                count++;
+            }
+            last = maxIdx;
+        }
+        return count == 0 ? 0f : sum / count;
+    }
+
+    private static String idxToStr(int[] idx, List<String> dictionary) {
+        StringBuilder sb = new StringBuilder();
+        for (int i : idx) if (i < dictionary.size()) sb.append(dictionary.get(i));
+        return sb.toString();
+    }
+
+    private List<String> loadDict(AssetSource assets, String path) throws IOException {
+        List<String> list = new ArrayList<>();
+        list.add("blank");
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(assets.open(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) list.add(line.trim());
+        }
+        return list;
+    }
+
+    @Override
+    public void close() throws IOException {
+        runtime.untrack(det);
+        runtime.untrack(cls);
+        runtime.untrack(rec);
+        det.close();
+        cls.close();
+        rec.close();
+        env.close();
+    }
+
+    /* ========== 简单数据结构 ========== */
+    static class ResizeResult {
+        final ImageBuffer image;
+        final float scale;
+        final int padW, padH;
+
+        public ResizeResult(ImageBuffer image, float scale, int padW, int padH) {
+            this.image = image;
+            this.scale = scale;
+            this.padW = padW;
+            this.padH = padH;
+        }
+    }
+
+    public static class DetectResult {
+        public final List<RotatedBox> boxes;
+        public final float scale;
+        public final int padW, padH;
+
+        public DetectResult(List<RotatedBox> boxes, float scale, int padW, int padH) {
+            this.boxes = boxes;
+            this.scale = scale;
+            this.padW = padW;
+            this.padH = padH;
+        }
+    }
+
+    public static class RotatedBox {
+        /** Four corner points as {x, y} pairs. */
+        public final float[][] pts;
+        public final float score;
+
+        public RotatedBox(float[][] p, float s) {
+            pts = p;
+            score = s;
+        }
+
+        public Box bound() {
+            int left = (int) Math.min(Math.min(pts[0][0], pts[1][0]), Math.min(pts[2][0], pts[3][0]));
+            int top = (int) Math.min(Math.min(pts[0][1], pts[1][1]), Math.min(pts[2][1], pts[3][1]));
+            int right = (int) Math.max(Math.max(pts[0][0], pts[1][0]), Math.max(pts[2][0], pts[3][0]));
+            int bot = (int) Math.max(Math.max(pts[0][1], pts[1][1]), Math.max(pts[2][1], pts[3][1]));
+            return new Box(left, top, right, bot);
+        }
+    }
+
+    /** One recognised text line. */
+    public static class Recognition {
+        public final String text;
+        /** Mean probability rec gave the characters read, 0-1. */
+        public final float confidence;
+
+        public Recognition(String text, float confidence) {
+            this.text = text;
+            this.confidence = confidence;
+        }
+    }
+
+    public static class OcrResult {
+        public final List<RotatedBox> boxes;
+        public final List<String> texts;
+        /** Where each text line was cropped from, in the coordinates of the OCR'd image. */
+        public final List<Box> regions;
+
+        public OcrResult(List<RotatedBox> b, List<String> t, List<Box> r) {
+            boxes = b;
+            texts = t;
+            regions = r;
+        }
+    }
+}
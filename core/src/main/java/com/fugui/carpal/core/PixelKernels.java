@@ -0,0 +1,103 @@
+package com.fugui.carpal.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs per-pixel loops (resize, tensor conversion, DB thresholding) as row ranges on a shared
+ * fork-join pool, so a 1280x736 det input or 640x640 YOLO input is not converted on one core.
+ * <p>
+ * Parallelism is 1 (everything runs on the caller) until {@link #setParallelism(int)} is called,
+ * and can be changed at any time. Images under {@link #MIN_PARALLEL_PIXELS} always run on the
+ * caller, so small cls/rec crops do not pay for the hand-off.
+ */
+public final class PixelKernels {
+
+    static final int MIN_PARALLEL_PIXELS = 1 << 15;
+    // Ranges per thread, so one slow core does not hold up the whole image.
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** Processes rows {@code [fromRow, toRow)}. */
+    interface RowKernel {
+        void run(int fromRow, int toRow);
+    }
+
+    private static ForkJoinPool pool; // null while serial
+
+    private PixelKernels() {
+    }
+
+    /**
+     * Sets how many threads the kernels use; 1 runs them on the calling thread. Around the number
+     * of big cores is a good start on phones.
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1");
+        }
+        if (threads == getParallelism()) {
+            return;
+        }
+        ForkJoinPool old = pool;
+        pool = threads == 1 ? null : new ForkJoinPool(threads, PixelKernels::newThread, null, false);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    public static synchronized int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool forkJoinPool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+        thread.setName("pixel-kernel-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    /** Runs {@code kernel} over {@code rows} rows of {@code width} pixels and waits for it. */
+    static void forEachRow(int rows, int width, RowKernel kernel) {
+        ForkJoinPool p;
+        synchronized (PixelKernels.class) {
+            p = pool;
+        }
+        if (p == null || rows < 2 || (long) rows * width < MIN_PARALLEL_PIXELS) {
+            kernel.run(0, rows);
+            return;
+        }
+        int grain = Math.max(1, rows / (p.getParallelism() * CHUNKS_PER_THREAD));
+        try {
+            p.invoke(new Rows(kernel, 0, rows, grain));
+        } catch (RejectedExecutionException e) {
+            // The pool was replaced while we were starting; nothing has run yet.
+            kernel.run(0, rows);
+        }
+    }
+
+    private static final class Rows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialised; RecursiveAction is merely Serializable.
+        private final transient RowKernel kernel;
+        private final int from, to, grain;
+
+        Rows(RowKernel kernel, int from, int to, int grain) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                kernel.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Rows(kernel, from, mid, grain), new Rows(kernel, mid, to, grain));
+        }
+    }
+}
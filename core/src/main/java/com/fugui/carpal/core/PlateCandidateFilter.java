@@ -0,0 +1,151 @@
+package com.fugui.carpal.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ranks text boxes found by the DB detector inside a vehicle crop by how much they look like a
+ * licence plate, so that only the most promising few go through orientation and recognition.
+ * Badges, stickers and fragments of signs behind the vehicle are otherwise recognised too.
+ * <p>
+ * Boxes are in crop coordinates and include the padding {@code postDb} adds around each text
+ * component, which roughly halves the aspect ratio of the text itself: a single-row plate
+ * (text about 4.5:1) comes out near 2.5:1 and a square badge or single glyph near 1:1. A box is
+ * rejected outright if its aspect is below {@code minAspect}, it is narrower than
+ * {@link #MIN_WIDTH} pixels or it covers more than {@code maxAreaFraction} of the crop.
+ * The rest are scored by DB score, closeness to the plate aspect range, width relative to the crop
+ * and vertical position (plates sit in the lower part of a vehicle), and the best
+ * {@code maxCandidates} are kept.
+ * <p>
+ * Safe to share between OCR workers.
+ */
+public class PlateCandidateFilter {
+
+    public static final int DEFAULT_MAX_CANDIDATES = 3;
+    public static final float DEFAULT_MIN_ASPECT = 1.2f;
+    public static final float DEFAULT_MAX_AREA_FRACTION = 0.6f;
+
+    /** Narrower boxes cannot be read reliably by rec at its 48 px input height. */
+    static final int MIN_WIDTH = 8;
+
+    // Padded aspect range of single- and double-row plates seen at any distance.
+    private static final float PLATE_ASPECT_MIN = 1.6f;
+    private static final float PLATE_ASPECT_MAX = 4.0f;
+    private static final float PLATE_WIDTH_FRACTION_MIN = 0.08f;
+    private static final float PLATE_WIDTH_FRACTION_MAX = 0.7f;
+
+    private final int maxCandidates;
+    private final float minAspect;
+    private final float maxAreaFraction;
+
+    private final AtomicLong candidatesSeen = new AtomicLong();
+    private final AtomicLong rejectedByGeometry = new AtomicLong();
+    private final AtomicLong droppedByRank = new AtomicLong();
+
+    public PlateCandidateFilter() {
+        this(DEFAULT_MAX_CANDIDATES, DEFAULT_MIN_ASPECT, DEFAULT_MAX_AREA_FRACTION);
+    }
+
+    /**
+     * @param maxCandidates   boxes recognised per vehicle at most.
+     * @param minAspect       width/height below which a box is rejected.
+     * @param maxAreaFraction fraction of the crop area above which a box is rejected.
+     */
+    public PlateCandidateFilter(int maxCandidates, float minAspect, float maxAreaFraction) {
+        if (maxCandidates < 1) {
+            throw new IllegalArgumentException("maxCandidates must be >= 1");
+        }
+        this.maxCandidates = maxCandidates;
+        this.minAspect = minAspect;
+        this.maxAreaFraction = maxAreaFraction;
+    }
+
+    /**
+     * Returns the indices of the boxes worth recognising, in their original order.
+     *
+     * @param boxes  text boxes in crop coordinates.
+     * @param scores DB score of each box.
+     */
+    public int[] select(List<Box> boxes, float[] scores, int cropWidth, int cropHeight) {
+        return select(boxes, scores, cropWidth, cropHeight, 1);
+    }
+
+    /**
+     * Like {@link #select(List, float[], int, int)} for a crop showing several vehicles, keeping up
+     * to {@code maxCandidates} boxes per vehicle.
+     */
+    public int[] select(List<Box> boxes, float[] scores, int cropWidth, int cropHeight, int vehicles) {
+        int n = boxes.size();
+        float[] likeness = new float[n];
+        Integer[] order = new Integer[n];
+        int accepted = 0;
+        for (int i = 0; i < n; i++) {
+            likeness[i] = plateLikeness(boxes.get(i), scores[i], cropWidth, cropHeight);
+            order[i] = i;
+            if (likeness[i] > 0) {
+                accepted++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(likeness[b], likeness[a]));
+
+        int kept = Math.min(accepted, maxCandidates * Math.max(1, vehicles));
+        int[] result = new int[kept];
+        for (int i = 0; i < kept; i++) {
+            result[i] = order[i];
+        }
+        Arrays.sort(result);
+
+        candidatesSeen.addAndGet(n);
+        rejectedByGeometry.addAndGet(n - accepted);
+        droppedByRank.addAndGet(accepted - kept);
+        return result;
+    }
+
+    /** Plate-likeness in (0, 1], or 0 if the box is rejected outright. */
+    float plateLikeness(Box box, float score, int cropWidth, int cropHeight) {
+        float w = box.width();
+        float h = box.height();
+        if (w < MIN_WIDTH || h <= 0) {
+            return 0f;
+        }
+        float aspect = w / h;
+        if (aspect < minAspect || box.area() > maxAreaFraction * cropWidth * cropHeight) {
+            return 0f;
+        }
+
+        float aspectScore = 1f;
+        if (aspect < PLATE_ASPECT_MIN) {
+            aspectScore = aspect / PLATE_ASPECT_MIN;
+        } else if (aspect > PLATE_ASPECT_MAX) {
+            aspectScore = PLATE_ASPECT_MAX / aspect;
+        }
+        float widthFraction = w / cropWidth;
+        float sizeScore = widthFraction >= PLATE_WIDTH_FRACTION_MIN && widthFraction <= PLATE_WIDTH_FRACTION_MAX ? 1f : 0.5f;
+        float verticalPosition = Math.max(0f, Math.min(1f, box.centerY() / cropHeight));
+        float positionScore = 0.6f + 0.4f * verticalPosition;
+
+        return Math.max(score, 1e-3f) * aspectScore * sizeScore * positionScore;
+    }
+
+    public long getCandidatesSeen() {
+        return candidatesSeen.get();
+    }
+
+    /** Boxes rejected for their shape or size alone. */
+    public long getRejectedByGeometry() {
+        return rejectedByGeometry.get();
+    }
+
+    /** Acceptable boxes that ranked below the top {@code maxCandidates} of their crop. */
+    public long getDroppedByRank() {
+        return droppedByRank.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PlateCandidateFilter{seen=" + getCandidatesSeen()
+                + ", rejected=" + getRejectedByGeometry()
+                + ", droppedByRank=" + getDroppedByRank() + '}';
+    }
+}
@@ -0,0 +1,236 @@
+package com.fugui.carpal.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers what rec read from recent text crops so that a crop that looks the same again, such as
+ * the plate of a parked car or of the vehicle ahead in a queue, is not recognised again.
+ * <p>
+ * Crops are keyed by a perceptual hash of the rec input: the scaled crop inside it is reduced to
+ * mean luma over a {@value #GRID_COLS}x{@value #GRID_ROWS} grid, from which a difference hash
+ * (each cell brighter than its right neighbour) and an average hash (each cell brighter than the
+ * grid mean) are taken, 256 bits together. A cell has to be brighter by {@value #MARGIN} luma levels, so flat areas hash
+ * to zeros rather than to noise. Two crops match when the hashes differ in at most
+ * {@code maxDistance} bits, the closest match winning. That absorbs sensor noise and compression
+ * but not a shift of a pixel or more, so only crops that are practically unchanged hit. Matching
+ * does not depend on tracking, only on what the crop looks like.
+ * <p>
+ * At most {@code maxEntries} results are kept, least recently used evicted first, and each expires
+ * {@code ttlMs} after it was recognised whether or not it is hit meanwhile, so that a cached read
+ * is refreshed now and then. Safe to share between OCR workers.
+ */
+public class RecognitionCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final int DEFAULT_MAX_DISTANCE = 4;
+    public static final long DEFAULT_TTL_MS = 5000;
+
+    // One more column than the hash is wide, for the difference hash.
+    static final int GRID_COLS = 33;
+    static final int GRID_ROWS = 4;
+    // Luma levels by which a cell must be brighter to set a bit; keeps flat areas from hashing noise.
+    static final float MARGIN = 3f;
+    static final int MAX_SIZE_DIFFERENCE = 2;
+
+    private static final class Entry {
+        final long[] hash;
+        final PaddleOrtEngine.Recognition recognition;
+        final long createdMs;
+
+        Entry(long[] hash, PaddleOrtEngine.Recognition recognition, long createdMs) {
+            this.hash = hash;
+            this.recognition = recognition;
+            this.createdMs = createdMs;
+        }
+    }
+
+    private final int maxEntries;
+    private final int maxDistance;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Long, Entry> entries;
+    private long nextId;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public RecognitionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_DISTANCE, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * @param maxEntries  results kept at most.
+     * @param maxDistance differing hash bits (of 256) up to which two crops count as the same;
+     *                    raising it saves more rec runs but risks returning a similar plate's text.
+     * @param ttlMs       how long a result is reused after it was recognised.
+     */
+    public RecognitionCache(int maxEntries, int maxDistance, long ttlMs) {
+        this(maxEntries, maxDistance, ttlMs, System::currentTimeMillis);
+    }
+
+    RecognitionCache(int maxEntries, int maxDistance, long ttlMs, LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be >= 1");
+        }
+        this.maxEntries = maxEntries;
+        this.maxDistance = maxDistance;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > RecognitionCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The difference and average hash of the letterboxed rec input, see the class comment, taken
+     * over the scaled crop only; the padding would otherwise dominate the average hash. The size of
+     * the scaled crop goes into the last element.
+     */
+    static long[] hash(PaddleOrtEngine.ResizeResult input) {
+        ImageBuffer image = input.image;
+        int stride = image.getWidth();
+        int left = input.padW;
+        int top = input.padH;
+        int width = Math.max(1, stride - 2 * left);
+        int height = Math.max(1, image.getHeight() - 2 * top);
+        int[] pixels = image.getPixels();
+        float[] cells = new float[GRID_ROWS * GRID_COLS];
+        for (int r = 0; r < GRID_ROWS; r++) {
+            int y0 = r * height / GRID_ROWS;
+            int y1 = Math.max(y0 + 1, (r + 1) * height / GRID_ROWS);
+            for (int c = 0; c < GRID_COLS; c++) {
+                int x0 = c * width / GRID_COLS;
+                int x1 = Math.max(x0 + 1, (c + 1) * width / GRID_COLS);
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int p = pixels[(top + Math.min(y, height - 1)) * stride + left + Math.min(x, width - 1)];
+                        sum += 299 * ((p >> 16) & 0xff) + 587 * ((p >> 8) & 0xff) + 114 * (p & 0xff);
+                    }
+                }
+                cells[r * GRID_COLS + c] = sum / 1000f / ((y1 - y0) * (x1 - x0));
+            }
+        }
+
+        float mean = 0;
+        for (int r = 0; r < GRID_ROWS; r++) {
+            for (int c = 0; c < GRID_COLS - 1; c++) {
+                mean += cells[r * GRID_COLS + c];
+            }
+        }
+        mean /= GRID_ROWS * (GRID_COLS - 1);
+
+        // Bits 0-127 difference hash, 128-255 average hash, over the first 32 columns.
+        long[] hash = new long[5];
+        for (int r = 0; r < GRID_ROWS; r++) {
+            for (int c = 0; c < GRID_COLS - 1; c++) {
+                int bit = r * (GRID_COLS - 1) + c;
+                float cell = cells[r * GRID_COLS + c];
+                if (cell > cells[r * GRID_COLS + c + 1] + MARGIN) {
+                    hash[bit >> 6] |= 1L << (bit & 63);
+                }
+                if (cell > mean + MARGIN) {
+                    hash[2 + (bit >> 6)] |= 1L << (bit & 63);
+                }
+            }
+        }
+        hash[4] = (long) width << 32 | height;
+        return hash;
+    }
+
+    /**
+     * Differing hash bits, or {@link Integer#MAX_VALUE} when the scaled crops differ in size by more
+     * than {@value #MAX_SIZE_DIFFERENCE} pixels, which a crop that has not changed never does.
+     */
+    static int distance(long[] a, long[] b) {
+        if (Math.abs((int) (a[4] >>> 32) - (int) (b[4] >>> 32)) > MAX_SIZE_DIFFERENCE
+                || Math.abs((int) a[4] - (int) b[4]) > MAX_SIZE_DIFFERENCE) {
+            return Integer.MAX_VALUE;
+        }
+        int bits = 0;
+        for (int i = 0; i < 4; i++) {
+            bits += Long.bitCount(a[i] ^ b[i]);
+        }
+        return bits;
+    }
+
+    /** The cached result for a crop with {@code hash}, or null on a miss. */
+    public synchronized PaddleOrtEngine.Recognition get(long[] hash) {
+        Long id = closest(hash);
+        if (id == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        // Access-ordered, so this also marks the entry as recently used.
+        return entries.get(id).recognition;
+    }
+
+    /** Caches {@code recognition} for {@code hash}, replacing any result for a matching crop. */
+    public synchronized void put(long[] hash, PaddleOrtEngine.Recognition recognition) {
+        Long id = closest(hash);
+        if (id != null) {
+            entries.remove(id);
+        }
+        entries.put(nextId++, new Entry(hash, recognition, clock.getAsLong()));
+    }
+
+    /** Drops expired entries on the way and returns the id of the closest live match, if any. */
+    private Long closest(long[] hash) {
+        long now = clock.getAsLong();
+        Long best = null;
+        long bestDistance = (long) maxDistance + 1;
+        for (Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Entry> e = it.next();
+            if (now - e.getValue().createdMs >= ttlMs) {
+                it.remove();
+                expired.incrementAndGet();
+                continue;
+            }
+            int d = distance(hash, e.getValue().hash);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = e.getKey();
+            }
+        }
+        return best;
+    }
+
+    /** Forgets every cached result, e.g. once a different rec model reads the crops. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Entries dropped because their TTL ran out. */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RecognitionCache{hits=" + getHits()
+                + ", misses=" + getMisses()
+                + ", expired=" + getExpired()
+                + ", size=" + size() + '}';
+    }
+}
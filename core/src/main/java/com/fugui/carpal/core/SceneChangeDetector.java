@@ -0,0 +1,122 @@
+package com.fugui.carpal.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cheap scene-change test on the luma plane of a camera frame, used to skip inference while the
+ * camera sees the same scene (parked, waiting at a light).
+ * <p>
+ * The frame is divided into a {@code gridSize x gridSize} grid and the mean luma of each block is
+ * estimated from a sparse sample of its pixels. A frame counts as changed when more than
+ * {@code changedBlockFraction} of the blocks differ from the last analysed frame by more than
+ * {@code blockThreshold} luma levels. The reference is only replaced when a change is reported, so
+ * slow drift accumulates until it triggers an analysis.
+ */
+public class SceneChangeDetector {
+
+    public static final int DEFAULT_GRID_SIZE = 16;
+    public static final float DEFAULT_BLOCK_THRESHOLD = 12f;
+    public static final float DEFAULT_CHANGED_BLOCK_FRACTION = 0.05f;
+
+    /** Only every SAMPLE_STEP-th pixel in each direction contributes to a block mean. */
+    private static final int SAMPLE_STEP = 4;
+
+    private final int gridSize;
+    private final float blockThreshold;
+    private final float changedBlockFraction;
+
+    private float[] reference;
+    private float[] current;
+    private long framesChecked;
+    private long framesSkipped;
+
+    public SceneChangeDetector() {
+        this(DEFAULT_GRID_SIZE, DEFAULT_BLOCK_THRESHOLD, DEFAULT_CHANGED_BLOCK_FRACTION);
+    }
+
+    /**
+     * @param gridSize             blocks per side.
+     * @param blockThreshold       mean luma difference (0-255) above which a block counts as changed.
+     * @param changedBlockFraction fraction of changed blocks above which the frame counts as changed;
+     *                             lower values make the gate more sensitive.
+     */
+    public SceneChangeDetector(int gridSize, float blockThreshold, float changedBlockFraction) {
+        if (gridSize < 1) {
+            throw new IllegalArgumentException("gridSize must be >= 1");
+        }
+        this.gridSize = gridSize;
+        this.blockThreshold = blockThreshold;
+        this.changedBlockFraction = changedBlockFraction;
+        this.current = new float[gridSize * gridSize];
+    }
+
+    /**
+     * Checks a luma plane laid out like an {@code ImageProxy} Y plane. The buffer is read with
+     * absolute gets, so its position is left untouched.
+     */
+    public synchronized boolean hasChanged(ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+        int cellW = Math.max(1, width / gridSize);
+        int cellH = Math.max(1, height / gridSize);
+        for (int by = 0; by < gridSize; by++) {
+            int y0 = Math.min(by * cellH, height - 1);
+            int y1 = Math.min(y0 + cellH, height);
+            for (int bx = 0; bx < gridSize; bx++) {
+                int x0 = Math.min(bx * cellW, width - 1);
+                int x1 = Math.min(x0 + cellW, width);
+                int sum = 0;
+                int count = 0;
+                for (int y = y0; y < y1; y += SAMPLE_STEP) {
+                    int row = y * rowStride;
+                    for (int x = x0; x < x1; x += SAMPLE_STEP) {
+                        sum += luma.get(row + x * pixelStride) & 0xFF;
+                        count++;
+                    }
+                }
+                current[by * gridSize + bx] = count > 0 ? sum / (float) count : 0f;
+            }
+        }
+        return compareWithReference();
+    }
+
+    public boolean hasChanged(byte[] luma, int width, int height) {
+        return hasChanged(ByteBuffer.wrap(luma), width, height, width, 1);
+    }
+
+    private boolean compareWithReference() {
+        framesChecked++;
+        boolean changed;
+        if (reference == null) {
+            changed = true;
+        } else {
+            int changedBlocks = 0;
+            for (int i = 0; i < current.length; i++) {
+                if (Math.abs(current[i] - reference[i]) > blockThreshold) {
+                    changedBlocks++;
+                }
+            }
+            changed = changedBlocks > changedBlockFraction * current.length;
+        }
+
+        if (changed) {
+            float[] previous = reference;
+            reference = current;
+            current = previous != null ? previous : new float[gridSize * gridSize];
+        } else {
+            framesSkipped++;
+        }
+        return changed;
+    }
+
+    /** Forgets the reference frame so the next frame is always reported as changed. */
+    public synchronized void reset() {
+        reference = null;
+    }
+
+    public synchronized long getFramesChecked() {
+        return framesChecked;
+    }
+
+    public synchronized long getFramesSkipped() {
+        return framesSkipped;
+    }
+}
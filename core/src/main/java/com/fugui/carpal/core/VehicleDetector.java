@@ -0,0 +1,427 @@
+package com.fugui.carpal.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ai.onnxruntime.OrtException;
+
+public class VehicleDetector implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("VehicleDetector");
+    public static final float DEFAULT_CROP_MERGE_OVERLAP = 0.3f;
+    // Cumulative counters are logged this often rather than on every frame.
+    static final long STATS_LOG_INTERVAL_MS = 10_000;
+    private final YoloModelDetector yoloDetector;
+    private final PaddleOrtEngine paddleEngine;
+    private volatile OcrBackend ocrBackend;
+    private volatile YoloModelDetector cascadeLight;
+    private volatile CascadeDetector cascade;
+    private final ExecutorService ocrExecutor;
+    // Loads replacement models one at a time, off the inference threads.
+    private final ExecutorService modelLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "model-loader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private volatile float cropMergeOverlap = DEFAULT_CROP_MERGE_OVERLAP;
+    private final OcrScheduler ocrScheduler = new OcrScheduler(() -> System.nanoTime() / 1_000_000);
+    private volatile long ocrBudgetMs;
+    private final AtomicLong vehiclesRead = new AtomicLong();
+    private final AtomicLong vehiclesDeferred = new AtomicLong();
+    private final AtomicLong nextStatsLogMs = new AtomicLong();
+    // Whether this detector loaded the models itself and so closes them.
+    private boolean ownsModels;
+
+    public VehicleDetector(AssetSource assets, String yoloModelPath) throws OrtException, IOException {
+        this(assets, yoloModelPath, defaultOcrWorkers());
+    }
+
+    /**
+     * @param ocrWorkers number of vehicles OCR'd concurrently. The OCR sessions get
+     *                   {@link #intraOpThreadsFor(int)} threads each so that the workers together
+     *                   use roughly one thread per core, unless
+     *                   {@link OrtRuntime#initGlobalThreads} gave all sessions one shared pool.
+     */
+    public VehicleDetector(AssetSource assets, String yoloModelPath, int ocrWorkers) throws OrtException, IOException {
+        this(new YoloModelDetector(assets.open(yoloModelPath)),
+                // Initialize PaddleEngine here, assuming model files are in assets
+                new PaddleOrtEngine(assets, "det.onnx", "cls.onnx", "rec.onnx", "dict.txt", intraOpThreadsFor(ocrWorkers)),
+                ocrWorkers);
+        // OCR only ever sees vehicle crops here, so skip text that cannot be a plate.
+        paddleEngine.setCandidateFilter(new PlateCandidateFilter());
+        // Parked cars and queues show the same plates frame after frame.
+        paddleEngine.setRecognitionCache(new RecognitionCache());
+        ownsModels = true;
+    }
+
+    public VehicleDetector(YoloModelDetector yoloDetector, PaddleOrtEngine paddleEngine, int ocrWorkers) {
+        if (ocrWorkers < 1) {
+            throw new IllegalArgumentException("ocrWorkers must be >= 1");
+        }
+        this.yoloDetector = yoloDetector;
+        this.paddleEngine = paddleEngine;
+        this.ocrBackend = paddleEngine;
+        this.ocrExecutor = ocrWorkers > 1 ? Executors.newFixedThreadPool(ocrWorkers) : null;
+    }
+
+    public static int defaultOcrWorkers() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public static int intraOpThreadsFor(int ocrWorkers) {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / ocrWorkers);
+    }
+
+    /**
+     * Pushes a dummy input through every session so first-frame latency matches steady state.
+     * Call it once after loading, off the UI thread; it takes roughly one full detection.
+     *
+     * @return the time spent, in milliseconds.
+     */
+    public long warmUp() {
+        long start = System.currentTimeMillis();
+        yoloDetector.warmUp();
+        YoloModelDetector light = cascadeLight;
+        if (light != null) {
+            light.warmUp();
+        }
+        try {
+            paddleEngine.warmUp();
+        } catch (OrtException e) {
+            LOG.log(Level.WARNING, "OCR warm-up failed", e);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        LOG.info("Warm-up took " + elapsed + "ms; " + OrtRuntime.get().report());
+        return elapsed;
+    }
+
+    public List<DetectionResult> detect(ImageBuffer image, boolean recognizeText) {
+        return detect(image, recognizeText, 0, DetectionListener.NONE);
+    }
+
+    /**
+     * Like {@link #detect(ImageBuffer, boolean)}, but reports vehicles and recognised text to
+     * {@code listener} as soon as each is available.
+     */
+    public List<DetectionResult> detect(ImageBuffer image, boolean recognizeText, long frameId, DetectionListener listener) {
+        // 1. Detect vehicles using YOLO
+        CascadeDetector cascade = this.cascade;
+        List<DetectionResult> detections = cascade != null ? cascade.detect(image) : yoloDetector.detect(image);
+        LOG.info("Detected " + detections.size() + " potential vehicles.");
+        List<DetectionResult> view = Collections.unmodifiableList(detections);
+        listener.onVehiclesDetected(frameId, view);
+
+        if (recognizeText) {
+            // 2. For each detected vehicle, run OCR to find text
+            recognizeText(image, detections, frameId, listener);
+        }
+        OrtRuntime.get().trimToBudget();
+        logStats();
+
+        listener.onFrameComplete(frameId, view);
+        return detections;
+    }
+
+    /**
+     * Logs the cumulative counters of the cascade, candidate filter, rec cache and offload in one
+     * line, at most every {@link #STATS_LOG_INTERVAL_MS}.
+     */
+    private void logStats() {
+        long now = System.nanoTime() / 1_000_000;
+        long due = nextStatsLogMs.get();
+        if (now < due || !nextStatsLogMs.compareAndSet(due, now + STATS_LOG_INTERVAL_MS)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Stats: read=").append(vehiclesRead.get())
+                .append(" deferred=").append(vehiclesDeferred.get());
+        CascadeDetector cascade = this.cascade;
+        if (cascade != null) {
+            sb.append(' ').append(cascade);
+        }
+        PlateCandidateFilter filter = paddleEngine.getCandidateFilter();
+        if (filter != null) {
+            sb.append(' ').append(filter);
+        }
+        RecognitionCache cache = paddleEngine.getRecognitionCache();
+        if (cache != null) {
+            sb.append(' ').append(cache);
+        }
+        OcrBackend backend = ocrBackend;
+        if (backend instanceof OffloadOcrBackend) {
+            sb.append(' ').append(backend);
+        }
+        LOG.info(sb.toString());
+    }
+
+    void recognizeText(ImageBuffer image, List<DetectionResult> detections) {
+        recognizeText(image, detections, 0, DetectionListener.NONE);
+    }
+
+    /**
+     * Runs OCR over the detections and stores the text on them. Overlapping vehicles are merged into
+     * one OCR region (see {@link OcrRegionPlanner}). Regions are started in priority order (see
+     * {@link OcrScheduler}); once the OCR budget is set and a region is not expected to finish
+     * within it, that region is deferred, except that the first region always runs. Regions are
+     * processed on the OCR pool when one is configured; each task only writes to the detections of
+     * its own region, so the list order is unaffected by completion order.
+     */
+    void recognizeText(ImageBuffer image, List<DetectionResult> detections, long frameId, DetectionListener listener) {
+        List<DetectionResult> valid = new ArrayList<>(detections.size());
+        for (DetectionResult detection : detections) {
+            Box box = detection.getBoundingBox();
+            // Ensure the crop area is valid
+            if (box.left < 0 || box.top < 0 || box.right > image.getWidth() || box.bottom > image.getHeight()
+                    || box.width() < 1 || box.height() < 1) {
+                LOG.warning("Skipping invalid bounding box for OCR: " + box);
+                continue;
+            }
+            valid.add(detection);
+        }
+
+        List<OcrRegionPlanner.Region> regions = ocrScheduler.prioritize(OcrRegionPlanner.plan(valid, cropMergeOverlap));
+        if (regions.size() < valid.size()) {
+            LOG.info("Merged " + valid.size() + " vehicle crops into " + regions.size() + " OCR regions.");
+        }
+
+        long budget = ocrBudgetMs;
+        long deadline = budget > 0 ? ocrScheduler.now() + budget : Long.MAX_VALUE;
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger deferred = new AtomicInteger();
+
+        if (ocrExecutor == null || regions.size() < 2) {
+            for (int i = 0; i < regions.size(); i++) {
+                recognizeWithinBudget(image, regions.get(i), i == 0, deadline, read, deferred, frameId, listener);
+            }
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<>(regions.size());
+            for (int i = 0; i < regions.size(); i++) {
+                OcrRegionPlanner.Region region = regions.get(i);
+                boolean first = i == 0;
+                tasks.add(() -> {
+                    recognizeWithinBudget(image, region, first, deadline, read, deferred, frameId, listener);
+                    return null;
+                });
+            }
+            try {
+                for (Future<Void> future : ocrExecutor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOG.log(Level.SEVERE, "OCR task failed.", e.getCause());
+            } catch (RejectedExecutionException e) {
+                LOG.warning("OCR skipped, detector already closed.");
+            }
+        }
+
+        vehiclesRead.addAndGet(read.get());
+        vehiclesDeferred.addAndGet(deferred.get());
+        if (deferred.get() > 0) {
+            LOG.info("OCR budget of " + budget + "ms: read " + read.get() + " vehicles, deferred " + deferred.get() + ".");
+        }
+        listener.onOcrScheduled(frameId, read.get(), deferred.get());
+    }
+
+    private void recognizeWithinBudget(ImageBuffer image, OcrRegionPlanner.Region region, boolean mustRun, long deadline,
+                                       AtomicInteger read, AtomicInteger deferred, long frameId, DetectionListener listener) {
+        if (!mustRun && !ocrScheduler.fits(deadline)) {
+            deferred.addAndGet(region.members.size());
+            return;
+        }
+        long start = ocrScheduler.now();
+        if (!recognizeRegion(image, region, frameId, listener)) {
+            return;
+        }
+        ocrScheduler.recordRegionCost(ocrScheduler.now() - start);
+        for (DetectionResult detection : region.members) {
+            ocrScheduler.markAttempted(detection);
+        }
+        read.addAndGet(region.members.size());
+    }
+
+    /** Returns false, leaving the region unread, if the OCR models were closed under this frame. */
+    private boolean recognizeRegion(ImageBuffer image, OcrRegionPlanner.Region region, long frameId, DetectionListener listener) {
+        try {
+            Box box = region.bounds;
+            ImageBuffer regionImage = image.crop((int) box.left, (int) box.top, (int) box.width(), (int) box.height());
+
+            PaddleOrtEngine.OcrResult ocrResult = ocrBackend.runOcr(regionImage, region.members.size());
+            Map<DetectionResult, List<String>> assigned = OcrRegionPlanner.assign(region, ocrResult.regions, ocrResult.texts);
+
+            for (DetectionResult detection : region.members) {
+                List<String> texts = assigned.get(detection);
+                if (texts != null) {
+                    String recognizedText = String.join(", ", texts);
+                    LOG.info("OCR Result for vehicle: " + recognizedText);
+                    detection.setText(recognizedText);
+                    listener.onTextRecognized(frameId, detection, recognizedText);
+                }
+            }
+        } catch (OrtException e) {
+            LOG.log(Level.SEVERE, "OCR failed for a vehicle region.", e);
+        } catch (IllegalStateException e) {
+            // The detector is being closed while this frame runs.
+            LOG.warning("OCR skipped for a vehicle region: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces models without stopping detection, e.g. to A/B a model or drop to a lighter or
+     * lower-precision one under thermal pressure. Each model is loaded and warmed up in the
+     * background while frames keep using the current one, then swapped in; frames already running
+     * finish on the old model, which is closed afterwards. A null path keeps that model; see
+     * {@link PaddleOrtEngine#swapModels} for when {@code dictPath} is needed.
+     *
+     * @return completes once every requested model has been swapped in, or with the load error.
+     */
+    public CompletableFuture<Void> swapModels(AssetSource assets, String yoloPath,
+                                              String detPath, String clsPath, String recPath, String dictPath) {
+        CompletableFuture<Void> yolo = yoloPath != null
+                ? yoloDetector.swapModel(assets, yoloPath, modelLoader)
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> ocr = detPath != null || clsPath != null || recPath != null
+                ? paddleEngine.swapModels(assets, detPath, clsPath, recPath, dictPath, modelLoader)
+                : CompletableFuture.completedFuture(null);
+        return CompletableFuture.allOf(yolo, ocr).whenComplete((ignored, error) -> {
+            if (error != null) {
+                LOG.log(Level.WARNING, "Model swap failed; models that did not load are unchanged.", error);
+            } else {
+                LOG.info("Swapped models: yolo=" + yoloPath + ", det=" + detPath + ", cls=" + clsPath + ", rec=" + recPath);
+            }
+        });
+    }
+
+    /**
+     * Vehicles whose boxes overlap by at least this fraction of the smaller box are OCR'd as one
+     * region. Values above 1 OCR every vehicle separately.
+     */
+    public void setCropMergeOverlap(float cropMergeOverlap) {
+        this.cropMergeOverlap = cropMergeOverlap;
+    }
+
+    /**
+     * Sends vehicle crops to an OCR gateway through {@code client}, reading them on the device
+     * whenever the gateway takes longer than {@code deadlineMs} or cannot be reached (see
+     * {@link OffloadOcrBackend}). Passing null goes back to on-device OCR. The detector closes the
+     * client it is given, including one replaced by a later call.
+     */
+    public void setOffload(OffloadClient client, long deadlineMs) {
+        OcrBackend previous = ocrBackend;
+        ocrBackend = client != null ? new OffloadOcrBackend(client, paddleEngine, deadlineMs) : paddleEngine;
+        if (previous instanceof OffloadOcrBackend) {
+            ((OffloadOcrBackend) previous).getClient().close();
+        }
+    }
+
+    /** Where OCR currently runs: the {@link PaddleOrtEngine} or an {@link OffloadOcrBackend}. */
+    public OcrBackend getOcrBackend() {
+        return ocrBackend;
+    }
+
+    /**
+     * Loads {@code lightModelPath}, a smaller YOLO model such as yolo11n, to run on every frame;
+     * the current YOLO model then only runs where the light one is unsure (see
+     * {@link CascadeDetector}, whose bands can be set on the returned cascade). Calling it again
+     * swaps the light model in place, keeping the cascade and its bands; frames already running
+     * finish on the old light model, which is closed afterwards.
+     */
+    public synchronized CascadeDetector enableCascade(AssetSource assets, String lightModelPath)
+            throws IOException, OrtException {
+        YoloModelDetector light = cascadeLight;
+        if (light != null) {
+            try {
+                light.swapModel(assets, lightModelPath, Runnable::run).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof OrtException) {
+                    throw (OrtException) cause;
+                }
+                throw e;
+            }
+            return cascade;
+        }
+        try (InputStream is = assets.open(lightModelPath)) {
+            light = new YoloModelDetector(is, "yolo-light");
+        }
+        CascadeDetector enabled = new CascadeDetector(light::detect, yoloDetector::detect);
+        cascadeLight = light;
+        cascade = enabled;
+        return enabled;
+    }
+
+    /** The detection cascade, or null while every frame goes through the one YOLO model. */
+    public CascadeDetector getCascade() {
+        return cascade;
+    }
+
+    /**
+     * Caps the time spent on OCR per frame, in milliseconds; 0, the default, OCRs every vehicle.
+     * Vehicles that do not fit are deferred and take priority on a later frame.
+     */
+    public void setOcrBudgetMs(long ocrBudgetMs) {
+        this.ocrBudgetMs = ocrBudgetMs;
+    }
+
+    /** Total vehicles OCR'd so far. */
+    public long getVehiclesRead() {
+        return vehiclesRead.get();
+    }
+
+    /** Total vehicles deferred for lack of OCR budget so far. */
+    public long getVehiclesDeferred() {
+        return vehiclesDeferred.get();
+    }
+
+    /**
+     * Stops the OCR and model-loading threads and closes the offload client and the cascade's light
+     * model. The YOLO detector and OCR engine are closed too when this detector loaded them, which
+     * also stops counting them against the {@link OrtRuntime} memory budget.
+     */
+    @Override
+    public void close() {
+        if (ocrExecutor != null) {
+            ocrExecutor.shutdown();
+        }
+        modelLoader.shutdown();
+        OcrBackend backend = ocrBackend;
+        if (backend instanceof OffloadOcrBackend) {
+            ((OffloadOcrBackend) backend).getClient().close();
+        }
+        YoloModelDetector light = cascadeLight;
+        if (light != null) {
+            light.close();
+        }
+        if (ownsModels) {
+            yoloDetector.close();
+            try {
+                paddleEngine.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to close the OCR engine", e);
+            }
+        }
+    }
+}
@@ -1,20 +1,19 @@
-package com.fugui.carpal;
+package com.fugui.carpal.core;
 
-import android.graphics.Bitmap;
-import android.graphics.RectF;
-import android.util.Log;
-
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import ai.onnxruntime.OnnxModelMetadata;
 import ai.onnxruntime.OnnxTensor;
@@ -22,34 +21,87 @@ import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
 
-public class YoloModelDetector {
-    private static final String TAG = "yolo";
+public class YoloModelDetector implements Closeable {
+    private static final Logger LOG = Logger.getLogger("yolo");
 
-    private final OrtSession ortSession;
+    private final OrtRuntime runtime;
     private final OrtEnvironment ortEnvironment;
-    private final String[] labels;
+    private final ModelHolder<Model> model;
+
+    /** A loaded YOLO session with what is read from it once. */
+    private static final class Model implements AutoCloseable {
+        final OrtSession session;
+        final String[] labels;
+        final InputFormat inputFormat;
+        final long bytes;
+
+        Model(OrtSession session, String[] labels, long bytes) throws OrtException {
+            this.session = session;
+            this.labels = labels;
+            this.inputFormat = InputFormat.of(session);
+            this.bytes = bytes;
+        }
 
+        @Override
+        public void close() throws OrtException {
+            session.close();
+        }
+    }
 
     public YoloModelDetector(InputStream inputStream) throws IOException, OrtException {
-        this.ortEnvironment = OrtEnvironment.getEnvironment();
-
-        ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
-        int bufferSize = 1024;
-        byte[] buffer = new byte[bufferSize];
-        int len;
-        while ((len = inputStream.read(buffer)) != -1) {
-            byteBuffer.write(buffer, 0, len);
-        }
-        byte[] modelBytes = byteBuffer.toByteArray();
+        this(inputStream, "yolo");
+    }
+
+    /** @param name how the model is listed in {@link OrtRuntime#report()}. */
+    public YoloModelDetector(InputStream inputStream, String name) throws IOException, OrtException {
+        this.runtime = OrtRuntime.get();
+        this.ortEnvironment = runtime.environment();
+        Model loaded = load(inputStream);
+        this.model = new ModelHolder<>(loaded);
+        runtime.track(name, model, loaded.bytes);
+    }
 
-        this.ortSession = ortEnvironment.createSession(modelBytes, new OrtSession.SessionOptions());
+    private Model load(InputStream inputStream) throws IOException, OrtException {
+        // Read off-heap: the session keeps its own copy, so a heap copy of a model as large as
+        // yolo11m would only be garbage, and growing one through a byte stream peaks at a few times
+        // the model size on the Java heap.
+        ByteBuffer modelBytes = AssetSource.readDirect(inputStream);
+        OrtSession session = runtime.createSession(modelBytes, 0);
 
         // Fallback to hardcoded labels as the current ONNX runtime version might not support metadata reading.
-        this.labels = extractLabelsFromMetadata();
-        Log.i(TAG, "Loaded label: " + String.join(", ", labels));
+        Model loaded = new Model(session, extractLabelsFromMetadata(session), modelBytes.limit());
+        LOG.info("Loaded label: " + String.join(", ", loaded.labels));
+        LOG.info("Model input: " + loaded.inputFormat);
+        return loaded;
+    }
+
+    /**
+     * Loads another YOLO model on {@code executor}, warms it up and switches new frames to it;
+     * frames already being detected finish on the current model, which is closed afterwards.
+     */
+    public CompletableFuture<Void> swapModel(AssetSource assets, String path, Executor executor) {
+        return model.swapAsync(() -> {
+            Model replacement;
+            try (InputStream is = assets.open(path)) {
+                replacement = load(is);
+            }
+            try {
+                runInference(replacement, new ImageBuffer(inputSize, inputSize), inputSize, inputSize, confidenceThreshold);
+            } catch (Exception e) {
+                replacement.close();
+                throw e;
+            }
+            return replacement;
+        }, executor);
     }
 
     public String[] extractLabelsFromMetadata() throws OrtException {
+        try (ModelHolder.Lease<Model> lease = model.acquire()) {
+            return extractLabelsFromMetadata(lease.get().session);
+        }
+    }
+
+    private String[] extractLabelsFromMetadata(OrtSession ortSession) throws OrtException {
         // 尝试从模型元数据中获取标签信息
         OnnxModelMetadata metadata = ortSession.getMetadata();
         List<String> labelList = new ArrayList<>();
@@ -167,67 +219,77 @@ public class YoloModelDetector {
     }
 
 
-    public List<DetectionResult> detectFromBitmap(Bitmap bitmap) {
-        try {
-            float[] inputTensor = preprocessImage(bitmap);
-            return runInference(ortEnvironment, ortSession, labels, inputTensor, bitmap.getWidth(), bitmap.getHeight());
+    public List<DetectionResult> detect(ImageBuffer image) {
+        return detect(image, confidenceThreshold);
+    }
+
+    /** Like {@link #detect(ImageBuffer)}, but keeps detections down to {@code minConfidence}. */
+    public List<DetectionResult> detect(ImageBuffer image, float minConfidence) {
+        try (ModelHolder.Lease<Model> lease = model.acquire()) {
+            ImageBuffer resized = image.scale(inputSize, inputSize);
+            return runInference(lease.get(), resized, image.getWidth(), image.getHeight(), minConfidence);
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.log(Level.WARNING, "YOLO inference failed", e);
             return new ArrayList<>();
         }
     }
 
+    /**
+     * Runs one inference on a blank frame so the first real frame does not pay for session and
+     * JIT warm-up.
+     */
+    public void warmUp() {
+        detect(new ImageBuffer(inputSize, inputSize));
+    }
+
     static private final int inputSize = 640;
-    static private final float confidenceThreshold = 0.5f;
+    static final float confidenceThreshold = 0.5f;
     static private final float nmsThreshold = 0.45f;
 
-    private float[] preprocessImage(Bitmap bitmap) {
+    static FloatTensor preprocessImage(ImageBuffer image) {
         // 调整图像大小
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, inputSize, inputSize, true);
+        ImageBuffer resized = image.scale(inputSize, inputSize);
 
         // 转换为浮点数组并归一化
         float[] input = new float[3 * inputSize * inputSize];
-        int[] intValues = new int[inputSize * inputSize];
-
-        resizedBitmap.getPixels(intValues, 0, inputSize, 0, 0, inputSize, inputSize);
-
-        for (int i = 0; i < intValues.length; i++) {
-            int pixel = intValues[i];
-            // RGB 通道，归一化到 [0,1]
-            input[i] = ((pixel >> 16 & 0xFF) / 255.0f);
-            input[i + inputSize * inputSize] = ((pixel >> 8 & 0xFF) / 255.0f);
-            input[i + 2 * inputSize * inputSize] = ((pixel & 0xFF) / 255.0f);
-        }
-
-        if (!resizedBitmap.equals(bitmap)) {
-            resizedBitmap.recycle();
-        }
+        int[] intValues = resized.getPixels();
+
+        int plane = inputSize * inputSize;
+        PixelKernels.forEachRow(inputSize, inputSize, (from, to) -> {
+            for (int i = from * inputSize, end = to * inputSize; i < end; i++) {
+                int pixel = intValues[i];
+                // RGB 通道，归一化到 [0,1]
+                input[i] = ((pixel >> 16 & 0xFF) / 255.0f);
+                input[i + plane] = ((pixel >> 8 & 0xFF) / 255.0f);
+                input[i + 2 * plane] = ((pixel & 0xFF) / 255.0f);
+            }
+        });
 
-        return input;
+        return new FloatTensor(input, 1, 3, inputSize, inputSize);
     }
 
-    private List<DetectionResult> runInference(OrtEnvironment ortEnvironment, OrtSession ortSession,
-                                               String[] labels,
-                                               float[] input, int originalWidth, int originalHeight)
-            throws Exception {
-        String inputName = ortSession.getInputNames().iterator().next();
-        long[] inputShape = {1, 3, inputSize, inputSize};
-
-        FloatBuffer inputBuffer = FloatBuffer.wrap(input);
-        OnnxTensor inputTensor = OnnxTensor.createTensor(ortEnvironment, inputBuffer, inputShape);
+    private List<DetectionResult> runInference(Model model, ImageBuffer resized, int originalWidth, int originalHeight,
+                                               float minConfidence) throws Exception {
+        String inputName = model.session.getInputNames().iterator().next();
+        OnnxTensor inputTensor = model.inputFormat.tensor(ortEnvironment, resized, YoloModelDetector::preprocessImage);
 
         Map<String, OnnxTensor> inputs = Collections.singletonMap(inputName, inputTensor);
 
-        try (OrtSession.Result output = ortSession.run(inputs)) {
+        try (OrtSession.Result output = model.session.run(inputs)) {
             OnnxTensor outputTensor = (OnnxTensor) output.get(0);
             float[][][] outputData = (float[][][]) outputTensor.getValue();
-            return postProcess(outputData, originalWidth, originalHeight, labels);
+            return postProcess(outputData, originalWidth, originalHeight, model.labels, minConfidence);
         } finally {
             inputTensor.close();
         }
     }
 
-    private List<DetectionResult> postProcess(float[][][] outputs, int originalWidth, int originalHeight, String[] labels) {
+    static List<DetectionResult> postProcess(float[][][] outputs, int originalWidth, int originalHeight, String[] labels) {
+        return postProcess(outputs, originalWidth, originalHeight, labels, confidenceThreshold);
+    }
+
+    static List<DetectionResult> postProcess(float[][][] outputs, int originalWidth, int originalHeight, String[] labels,
+                                             float minConfidence) {
         List<DetectionResult> results = new ArrayList<>();
 
         // YOLOv11 输出格式: [1, 84, 8400]
@@ -246,7 +308,7 @@ public class YoloModelDetector {
                 }
             }
 
-            if (maxScore > confidenceThreshold && classId >= 0 && classId < labels.length) {
+            if (maxScore > minConfidence && classId >= 0 && classId < labels.length) {
                 // 解析边界框坐标 (cx, cy, w, h)
                 float cx = output[0][i];
                 float cy = output[1][i];
@@ -263,7 +325,7 @@ public class YoloModelDetector {
                 float scaleX = originalWidth / (float) inputSize;
                 float scaleY = originalHeight / (float) inputSize;
 
-                RectF boundingBox = new RectF(
+                Box boundingBox = new Box(
                         x1 * scaleX,
                         y1 * scaleY,
                         x2 * scaleX,
@@ -278,7 +340,7 @@ public class YoloModelDetector {
         return nonMaxSuppression(results);
     }
 
-    private List<DetectionResult> nonMaxSuppression(List<DetectionResult> detections) {
+    static List<DetectionResult> nonMaxSuppression(List<DetectionResult> detections) {
         // 按置信度排序
         detections.sort((d1, d2) -> Float.compare(d2.getConfidence(), d1.getConfidence()));
         List<DetectionResult> selected = new ArrayList<>();
@@ -291,7 +353,7 @@ public class YoloModelDetector {
             List<DetectionResult> remaining = new ArrayList<>();
             for (int i = 1; i < detections.size(); i++) {
                 DetectionResult detection = detections.get(i);
-                if (iou(current.getBoundingBox(), detection.getBoundingBox()) < nmsThreshold) {
+                if (current.getBoundingBox().iou(detection.getBoundingBox()) < nmsThreshold) {
                     remaining.add(detection);
                 }
             }
@@ -301,20 +363,10 @@ public class YoloModelDetector {
         return selected;
     }
 
-    private float iou(RectF box1, RectF box2) {
-        float intersectionLeft = Math.max(box1.left, box2.left);
-        float intersectionTop = Math.max(box1.top, box2.top);
-        float intersectionRight = Math.min(box1.right, box2.right);
-        float intersectionBottom = Math.min(box1.bottom, box2.bottom);
-
-        float intersectionArea = Math.max(0, intersectionRight - intersectionLeft) *
-                Math.max(0, intersectionBottom - intersectionTop);
-
-        float area1 = (box1.right - box1.left) * (box1.bottom - box1.top);
-        float area2 = (box2.right - box2.left) * (box2.bottom - box2.top);
-        float unionArea = area1 + area2 - intersectionArea;
-
-        return intersectionArea / unionArea;
+    /** Stops counting the model against the memory budget and closes it once in-flight detections finish. */
+    @Override
+    public void close() {
+        runtime.untrack(model);
+        model.close();
     }
-
 }
@@ -0,0 +1,132 @@
+package com.fugui.carpal.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV_420_888 planes (as delivered by CameraX {@code ImageProxy} or {@code MediaCodec}
+ * images) straight into an ARGB {@link ImageBuffer}, applying the frame rotation while writing.
+ * <p>
+ * Row and pixel strides are honoured, so both planar (I420) and semi-planar (NV12/NV21) layouts
+ * work. Plane copies and the output buffer are reused between frames of the same size, so an
+ * instance must not be shared between threads, and the returned image is only valid until the
+ * next call to {@link #convert}.
+ */
+public final class YuvConverter {
+
+    // BT.601 full-range coefficients in 16.16 fixed point.
+    private static final int R_V = 91881;
+    private static final int G_U = 22554;
+    private static final int G_V = 46802;
+    private static final int B_U = 116130;
+
+    private final boolean reuseOutput;
+    private byte[] yBytes = new byte[0];
+    private byte[] uBytes = new byte[0];
+    private byte[] vBytes = new byte[0];
+    private ImageBuffer output;
+
+    public YuvConverter() {
+        this(true);
+    }
+
+    /**
+     * @param reuseOutput false allocates a fresh output image for every frame, for callers that
+     *                    hand frames to other threads.
+     */
+    public YuvConverter(boolean reuseOutput) {
+        this.reuseOutput = reuseOutput;
+    }
+
+    /**
+     * @param rotationDegrees clockwise rotation to apply: 0, 90, 180 or 270.
+     */
+    public ImageBuffer convert(int width, int height,
+                               ByteBuffer yPlane, int yRowStride, int yPixelStride,
+                               ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                               int rotationDegrees) {
+        yBytes = copyPlane(yPlane, yBytes);
+        uBytes = copyPlane(uPlane, uBytes);
+        vBytes = copyPlane(vPlane, vBytes);
+
+        boolean swap = rotationDegrees == 90 || rotationDegrees == 270;
+        int outW = swap ? height : width;
+        int outH = swap ? width : height;
+        ImageBuffer out = output;
+        if (!reuseOutput || out == null || out.getWidth() != outW || out.getHeight() != outH) {
+            out = new ImageBuffer(outW, outH);
+            if (reuseOutput) {
+                output = out;
+            }
+        }
+
+        // Destination index = base + x * xStep + y * yStep for source pixel (x, y).
+        int base;
+        int xStep;
+        int yStep;
+        switch (rotationDegrees) {
+            case 0:
+                base = 0;
+                xStep = 1;
+                yStep = width;
+                break;
+            case 90:
+                base = height - 1;
+                xStep = height;
+                yStep = -1;
+                break;
+            case 180:
+                base = width * height - 1;
+                xStep = -1;
+                yStep = -width;
+                break;
+            case 270:
+                base = (width - 1) * height;
+                xStep = -height;
+                yStep = 1;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported rotation " + rotationDegrees);
+        }
+
+        int[] argb = out.getPixels();
+        byte[] ys = yBytes;
+        byte[] us = uBytes;
+        byte[] vs = vBytes;
+        for (int y = 0; y < height; y++) {
+            int yRow = y * yRowStride;
+            int uvRow = (y >> 1) * uvRowStride;
+            int dst = base + y * yStep;
+            for (int x = 0; x < width; x++) {
+                int luma = ys[yRow + x * yPixelStride] & 0xFF;
+                int uvIndex = uvRow + (x >> 1) * uvPixelStride;
+                int u = (us[uvIndex] & 0xFF) - 128;
+                int v = (vs[uvIndex] & 0xFF) - 128;
+
+                int r = luma + ((R_V * v) >> 16);
+                int g = luma - ((G_U * u + G_V * v) >> 16);
+                int b = luma + ((B_U * u) >> 16);
+                r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                b = b < 0 ? 0 : (b > 255 ? 255 : b);
+
+                argb[dst] = 0xFF000000 | (r << 16) | (g << 8) | b;
+                dst += xStep;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Copies the readable bytes of a plane into a reusable array without moving the buffer position.
+     */
+    private static byte[] copyPlane(ByteBuffer plane, byte[] scratch) {
+        ByteBuffer source = plane.duplicate();
+        source.rewind();
+        int size = source.remaining();
+        if (scratch.length < size) {
+            scratch = new byte[size];
+        }
+        source.get(scratch, 0, size);
+        return scratch;
+    }
+}
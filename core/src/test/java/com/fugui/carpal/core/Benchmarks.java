@@ -0,0 +1,304 @@
+package com.fugui.carpal.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Map;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Plain JVM micro benchmarks for the pipeline stages, run with {@code ./gradlew :core:benchmark}.
+ * Each case is warmed up before it is timed so the numbers reflect JIT-compiled steady state.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+    private static final int[] DET_SHAPE = {1, 3, 736, 1280};
+
+    interface Case {
+        void run() throws Exception;
+    }
+
+    static double time(String name, Case c) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            c.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            c.run();
+        }
+        double ms = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        System.out.println(String.format(Locale.ROOT, "  %-40s %10.2f ms/op", name, ms));
+        return ms;
+    }
+
+    public static void main(String[] args) throws Exception {
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
+        try (OrtSession detSession = env.createSession(TestAssets.SOURCE.readBytes("det.onnx"), new OrtSession.SessionOptions())) {
+            for (String name : new String[]{"road.jpeg", "road1.jpeg"}) {
+                ImageBuffer image = TestAssets.loadImage(name);
+                System.out.println(name + " (" + image.getWidth() + "x" + image.getHeight() + ")");
+
+                time("yolo preprocess", () -> YoloModelDetector.preprocessImage(image));
+                time("yolo preprocess uint8", () -> ByteTensor.fromImage(image.scale(640, 640), true));
+                PaddleOrtEngine.ResizeResult resized = PaddleOrtEngine.resizeKeepAspect(image, DET_SHAPE[2], DET_SHAPE[3]);
+                time("det resize + tensor", () -> {
+                    PaddleOrtEngine.ResizeResult r = PaddleOrtEngine.resizeKeepAspect(image, DET_SHAPE[2], DET_SHAPE[3]);
+                    PaddleOrtEngine.toTensor(r.image, DET_SHAPE);
+                });
+                // Tensor creation alone, including the copy into ORT, for float and uint8 inputs.
+                time("det float tensor -> ort", () -> {
+                    try (OnnxTensor t = PaddleOrtEngine.toTensor(resized.image, DET_SHAPE).toOnnxTensor(env)) {
+                        t.getInfo();
+                    }
+                });
+                time("det uint8 tensor -> ort", () -> {
+                    try (OnnxTensor t = ByteTensor.fromImage(resized.image, true).toOnnxTensor(env)) {
+                        t.getInfo();
+                    }
+                });
+
+                float[][] probMap;
+                try (OnnxTensor tensor = PaddleOrtEngine.toTensor(resized.image, DET_SHAPE).toOnnxTensor(env);
+                     OrtSession.Result res = detSession.run(Map.of("x", tensor))) {
+                    probMap = ((float[][][][]) res.get(0).getValue())[0][0];
+                }
+                time("det postDb", () -> PaddleOrtEngine.postDb(probMap, 0.3f, 0.5f));
+                PaddleOrtEngine.ResizeResult line = PaddleOrtEngine.resizeKeepAspect(
+                        image.crop(0, 0, image.getWidth() / 4, image.getHeight() / 16), 48, 320);
+                time("rec cache hash", () -> RecognitionCache.hash(line));
+            }
+        }
+
+        pixelKernelScaling();
+        yuvConversion();
+        runtimeFootprint();
+
+        if (TestAssets.has("yolo11n.onnx", "yolo11m.onnx")) {
+            detectionCascade();
+        }
+
+        if (TestAssets.has("rec.onnx")) {
+            try (PaddleOrtEngine engine = TestAssets.newPaddleEngine()) {
+                for (String name : new String[]{"road.jpeg", "road1.jpeg"}) {
+                    ImageBuffer image = TestAssets.loadImage(name);
+                    System.out.println(name);
+                    time("ocr end-to-end", () -> engine.runOcr(image));
+                    engine.setRecognitionCache(new RecognitionCache());
+                    time("ocr end-to-end, rec cache", () -> engine.runOcr(image));
+                    System.out.println("  " + engine.getRecognitionCache());
+                    engine.setRecognitionCache(null);
+                }
+            }
+            ocrWorkerScaling();
+        }
+    }
+
+    /** Times the row-partitioned pixel kernels at 1, 2, 4 and 8 threads. */
+    private static void pixelKernelScaling() throws Exception {
+        float[][] probMap = new float[DET_SHAPE[2]][DET_SHAPE[3]];
+        Random random = new Random(42);
+        for (float[] row : probMap) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = random.nextFloat() * 0.3f; // below thresh, so only the threshold pass runs
+            }
+        }
+
+        for (String name : new String[]{"road.jpeg", "road1.jpeg"}) {
+            ImageBuffer image = TestAssets.loadImage(name);
+            ImageBuffer letterboxed = PaddleOrtEngine.resizeKeepAspect(image, DET_SHAPE[2], DET_SHAPE[3]).image;
+            System.out.println("pixel kernel scaling, " + name);
+            double[] baseline = new double[3];
+            for (int threads = 1; threads <= 8; threads *= 2) {
+                PixelKernels.setParallelism(threads);
+                double[] ms = {
+                        time(threads + " threads yolo preprocess", () -> YoloModelDetector.preprocessImage(image)),
+                        time(threads + " threads det toTensor", () -> PaddleOrtEngine.toTensor(letterboxed, DET_SHAPE)),
+                        time(threads + " threads postDb threshold", () -> PaddleOrtEngine.postDb(probMap, 0.3f, 0.5f)),
+                };
+                if (threads == 1) {
+                    baseline = ms;
+                }
+                System.out.println(String.format(Locale.ROOT, "  %-40s %5.2fx %5.2fx %5.2fx", "speedup",
+                        baseline[0] / ms[0], baseline[1] / ms[1], baseline[2] / ms[2]));
+            }
+        }
+        PixelKernels.setParallelism(1);
+    }
+
+    private static void yuvConversion() throws Exception {
+        int width = 1280;
+        int height = 720;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(nv21);
+        ByteBuffer y = ByteBuffer.wrap(nv21, 0, width * height).slice();
+        ByteBuffer v = ByteBuffer.wrap(nv21, width * height, width * height / 2).slice();
+        ByteBuffer u = ByteBuffer.wrap(nv21, width * height + 1, width * height / 2 - 1).slice();
+
+        System.out.println("yuv_420_888 -> argb " + width + "x" + height);
+        YuvConverter converter = new YuvConverter();
+        for (int rotation : new int[]{0, 90}) {
+            time("rotation " + rotation, () -> converter.convert(width, height, y, width, 1, u, v, width, 2, rotation));
+        }
+    }
+
+    /**
+     * OCRs a 3x2 grid of road1.jpeg tiles as stand-in vehicles with 1..N workers, each engine
+     * sized with {@link VehicleDetector#intraOpThreadsFor(int)} threads per session.
+     */
+    private static void ocrWorkerScaling() throws Exception {
+        ImageBuffer image = TestAssets.loadImage("road1.jpeg");
+        List<DetectionResult> vehicles = new ArrayList<>();
+        float tileW = image.getWidth() / 3f;
+        float tileH = image.getHeight() / 2f;
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 3; col++) {
+                vehicles.add(new DetectionResult("car", 1f,
+                        new Box(col * tileW, row * tileH, (col + 1) * tileW, (row + 1) * tileH)));
+            }
+        }
+
+        System.out.println("ocr worker scaling (" + vehicles.size() + " vehicles)");
+        double baseline = 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int workers = 1; workers <= Math.min(8, cores); workers *= 2) {
+            int threads = VehicleDetector.intraOpThreadsFor(workers);
+            try (PaddleOrtEngine engine = new PaddleOrtEngine(TestAssets.SOURCE,
+                    "det.onnx", "cls.onnx", "rec.onnx", "dict.txt", threads);
+                 VehicleDetector detector = new VehicleDetector(null, engine, workers)) {
+                double ms = time(workers + " workers x " + threads + " intra-op threads",
+                        () -> detector.recognizeText(image, vehicles));
+                if (workers == 1) {
+                    baseline = ms;
+                }
+                System.out.println(String.format(Locale.ROOT, "  %-40s %10.2fx", "speedup", baseline / ms));
+            }
+        }
+    }
+
+    /**
+     * Runs yolo11m alone and the yolo11n/yolo11m cascade over every image in the assets directory,
+     * or in {@code -Dcarpal.images}, and prints the time per image, how often each tier ran and how
+     * many of yolo11m's detections the cascade also found (IoU >= 0.5).
+     */
+    private static void detectionCascade() throws Exception {
+        File dir = new File(System.getProperty("carpal.images", TestAssets.DIR.getPath()));
+        File[] files = dir.listFiles((d, name) -> name.matches("(?i).*\\.(jpe?g|png)"));
+        List<ImageBuffer> images = new ArrayList<>();
+        for (File file : files) {
+            images.add(TestAssets.loadImage(file));
+        }
+        YoloModelDetector light;
+        YoloModelDetector heavy;
+        try (InputStream n = TestAssets.SOURCE.open("yolo11n.onnx");
+             InputStream m = TestAssets.SOURCE.open("yolo11m.onnx")) {
+            light = new YoloModelDetector(n);
+            heavy = new YoloModelDetector(m);
+        }
+        CascadeDetector cascade = new CascadeDetector(light::detect, heavy::detect);
+
+        System.out.println("detection cascade (" + images.size() + " images in " + dir + ")");
+        double heavyMs = time("yolo11m alone", () -> {
+            for (ImageBuffer image : images) {
+                heavy.detect(image);
+            }
+        }) / images.size();
+        double cascadeMs = time("yolo11n -> yolo11m cascade", () -> {
+            for (ImageBuffer image : images) {
+                cascade.detect(image);
+            }
+        }) / images.size();
+
+        int reference = 0;
+        int found = 0;
+        for (ImageBuffer image : images) {
+            List<DetectionResult> cascaded = cascade.detect(image);
+            for (DetectionResult d : heavy.detect(image)) {
+                reference++;
+                for (DetectionResult c : cascaded) {
+                    if (c.getClassName().equals(d.getClassName())
+                            && c.getBoundingBox().iou(d.getBoundingBox()) >= 0.5f) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "  %-40s %10.2f ms/image saved", "cascade vs yolo11m", heavyMs - cascadeMs));
+        System.out.println("  " + cascade + ", found " + found + "/" + reference + " yolo11m detections");
+    }
+
+    /**
+     * Loads every model that is present in a fresh JVM, once with a pool per session and once with
+     * the global pools of {@link OrtRuntime#initGlobalThreads}, and prints the thread count and RSS
+     * before and after. Pools get {@link Footprint#THREADS} threads, as on a phone with that many
+     * big cores, whatever this machine has. A child JVM is needed because the environment of this
+     * one already exists.
+     */
+    private static void runtimeFootprint() throws Exception {
+        System.out.println("ort runtime footprint");
+        for (String pools : new String[]{"per-session", "global"}) {
+            Process child = new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-Dcarpal.assets=" + TestAssets.DIR.getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    Footprint.class.getName(), pools)
+                    .redirectErrorStream(true)
+                    .start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith("  ")) {
+                        System.out.println(line);
+                    }
+                }
+            }
+            child.waitFor();
+        }
+    }
+
+    static final class Footprint {
+        static final int THREADS = 4;
+
+        public static void main(String[] args) throws Exception {
+            String pools = args[0];
+            String before = OrtRuntime.processStats();
+            OrtRuntime runtime = "global".equals(pools)
+                    ? OrtRuntime.initGlobalThreads(THREADS, 1)
+                    : OrtRuntime.get();
+            List<OrtSession> sessions = new ArrayList<>();
+            OrtSession det = null;
+            for (String model : new String[]{"yolo11m.onnx", "det.onnx", "cls.onnx", "rec.onnx"}) {
+                if (TestAssets.has(model)) {
+                    try (InputStream is = TestAssets.SOURCE.open(model)) {
+                        sessions.add(runtime.createSession(is, THREADS));
+                    }
+                    if (model.equals("det.onnx")) {
+                        det = sessions.get(sessions.size() - 1);
+                    }
+                }
+            }
+            // One run so the arena holds a frame's worth of activations.
+            try (OnnxTensor tensor = PaddleOrtEngine.toTensor(new ImageBuffer(DET_SHAPE[3], DET_SHAPE[2]), DET_SHAPE)
+                    .toOnnxTensor(runtime.environment());
+                 OrtSession.Result ignored = det.run(Map.of("x", tensor))) {
+                System.out.println(String.format(Locale.ROOT, "  %-12s %d sessions: before %s, after %s",
+                        pools, sessions.size(), before, OrtRuntime.processStats()));
+            }
+            for (OrtSession session : sessions) {
+                session.close();
+            }
+        }
+    }
+}
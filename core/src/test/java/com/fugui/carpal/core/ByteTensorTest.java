@@ -0,0 +1,96 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import ai.onnxruntime.OnnxJavaType;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtSession;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ByteTensorTest {
+
+    private static final float[] MEAN = {0.485f, 0.456f, 0.406f};
+    private static final float[] STD = {0.229f, 0.224f, 0.225f};
+
+    private static ImageBuffer randomImage(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(7);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new ImageBuffer(width, height, pixels);
+    }
+
+    private static int u8(ByteTensor tensor, int index) {
+        return tensor.getData().get(index) & 0xFF;
+    }
+
+    @Test
+    public void fromImage_packsPlanarRgb() {
+        ImageBuffer image = new ImageBuffer(2, 1, new int[]{0xFF102030, 0xFFA0B0C0});
+        ByteTensor tensor = ByteTensor.fromImage(image, false);
+
+        assertArrayEquals(new long[]{1, 3, 1, 2}, tensor.getShape());
+        int[] expected = {0x10, 0xA0, 0x20, 0xB0, 0x30, 0xC0};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], u8(tensor, i));
+        }
+    }
+
+    @Test
+    public void fromImage_packsInterleavedRgb() {
+        ImageBuffer image = new ImageBuffer(2, 1, new int[]{0xFF102030, 0xFFA0B0C0});
+        ByteTensor tensor = ByteTensor.fromImage(image, true);
+
+        assertArrayEquals(new long[]{1, 1, 2, 3}, tensor.getShape());
+        int[] expected = {0x10, 0x20, 0x30, 0xA0, 0xB0, 0xC0};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], u8(tensor, i));
+        }
+    }
+
+    /** The multiply-add the wrapped models apply must reproduce the Java float preprocessing. */
+    @Test
+    public void foldedNormalisation_matchesFloatPreprocessing() {
+        ImageBuffer image = randomImage(32, 16);
+        int plane = 32 * 16;
+        int[] shape = {1, 3, 16, 32};
+        float[] paddle = PaddleOrtEngine.toTensor(image, shape).getData();
+        ByteTensor bytes = ByteTensor.fromImage(image, false);
+
+        for (int i = 0; i < 3 * plane; i++) {
+            int c = i / plane;
+            float folded = u8(bytes, i) * (1f / (255f * STD[c])) + (-MEAN[c] / STD[c]);
+            assertEquals(paddle[i], folded, 1e-5);
+        }
+
+        float[] yolo = YoloModelDetector.preprocessImage(randomImage(640, 640)).getData();
+        ByteTensor yoloBytes = ByteTensor.fromImage(randomImage(640, 640), false);
+        for (int i = 0; i < yolo.length; i += 997) {
+            assertEquals(yolo[i], u8(yoloBytes, i) / 255f, 1e-6);
+        }
+    }
+
+    @Test
+    public void toOnnxTensor_createsUint8Tensor() throws Exception {
+        ByteTensor bytes = ByteTensor.fromImage(randomImage(8, 4), true);
+        try (OnnxTensor tensor = bytes.toOnnxTensor(OrtEnvironment.getEnvironment())) {
+            assertEquals(OnnxJavaType.UINT8, tensor.getInfo().type);
+            assertArrayEquals(new long[]{1, 4, 8, 3}, tensor.getInfo().getShape());
+        }
+    }
+
+    @Test
+    public void inputFormat_keepsFloatPathForOriginalModels() throws Exception {
+        assumeTrue(TestAssets.has("det.onnx"));
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
+        try (OrtSession session = env.createSession(TestAssets.SOURCE.readBytes("det.onnx"), new OrtSession.SessionOptions())) {
+            assertEquals(InputFormat.FLOAT_NCHW, InputFormat.of(session));
+        }
+    }
+}
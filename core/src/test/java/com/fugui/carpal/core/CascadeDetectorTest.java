@@ -0,0 +1,127 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class CascadeDetectorTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final AtomicLong now = new AtomicLong();
+    private final List<ImageBuffer> heavyInputs = new ArrayList<>();
+    private List<DetectionResult> lightOutput = Collections.emptyList();
+    private List<DetectionResult> heavyOutput = Collections.emptyList();
+
+    /** Light takes 10 ms and heavy 50 ms per run. */
+    private final CascadeDetector cascade = new CascadeDetector(
+            (image, minConfidence) -> {
+                now.addAndGet(10 * MS);
+                List<DetectionResult> kept = new ArrayList<>();
+                for (DetectionResult d : lightOutput) {
+                    if (d.getConfidence() >= minConfidence) {
+                        kept.add(d);
+                    }
+                }
+                return kept;
+            },
+            (image, minConfidence) -> {
+                now.addAndGet(50 * MS);
+                heavyInputs.add(image);
+                return new ArrayList<>(heavyOutput);
+            },
+            now::get);
+
+    private static DetectionResult car(float confidence, float left, float top, float right, float bottom) {
+        return new DetectionResult("car", confidence, new Box(left, top, right, bottom));
+    }
+
+    @Test
+    public void confidentAndEmptyFramesSkipTheHeavyModel() {
+        ImageBuffer frame = new ImageBuffer(1280, 720);
+        assertTrue(cascade.detect(frame).isEmpty());
+        lightOutput = Arrays.asList(car(0.9f, 100, 100, 600, 500), car(0.1f, 700, 100, 800, 200));
+
+        List<DetectionResult> detections = cascade.detect(frame);
+
+        assertEquals(1, detections.size());
+        assertEquals(0.9f, detections.get(0).getConfidence(), 0f);
+        assertTrue(heavyInputs.isEmpty());
+        assertEquals(2, cascade.getLightRuns());
+        assertEquals(0, cascade.getLatencySavedMs());
+    }
+
+    @Test
+    public void uncertainSmallRegionRunsHeavyOnATile() {
+        lightOutput = Collections.singletonList(car(0.4f, 400, 300, 500, 340));
+        heavyOutput = Collections.singletonList(car(0.8f, 20, 8, 120, 48));
+
+        List<DetectionResult> detections = cascade.detect(new ImageBuffer(1280, 720));
+
+        ImageBuffer tile = heavyInputs.get(0);
+        assertEquals(150, tile.getWidth());
+        assertEquals(60, tile.getHeight());
+        assertEquals(1, detections.size());
+        Box box = detections.get(0).getBoundingBox();
+        assertEquals("mapped back from the tile at (375, 290)", 395f, box.left, 0f);
+        assertEquals(298f, box.top, 0f);
+        assertEquals(1, cascade.getHeavyTileRuns());
+        assertEquals(0, cascade.getHeavyFrameRuns());
+    }
+
+    @Test
+    public void spreadOutUncertaintyRunsHeavyOnTheWholeFrame() {
+        lightOutput = Arrays.asList(car(0.3f, 0, 0, 200, 200), car(0.5f, 1000, 500, 1280, 720));
+
+        cascade.detect(new ImageBuffer(1280, 720));
+
+        assertEquals(1280, heavyInputs.get(0).getWidth());
+        assertEquals(1, cascade.getHeavyFrameRuns());
+    }
+
+    @Test
+    public void vehicleFoundByBothTiersIsReportedOnce() {
+        lightOutput = Arrays.asList(car(0.9f, 100, 100, 300, 300), car(0.4f, 120, 110, 310, 300));
+        heavyOutput = Collections.singletonList(car(0.95f, 105, 100, 305, 300));
+        cascade.setMaxTileFraction(0);
+
+        List<DetectionResult> detections = cascade.detect(new ImageBuffer(1280, 720));
+
+        assertEquals(1, detections.size());
+        assertEquals("the higher-scoring box wins", 0.95f, detections.get(0).getConfidence(), 0f);
+    }
+
+    @Test
+    public void reportsLatencySavedAgainstHeavyAlone() {
+        ImageBuffer frame = new ImageBuffer(1280, 720);
+        lightOutput = Collections.singletonList(car(0.9f, 100, 100, 600, 500));
+        for (int i = 0; i < 3; i++) {
+            cascade.detect(frame);
+        }
+        lightOutput = Collections.singletonList(car(0.4f, 100, 100, 600, 500));
+        cascade.detect(frame);
+
+        // Heavy alone: 4 x 50 ms. Cascade: 4 x 10 ms + 1 x 50 ms.
+        assertEquals(110, cascade.getLatencySavedMs());
+        assertEquals(4, cascade.getFrames());
+    }
+
+    @Test
+    public void bandsAreConfigurable() {
+        lightOutput = Collections.singletonList(car(0.4f, 400, 300, 500, 340));
+        cascade.setBands(0.2f, 0.35f);
+        assertEquals(1, cascade.detect(new ImageBuffer(1280, 720)).size());
+        assertTrue("0.4 is confident in the new band", heavyInputs.isEmpty());
+        try {
+            cascade.setBands(0.6f, 0.5f);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.fugui.carpal.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class DetectionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DetectionResult detection(String className, String text) {
+        DetectionResult d = new DetectionResult(className, 0.75f, new Box(1, 2, 30, 40));
+        d.setText(text);
+        return d;
+    }
+
+    private static List<DetectionJournal.Record> replayAll(File dir, DetectionJournal.ReplayStats[] stats) throws Exception {
+        List<DetectionJournal.Record> records = new ArrayList<>();
+        stats[0] = DetectionJournal.replay(dir, records::add);
+        return records;
+    }
+
+    private static File[] segments(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void roundTripsRecordsInOrder() throws Exception {
+        File dir = folder.newFolder();
+        try (DetectionJournal journal = new DetectionJournal(dir)) {
+            DetectionResult front = detection("truck", null);
+            front.setSource("front");
+            assertTrue(journal.append(7, 1000, Arrays.asList(detection("car", "京A12345"), front)));
+            assertTrue(journal.append(8, 1040, Arrays.asList(detection("bus", ""))));
+        }
+
+        DetectionJournal.ReplayStats[] stats = new DetectionJournal.ReplayStats[1];
+        List<DetectionJournal.Record> records = replayAll(dir, stats);
+
+        assertEquals(3, stats[0].records);
+        assertEquals(0, stats[0].corruptRecords);
+        DetectionJournal.Record first = records.get(0);
+        assertEquals(7, first.frameId);
+        assertEquals(1000, first.timestampMs);
+        assertEquals("car", first.className);
+        assertNull(first.source);
+        assertEquals("front", records.get(1).source);
+        assertEquals("京A12345", first.text);
+        assertEquals(0.75f, first.confidence, 0f);
+        assertEquals(30f, first.boundingBox.right, 0f);
+        assertNull(records.get(1).text);
+        assertEquals("", records.get(2).text);
+        assertEquals(8, records.get(2).frameId);
+    }
+
+    @Test
+    public void truncatesLongTextOnCharacterBoundary() throws Exception {
+        File dir = folder.newFolder();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append('沪');
+        }
+        try (DetectionJournal journal = new DetectionJournal(dir)) {
+            journal.append(1, 1, Arrays.asList(detection("car", text.toString())));
+        }
+        List<DetectionJournal.Record> records = replayAll(dir, new DetectionJournal.ReplayStats[1]);
+        assertEquals(text.substring(0, 27), records.get(0).text);
+    }
+
+    @Test
+    public void rotatesBySizeAndKeepsOnlyNewestSegments() throws Exception {
+        File dir = folder.newFolder();
+        int segmentBytes = DetectionJournal.RECORD_SIZE * 2;
+        try (DetectionJournal journal = new DetectionJournal(dir, segmentBytes, 3, Long.MAX_VALUE)) {
+            for (int frame = 0; frame < 10; frame++) {
+                journal.append(frame, frame, Arrays.asList(detection("car", "F" + frame)));
+            }
+        }
+
+        assertEquals(3, segments(dir).length);
+        List<DetectionJournal.Record> records = replayAll(dir, new DetectionJournal.ReplayStats[1]);
+        assertEquals(6, records.size());
+        assertEquals(4, records.get(0).frameId);
+        assertEquals(9, records.get(5).frameId);
+    }
+
+    @Test
+    public void rotatesByAge() throws Exception {
+        File dir = folder.newFolder();
+        AtomicLong now = new AtomicLong(0);
+        try (DetectionJournal journal = new DetectionJournal(dir, DetectionJournal.DEFAULT_SEGMENT_BYTES, 10, 1000, now::get)) {
+            journal.append(1, 0, Arrays.asList(detection("car", "A")));
+            waitForRecords(journal, 1);
+            now.set(1500);
+            journal.append(2, 1500, Arrays.asList(detection("car", "B")));
+        }
+        assertEquals(2, segments(dir).length);
+    }
+
+    @Test
+    public void skipsCorruptRecordsAndStartsNewSegmentAfterRestart() throws Exception {
+        File dir = folder.newFolder();
+        try (DetectionJournal journal = new DetectionJournal(dir)) {
+            journal.append(1, 1, Arrays.asList(detection("car", "A"), detection("car", "B"), detection("car", "C")));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segments(dir)[0], "rw")) {
+            long offset = DetectionJournal.RECORD_SIZE + 50L; // inside the second record
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0x5A);
+        }
+        try (DetectionJournal journal = new DetectionJournal(dir)) {
+            journal.append(2, 2, Arrays.asList(detection("car", "D")));
+        }
+
+        assertEquals(2, segments(dir).length);
+        DetectionJournal.ReplayStats[] stats = new DetectionJournal.ReplayStats[1];
+        List<DetectionJournal.Record> records = replayAll(dir, stats);
+        assertEquals(1, stats[0].corruptRecords);
+        assertEquals(3, stats[0].records);
+        assertEquals("A", records.get(0).text);
+        assertEquals("C", records.get(1).text);
+        assertEquals("D", records.get(2).text);
+    }
+
+    @Test
+    public void replaysRecordsWrittenBeforeTheSourceWasJournalled() throws Exception {
+        File dir = folder.newFolder();
+        ByteBuffer record = ByteBuffer.allocate(DetectionJournal.RECORD_SIZE);
+        record.putInt(0x43504A31).putLong(1000).putLong(7);
+        record.putFloat(1).putFloat(2).putFloat(30).putFloat(40).putFloat(0.75f);
+        byte[] className = "motorcycle".getBytes(StandardCharsets.UTF_8);
+        record.put((byte) className.length).put(className).position(record.position() + 31 - className.length);
+        record.put((byte) 1).put((byte) 'A');
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, DetectionJournal.RECORD_SIZE - 4);
+        record.putInt(DetectionJournal.RECORD_SIZE - 4, (int) crc.getValue());
+        Files.write(new File(dir, "journal-0000000000000000.seg").toPath(), record.array());
+
+        DetectionJournal.ReplayStats[] stats = new DetectionJournal.ReplayStats[1];
+        List<DetectionJournal.Record> records = replayAll(dir, stats);
+        assertEquals(1, stats[0].records);
+        assertEquals("motorcycle", records.get(0).className);
+        assertNull(records.get(0).source);
+        assertEquals("A", records.get(0).text);
+    }
+
+    @Test
+    public void ignoresFilesThatOnlyLookLikeSegments() throws Exception {
+        File dir = folder.newFolder();
+        assertTrue(new File(dir, "journal-backup.seg").createNewFile());
+        try (DetectionJournal journal = new DetectionJournal(dir)) {
+            journal.append(1, 1, Arrays.asList(detection("car", "A")));
+        }
+        DetectionJournal.ReplayStats[] stats = new DetectionJournal.ReplayStats[1];
+        assertEquals("A", replayAll(dir, stats).get(0).text);
+        assertEquals(0, stats[0].corruptRecords);
+        assertTrue(new File(dir, "journal-backup.seg").exists());
+    }
+
+    @Test
+    public void refusesFramesAfterClose() throws Exception {
+        DetectionJournal journal = new DetectionJournal(folder.newFolder());
+        journal.close();
+        assertFalse(journal.append(1, 1, Arrays.asList(detection("car", "A"))));
+    }
+
+    private static void waitForRecords(DetectionJournal journal, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.getRecordsWritten() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, journal.getRecordsWritten());
+    }
+}
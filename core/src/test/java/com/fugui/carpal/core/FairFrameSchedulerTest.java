@@ -0,0 +1,111 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FairFrameSchedulerTest {
+
+    private static void offer(FairFrameScheduler<String> scheduler, String source, String frame) {
+        if (scheduler.tryAcquire(source)) {
+            scheduler.submit(source, frame);
+        }
+    }
+
+    @Test
+    public void servesWaitingSourcesInRoundRobinOrder() {
+        FairFrameScheduler<String> scheduler = new FairFrameScheduler<>();
+        offer(scheduler, "back", "b1");
+        offer(scheduler, "front", "f1");
+        offer(scheduler, "side", "s1");
+
+        List<String> served = new ArrayList<>();
+        FairFrameScheduler.Frame<String> frame;
+        while ((frame = scheduler.poll()) != null) {
+            served.add(frame.frame);
+            scheduler.complete(frame.source);
+            if (frame.frame.equals("b1")) {
+                // The back camera is ready again at once, but must wait its turn.
+                offer(scheduler, "back", "b2");
+            }
+        }
+        assertEquals(List.of("b1", "f1", "s1", "b2"), served);
+    }
+
+    @Test
+    public void skipsFramesWhileSourceHasOneInScheduler() {
+        FairFrameScheduler<String> scheduler = new FairFrameScheduler<>();
+        assertTrue(scheduler.tryAcquire("back"));
+        assertFalse(scheduler.tryAcquire("back"));
+        scheduler.submit("back", "b1");
+        assertFalse(scheduler.tryAcquire("back"));
+
+        FairFrameScheduler.Frame<String> frame = scheduler.poll();
+        assertFalse(scheduler.tryAcquire("back"));
+        scheduler.complete(frame.source);
+        assertTrue(scheduler.tryAcquire("back"));
+        scheduler.release("back");
+        assertTrue(scheduler.tryAcquire("back"));
+
+        FairFrameScheduler.SourceStats stats = scheduler.getStats().get(0);
+        assertEquals(1, stats.processed);
+        assertEquals(3, stats.skipped);
+    }
+
+    @Test
+    public void cancelDropsTheWaitingFrameAndFreesTheSlot() {
+        FairFrameScheduler<String> scheduler = new FairFrameScheduler<>();
+        assertTrue(scheduler.tryAcquire("back"));
+        scheduler.submit("back", "b1");
+
+        assertEquals("b1", scheduler.cancel("back"));
+        assertNull(scheduler.poll());
+        assertTrue(scheduler.tryAcquire("back"));
+        scheduler.submit("back", "b2");
+        assertEquals("b2", scheduler.poll().frame);
+        assertNull("nothing waiting once in flight", scheduler.cancel("back"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSubmitWithoutReservation() {
+        new FairFrameScheduler<String>().submit("back", "b1");
+    }
+
+    @Test
+    public void overloadedSourcesDegradeEvenly() {
+        FairFrameScheduler<Integer> scheduler = new FairFrameScheduler<>();
+        // The back camera offers a frame every tick, the front one every third tick; inference
+        // finishes one frame every second tick, so demand exceeds capacity.
+        FairFrameScheduler.Frame<Integer> inFlight = null;
+        int doneAt = 0;
+        for (int tick = 0; tick < 6000; tick++) {
+            if (inFlight != null && tick == doneAt) {
+                scheduler.complete(inFlight.source);
+                inFlight = null;
+            }
+            offerInt(scheduler, "back", tick);
+            if (tick % 3 == 0) {
+                offerInt(scheduler, "front", tick);
+            }
+            if (inFlight == null) {
+                inFlight = scheduler.poll();
+                doneAt = tick + 2;
+            }
+        }
+
+        List<FairFrameScheduler.SourceStats> stats = scheduler.getStats();
+        long back = stats.get(0).processed;
+        long front = stats.get(1).processed;
+        assertEquals(3000, back + front, 1);
+        assertTrue("back " + back + " vs front " + front, Math.abs(back - front) <= back / 10);
+    }
+
+    private static void offerInt(FairFrameScheduler<Integer> scheduler, String source, int frame) {
+        if (scheduler.tryAcquire(source)) {
+            scheduler.submit(source, frame);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageBufferTest {
+
+    @Test
+    public void crop_copiesRegion() {
+        ImageBuffer image = new ImageBuffer(4, 3, new int[]{
+                0, 1, 2, 3,
+                4, 5, 6, 7,
+                8, 9, 10, 11});
+        ImageBuffer crop = image.crop(1, 1, 2, 2);
+        assertArrayEquals(new int[]{5, 6, 9, 10}, crop.getPixels());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void crop_rejectsOutOfBounds() {
+        new ImageBuffer(4, 4).crop(2, 2, 3, 1);
+    }
+
+    @Test
+    public void scale_keepsUniformColour() {
+        int[] pixels = new int[16 * 8];
+        java.util.Arrays.fill(pixels, 0xFF336699);
+        ImageBuffer scaled = new ImageBuffer(16, 8, pixels).scale(5, 7);
+        assertEquals(5, scaled.getWidth());
+        assertEquals(7, scaled.getHeight());
+        for (int p : scaled.getPixels()) {
+            assertEquals(0xFF336699, p);
+        }
+    }
+
+    @Test
+    public void rotate180_reversesPixels() {
+        ImageBuffer image = new ImageBuffer(3, 2, new int[]{1, 2, 3, 4, 5, 6});
+        assertArrayEquals(new int[]{6, 5, 4, 3, 2, 1}, image.rotate180().getPixels());
+    }
+}
@@ -0,0 +1,196 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ModelHolderTest {
+
+    private static final class FakeModel implements AutoCloseable {
+        final String name;
+        final AtomicInteger closes = new AtomicInteger();
+        final AtomicInteger inUse = new AtomicInteger();
+
+        FakeModel(String name) {
+            this.name = name;
+        }
+
+        String run() {
+            assertEquals(name + " used after close", 0, closes.get());
+            inUse.incrementAndGet();
+            Thread.yield();
+            inUse.decrementAndGet();
+            return name;
+        }
+
+        @Override
+        public void close() {
+            assertEquals(name + " closed while in use", 0, inUse.get());
+            closes.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void swap_keepsOldModelUntilInFlightLeaseCloses() {
+        FakeModel v1 = new FakeModel("v1");
+        FakeModel v2 = new FakeModel("v2");
+        ModelHolder<FakeModel> holder = new ModelHolder<>(v1);
+
+        ModelHolder.Lease<FakeModel> inFlight = holder.acquire();
+        holder.swap(v2);
+
+        try (ModelHolder.Lease<FakeModel> next = holder.acquire()) {
+            assertSame(v2, next.get());
+        }
+        assertEquals(0, v1.closes.get());
+        assertSame(v1, inFlight.get());
+        inFlight.close();
+        assertEquals(1, v1.closes.get());
+        assertEquals(0, v2.closes.get());
+        assertEquals(1, holder.getSwaps());
+    }
+
+    @Test
+    public void swap_closesIdleModelRightAway() {
+        FakeModel v1 = new FakeModel("v1");
+        ModelHolder<FakeModel> holder = new ModelHolder<>(v1);
+        holder.swap(new FakeModel("v2"));
+        assertEquals(1, v1.closes.get());
+    }
+
+    @Test
+    public void swapAsync_loadsInBackgroundAndReportsFailures() throws Exception {
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            ModelHolder<FakeModel> holder = new ModelHolder<>(new FakeModel("v1"));
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> swap = holder.swapAsync(() -> {
+                release.await();
+                return new FakeModel("v2");
+            }, loader);
+
+            try (ModelHolder.Lease<FakeModel> lease = holder.acquire()) {
+                assertEquals("still served while loading", "v1", lease.get().run());
+            }
+            release.countDown();
+            swap.get(5, TimeUnit.SECONDS);
+            try (ModelHolder.Lease<FakeModel> lease = holder.acquire()) {
+                assertEquals("v2", lease.get().run());
+            }
+
+            CompletableFuture<Void> failed = holder.swapAsync(() -> {
+                throw new IllegalStateException("corrupt model");
+            }, loader);
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof IllegalStateException);
+            }
+            try (ModelHolder.Lease<FakeModel> lease = holder.acquire()) {
+                assertEquals("v2", lease.get().run());
+            }
+        } finally {
+            loader.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentSwapsNeverCloseAModelInUse() throws Exception {
+        List<FakeModel> models = new ArrayList<>();
+        FakeModel first = new FakeModel("m0");
+        models.add(first);
+        ModelHolder<FakeModel> holder = new ModelHolder<>(first);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(4);
+
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> runs = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            runs.add(workers.submit(() -> {
+                int n = 0;
+                while (running.get()) {
+                    try (ModelHolder.Lease<FakeModel> lease = holder.acquire()) {
+                        lease.get().run();
+                        n++;
+                    }
+                    if (n == 1) {
+                        started.countDown();
+                    }
+                }
+                return n;
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 200; i++) {
+            FakeModel next = new FakeModel("m" + i);
+            models.add(next);
+            holder.swap(next);
+            Thread.yield();
+        }
+        running.set(false);
+        for (Future<Integer> run : runs) {
+            assertTrue(run.get(5, TimeUnit.SECONDS) > 0);
+        }
+        workers.shutdown();
+
+        holder.close();
+        for (FakeModel model : models) {
+            assertEquals(model.name + " closed exactly once", 1, model.closes.get());
+        }
+    }
+
+    @Test
+    public void closedHolderRefusesLeasesAndSwaps() {
+        ModelHolder<FakeModel> holder = new ModelHolder<>(new FakeModel("v1"));
+        holder.close();
+        try {
+            holder.acquire();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        FakeModel late = new FakeModel("late");
+        try {
+            holder.swap(late);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals("a model swapped into a closed holder is closed", 1, late.closes.get());
+    }
+
+    @Test
+    public void unloadIfIdle_waitsForLeasesAndReloadsOnNextAcquire() {
+        AtomicInteger loads = new AtomicInteger();
+        ModelHolder<FakeModel> holder = new ModelHolder<>(new FakeModel("cls"),
+                () -> new FakeModel("cls" + loads.incrementAndGet()));
+
+        ModelHolder.Lease<FakeModel> inFlight = holder.acquire();
+        assertFalse("never unloads a model in use", holder.unloadIfIdle());
+        inFlight.close();
+        FakeModel first = inFlight.get();
+        assertTrue(holder.unloadIfIdle());
+        assertFalse(holder.isLoaded());
+        assertEquals(1, first.closes.get());
+
+        try (ModelHolder.Lease<FakeModel> lease = holder.acquire()) {
+            assertEquals("cls1", lease.get().run());
+        }
+        assertEquals(1, holder.getUnloads());
+        assertEquals(1, holder.getReloads());
+
+        assertFalse("a holder without a reloader keeps its model",
+                new ModelHolder<>(new FakeModel("det")).unloadIfIdle());
+    }
+}
@@ -0,0 +1,78 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OcrRegionPlannerTest {
+
+    private static DetectionResult vehicle(String label, float left, float top, float right, float bottom) {
+        return new DetectionResult(label, 0.9f, new Box(left, top, right, bottom));
+    }
+
+    @Test
+    public void plan_mergesOverlappingBoxesAndKeepsOthersSeparate() {
+        DetectionResult car = vehicle("car", 100, 100, 300, 250);
+        DetectionResult far = vehicle("car", 600, 100, 700, 200);
+        DetectionResult truck = vehicle("truck", 110, 90, 310, 260); // same vehicle, other class
+
+        List<OcrRegionPlanner.Region> regions = OcrRegionPlanner.plan(Arrays.asList(car, far, truck), 0.3f);
+
+        assertEquals(2, regions.size());
+        assertEquals(Arrays.asList(car, truck), regions.get(0).members);
+        assertEquals(Arrays.asList(far), regions.get(1).members);
+        Box bounds = regions.get(0).bounds;
+        assertEquals(100f, bounds.left, 0f);
+        assertEquals(90f, bounds.top, 0f);
+        assertEquals(310f, bounds.right, 0f);
+        assertEquals(260f, bounds.bottom, 0f);
+    }
+
+    @Test
+    public void plan_chainsTransitiveOverlaps() {
+        DetectionResult a = vehicle("car", 0, 0, 100, 100);
+        DetectionResult b = vehicle("car", 60, 0, 160, 100);
+        DetectionResult c = vehicle("car", 120, 0, 220, 100);
+
+        assertEquals(1, OcrRegionPlanner.plan(Arrays.asList(a, b, c), 0.3f).size());
+        assertEquals(3, OcrRegionPlanner.plan(Arrays.asList(a, b, c), 0.5f).size());
+        assertEquals(3, OcrRegionPlanner.plan(Arrays.asList(a, b, c), 1.1f).size());
+    }
+
+    @Test
+    public void assign_givesEachLineToTheBestContainingVehicle() {
+        DetectionResult left = vehicle("car", 100, 100, 300, 250);
+        DetectionResult right = vehicle("car", 220, 100, 420, 250);
+        OcrRegionPlanner.Region region = OcrRegionPlanner.plan(Arrays.asList(left, right), 0.3f).get(0);
+
+        // Text boxes are relative to the region origin (100, 100).
+        List<Box> textBoxes = Arrays.asList(
+                new Box(20, 100, 90, 120),    // plate of the left car
+                new Box(210, 100, 290, 120),  // plate of the right car
+                new Box(140, 10, 160, 20),    // in the shared strip
+                new Box(30, 40, 60, 50));
+        List<String> texts = Arrays.asList("AB123", "CD456", "", "TAXI");
+
+        Map<DetectionResult, List<String>> assigned = OcrRegionPlanner.assign(region, textBoxes, texts);
+
+        assertEquals(Arrays.asList("AB123", "TAXI"), assigned.get(left));
+        assertEquals(Arrays.asList("CD456"), assigned.get(right));
+    }
+
+    @Test
+    public void assign_prefersTheSmallerBoxWhenBothContainTheLine() {
+        DetectionResult truck = vehicle("truck", 0, 0, 400, 300);
+        DetectionResult car = vehicle("car", 50, 50, 250, 250);
+        OcrRegionPlanner.Region region = OcrRegionPlanner.plan(Arrays.asList(truck, car), 0.3f).get(0);
+
+        Map<DetectionResult, List<String>> assigned = OcrRegionPlanner.assign(region,
+                Arrays.asList(new Box(100, 200, 180, 220)), Arrays.asList("EF789"));
+
+        assertNull(assigned.get(truck));
+        assertEquals(Arrays.asList("EF789"), assigned.get(car));
+    }
+}
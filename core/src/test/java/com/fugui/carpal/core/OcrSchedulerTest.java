@@ -0,0 +1,131 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class OcrSchedulerTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private final OcrScheduler scheduler = new OcrScheduler(now::get);
+
+    private static DetectionResult vehicle(float left, float size, float confidence, String source) {
+        DetectionResult d = new DetectionResult("car", confidence, new Box(left, 0, left + size, size));
+        d.setSource(source);
+        return d;
+    }
+
+    private static OcrRegionPlanner.Region region(DetectionResult d) {
+        return new OcrRegionPlanner.Region(d.getBoundingBox(), Collections.singletonList(d));
+    }
+
+    private static List<OcrRegionPlanner.Region> regions(DetectionResult... detections) {
+        List<OcrRegionPlanner.Region> regions = new ArrayList<>();
+        for (DetectionResult d : detections) {
+            regions.add(region(d));
+        }
+        return regions;
+    }
+
+    private static List<DetectionResult> members(List<OcrRegionPlanner.Region> regions) {
+        List<DetectionResult> members = new ArrayList<>();
+        for (OcrRegionPlanner.Region r : regions) {
+            members.addAll(r.members);
+        }
+        return members;
+    }
+
+    @Test
+    public void ordersUnreadThenLargerThenMoreConfident() {
+        DetectionResult small = vehicle(0, 50, 0.9f, null);
+        DetectionResult large = vehicle(100, 200, 0.6f, null);
+        DetectionResult sameSizeLowConfidence = vehicle(400, 50, 0.55f, null);
+        DetectionResult readLarge = vehicle(700, 300, 0.95f, null);
+        scheduler.markAttempted(vehicle(705, 300, 0.9f, null)); // same vehicle, earlier frame
+
+        List<OcrRegionPlanner.Region> ordered = scheduler.prioritize(regions(small, readLarge, sameSizeLowConfidence, large));
+
+        assertEquals(Arrays.asList(large, small, sameSizeLowConfidence, readLarge), members(ordered));
+    }
+
+    @Test
+    public void forgetsReadsAfterMemoryExpiresAndKeepsSourcesApart() {
+        DetectionResult back = vehicle(0, 100, 0.9f, "back");
+        DetectionResult front = vehicle(0, 100, 0.9f, "front");
+        DetectionResult bigger = vehicle(200, 150, 0.9f, "back");
+        scheduler.markAttempted(back);
+
+        assertEquals(Arrays.asList(bigger, back), members(scheduler.prioritize(regions(back, bigger))));
+        // The front camera sees a different vehicle at the same place.
+        assertEquals(front, members(scheduler.prioritize(regions(front, bigger))).get(1));
+
+        now.addAndGet(OcrScheduler.READ_MEMORY_MS + 1);
+        assertEquals(Arrays.asList(bigger, back), members(scheduler.prioritize(regions(back, bigger))));
+        scheduler.markAttempted(bigger);
+        assertEquals(Arrays.asList(back, bigger), members(scheduler.prioritize(regions(back, bigger))));
+    }
+
+    @Test
+    public void deferredVehiclesComeFirstOnTheNextFrame() {
+        List<DetectionResult> queue = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            queue.add(vehicle(i * 300, 100 + i * 10, 0.8f, null));
+        }
+        // Each frame the budget covers four regions; the rest are deferred.
+        List<DetectionResult> readOrder = new ArrayList<>();
+        for (int frame = 0; frame < 4; frame++) {
+            List<OcrRegionPlanner.Region> ordered = scheduler.prioritize(regions(queue.toArray(new DetectionResult[0])));
+            for (OcrRegionPlanner.Region region : ordered.subList(0, 4)) {
+                for (DetectionResult d : region.members) {
+                    if (!readOrder.contains(d)) {
+                        readOrder.add(d);
+                    }
+                    scheduler.markAttempted(d);
+                }
+            }
+            now.addAndGet(100);
+        }
+        assertEquals("every vehicle read within four frames", 15, readOrder.size());
+        // Largest (closest) vehicles first.
+        assertSame(queue.get(14), readOrder.get(0));
+    }
+
+    @Test
+    public void largeVehicleWithoutTextDoesNotKeepTheLead() {
+        DetectionResult busFlank = vehicle(0, 600, 0.9f, null);
+        List<DetectionResult> cars = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            cars.add(vehicle(1000 + i * 200, 100, 0.8f, null));
+        }
+        List<DetectionResult> all = new ArrayList<>(cars);
+        all.add(busFlank);
+
+        // Frame 1 has budget for two regions; the bus flank leads and OCR finds no text on it.
+        List<OcrRegionPlanner.Region> first = scheduler.prioritize(regions(all.toArray(new DetectionResult[0])));
+        assertSame(busFlank, first.get(0).members.get(0));
+        for (OcrRegionPlanner.Region region : first.subList(0, 2)) {
+            scheduler.markAttempted(region.members.get(0));
+        }
+        now.addAndGet(100);
+
+        List<DetectionResult> second = members(scheduler.prioritize(regions(all.toArray(new DetectionResult[0]))));
+        assertEquals("the three deferred cars lead", 3, second.indexOf(busFlank));
+        assertFalse(second.subList(0, 3).contains(first.get(1).members.get(0)));
+    }
+
+    @Test
+    public void fitsUsesAverageRegionCost() {
+        assertTrue(scheduler.fits(now.get()));
+        scheduler.recordRegionCost(100);
+        assertFalse(scheduler.fits(now.get() + 50));
+        assertTrue(scheduler.fits(now.get() + 100));
+        scheduler.recordRegionCost(200);
+        assertEquals(120.0, scheduler.getRegionCostMs(), 1e-9);
+    }
+}
@@ -0,0 +1,224 @@
+package com.fugui.carpal.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class OffloadOcrBackendTest {
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @After
+    public void closeResources() throws Exception {
+        Collections.reverse(resources);
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    /** Reads every crop as a single line saying where it was read and the crop width. */
+    private static OcrBackend fakeOcr(String where) {
+        return (src, vehicles) -> new PaddleOrtEngine.OcrResult(
+                Collections.singletonList(new PaddleOrtEngine.RotatedBox(new float[][]{{1, 2}, {9, 2}, {9, 5}, {1, 5}}, 0.9f)),
+                Collections.singletonList(where + src.getWidth()),
+                Collections.singletonList(new Box(1, 2, 9, 5)));
+    }
+
+    private static ImageBuffer crop(int width) {
+        int[] pixels = new int[width * 20];
+        for (int i = 0; i < pixels.length; i++) {
+            int v = (i % width) * 255 / width;
+            pixels[i] = 0xFF000000 | v << 16 | v << 8 | (255 - v);
+        }
+        return new ImageBuffer(width, 20, pixels);
+    }
+
+    /** What the app does with {@code Bitmap.compress}, done with ImageIO. */
+    private static final CropEncoder JPEG = new CropEncoder() {
+        @Override
+        public int format() {
+            return FORMAT_JPEG;
+        }
+
+        @Override
+        public byte[] encode(ImageBuffer crop) throws IOException {
+            BufferedImage image = new BufferedImage(crop.getWidth(), crop.getHeight(), BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, crop.getWidth(), crop.getHeight(), crop.getPixels(), 0, crop.getWidth());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", bytes);
+            return bytes.toByteArray();
+        }
+    };
+
+    private OffloadStandInServer server() throws Exception {
+        OffloadStandInServer server = new OffloadStandInServer(fakeOcr("gateway:"));
+        resources.add(server);
+        return server;
+    }
+
+    private OffloadClient client(OffloadStandInServer server, int maxBatch, int maxInFlight) throws Exception {
+        OffloadClient client = new OffloadClient(server.url(), maxBatch, maxInFlight, 20, 2000);
+        resources.add(client);
+        return client;
+    }
+
+    @Test
+    public void protocol_roundTripsCropsAndResults() throws Exception {
+        ImageBuffer image = crop(33);
+        byte[] request = OffloadProtocol.encodeRequest(Arrays.asList(
+                new OffloadProtocol.Crop(image, 2), new OffloadProtocol.Crop(crop(5), 1)), CropEncoder.DEFLATE_RGB);
+        assertTrue("crops are compressed", request.length < 3 * (33 + 5) * 20);
+
+        List<OffloadProtocol.Crop> crops = OffloadProtocol.decodeRequest(new ByteArrayInputStream(request));
+        assertEquals(2, crops.size());
+        assertEquals(2, crops.get(0).vehicles);
+        assertArrayEquals(image.getPixels(), crops.get(0).image.getPixels());
+
+        byte[] response = OffloadProtocol.encodeResponse(Collections.singletonList(fakeOcr("京A").runOcr(image, 1)));
+        PaddleOrtEngine.OcrResult result = OffloadProtocol.decodeResponse(new ByteArrayInputStream(response), 1).get(0);
+        assertEquals("京A33", result.texts.get(0));
+        assertEquals(9f, result.regions.get(0).right, 0f);
+        assertEquals(0.9f, result.boxes.get(0).score, 0f);
+    }
+
+    @Test
+    public void protocol_tagsCropFormat() throws Exception {
+        byte[] request = OffloadProtocol.encodeRequest(
+                Collections.singletonList(new OffloadProtocol.Crop(crop(33), 1)), JPEG);
+
+        try {
+            OffloadProtocol.decodeRequest(new ByteArrayInputStream(request));
+            fail("a JPEG request needs a decoder");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("format " + CropEncoder.FORMAT_JPEG));
+        }
+        int[] decodedWidth = new int[1];
+        OffloadProtocol.decodeRequest(new ByteArrayInputStream(request), (data, width, height) -> {
+            decodedWidth[0] = width;
+            return new ImageBuffer(width, height, new int[width * height]);
+        });
+        assertEquals(33, decodedWidth[0]);
+    }
+
+    @Test
+    public void runOcr_sendsCropsInTheClientsFormat() throws Exception {
+        OffloadStandInServer server = server();
+        OffloadClient client = new OffloadClient(server.url(), JPEG, 4, 2, 20, 2000);
+        resources.add(client);
+        OffloadOcrBackend backend = new OffloadOcrBackend(client, fakeOcr("local:"), 1000);
+
+        assertEquals("gateway:40", backend.runOcr(crop(40), 1).texts.get(0));
+        assertEquals(1, backend.getOffloaded());
+    }
+
+    @Test
+    public void runOcr_readsCropsOnGateway() throws Exception {
+        OffloadStandInServer server = server();
+        OffloadOcrBackend backend = new OffloadOcrBackend(client(server, 4, 2), fakeOcr("local:"), 1000);
+
+        PaddleOrtEngine.OcrResult result = backend.runOcr(crop(40), 1);
+
+        assertEquals("gateway:40", result.texts.get(0));
+        assertEquals(1, backend.getOffloaded());
+        assertEquals(0, backend.getLocalRuns());
+    }
+
+    @Test
+    public void concurrentCropsAreBatchedWithBoundedRequestsInFlight() throws Exception {
+        OffloadStandInServer server = server();
+        server.setDelayMs(50);
+        OffloadClient client = client(server, 4, 2);
+        OffloadOcrBackend backend = new OffloadOcrBackend(client, fakeOcr("local:"), 2000);
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        resources.add(callers::shutdownNow);
+        List<Future<PaddleOrtEngine.OcrResult>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int width = 10 + i;
+            results.add(callers.submit(() -> backend.runOcr(crop(width), 1)));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals("gateway:" + (10 + i), results.get(i).get().texts.get(0));
+        }
+
+        assertEquals(8, server.crops.get());
+        assertTrue("batched into " + server.requests.get() + " requests", server.requests.get() < 8);
+        assertTrue(server.largestBatch.get() > 1);
+        assertTrue(server.largestBatch.get() <= 4);
+        assertTrue("at most 2 requests in flight, saw " + server.mostInFlight.get(), server.mostInFlight.get() <= 2);
+        assertEquals(8, backend.getOffloaded());
+    }
+
+    @Test
+    public void fallsBackOnDeadlineAndStaysLocalUntilRetry() throws Exception {
+        OffloadStandInServer server = server();
+        server.setDelayMs(500);
+        AtomicLong now = new AtomicLong(1000);
+        OffloadOcrBackend backend = new OffloadOcrBackend(client(server, 1, 1), fakeOcr("local:"), 50, 5000, now::get);
+
+        assertEquals("local:12", backend.runOcr(crop(12), 1).texts.get(0));
+        assertEquals(1, backend.getFallbacks());
+        assertTrue(backend.isOffline());
+
+        now.addAndGet(1000);
+        assertEquals("local:13", backend.runOcr(crop(13), 1).texts.get(0));
+        assertEquals(1, backend.getFallbacks());
+        assertEquals(2, backend.getLocalRuns());
+        assertEquals("the offline crop never reached the gateway", 1, server.requests.get());
+
+        server.setDelayMs(0);
+        waitUntilIdle(server);
+        now.addAndGet(5000);
+        assertFalse(backend.isOffline());
+        assertEquals("gateway:14", backend.runOcr(crop(14), 1).texts.get(0));
+    }
+
+    @Test
+    public void fallsBackWhenLinkIsDown() throws Exception {
+        OffloadStandInServer server = server();
+        OffloadClient client = client(server, 2, 1);
+        server.close();
+        AtomicLong now = new AtomicLong();
+        OffloadOcrBackend backend = new OffloadOcrBackend(client, fakeOcr("local:"), 1000, 5000, now::get);
+
+        assertEquals("local:20", backend.runOcr(crop(20), 1).texts.get(0));
+        assertEquals(1, backend.getFallbacks());
+        assertEquals(1, client.getFailedRequests());
+
+        now.addAndGet(5000);
+        assertEquals("local:21", backend.runOcr(crop(21), 1).texts.get(0));
+        assertEquals("retried once the back-off expired", 2, backend.getFallbacks());
+    }
+
+    /** Waits for the abandoned slow request to finish so it no longer occupies the sender. */
+    private static void waitUntilIdle(OffloadStandInServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+    }
+
+    @Test
+    public void closedClientRejectsCrops() throws Exception {
+        OffloadClient client = client(server(), 1, 1);
+        client.close();
+        OffloadOcrBackend backend = new OffloadOcrBackend(client, fakeOcr("local:"), 1000);
+        assertEquals("local:7", backend.runOcr(crop(7), 1).texts.get(0));
+    }
+}
@@ -0,0 +1,99 @@
+package com.fugui.carpal.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the OCR gateway: decodes offload requests, runs each crop through an
+ * {@link OcrBackend} and answers in the offload format. Decodes JPEG crops with ImageIO. Records
+ * batch sizes and concurrency, and can be slowed down to simulate a congested link.
+ */
+final class OffloadStandInServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final OcrBackend backend;
+    private volatile long delayMs;
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger crops = new AtomicInteger();
+    final AtomicInteger largestBatch = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger mostInFlight = new AtomicInteger();
+
+    OffloadStandInServer(OcrBackend backend) throws IOException {
+        this.backend = backend;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ocr", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URL url() throws MalformedURLException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/ocr");
+    }
+
+    void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try (InputStream in = exchange.getRequestBody()) {
+            List<OffloadProtocol.Crop> batch = OffloadProtocol.decodeRequest(in, OffloadStandInServer::decodeJpeg);
+            requests.incrementAndGet();
+            crops.addAndGet(batch.size());
+            largestBatch.accumulateAndGet(batch.size(), Math::max);
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            List<PaddleOrtEngine.OcrResult> results = new ArrayList<>(batch.size());
+            for (OffloadProtocol.Crop crop : batch) {
+                results.add(backend.runOcr(crop.image, crop.vehicles));
+            }
+            byte[] body = OffloadProtocol.encodeResponse(results);
+            exchange.getResponseHeaders().set("Content-Type", OffloadProtocol.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static ImageBuffer decodeJpeg(byte[] data, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("Not a JPEG crop");
+        }
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        return new ImageBuffer(image.getWidth(), image.getHeight(), pixels);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
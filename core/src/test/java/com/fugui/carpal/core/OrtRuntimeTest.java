@@ -0,0 +1,95 @@
+package com.fugui.carpal.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class OrtRuntimeTest {
+
+    private final OrtRuntime runtime = OrtRuntime.get();
+    private final List<ModelHolder<?>> holders = new ArrayList<>();
+
+    private static final class Model implements AutoCloseable {
+        @Override
+        public void close() {
+        }
+    }
+
+    private ModelHolder<Model> track(String name, boolean unloadable) {
+        ModelHolder<Model> holder = unloadable ? new ModelHolder<>(new Model(), Model::new) : new ModelHolder<>(new Model());
+        runtime.track(name, holder, 100);
+        holders.add(holder);
+        return holder;
+    }
+
+    private static void use(ModelHolder<Model> holder) throws InterruptedException {
+        holder.acquire().close();
+        Thread.sleep(2);
+    }
+
+    @After
+    public void untrack() {
+        runtime.setMemoryBudget(0, 0);
+        for (ModelHolder<?> holder : holders) {
+            runtime.untrack(holder);
+            holder.close();
+        }
+    }
+
+    @Test
+    public void trimToBudget_unloadsLeastRecentlyUsedIdleModels() throws Exception {
+        long others = runtime.getResidentModelBytes();
+        ModelHolder<Model> pinned = track("pinned", false);
+        ModelHolder<Model> older = track("older", true);
+        ModelHolder<Model> newer = track("newer", true);
+        use(pinned);
+        use(older);
+        use(newer);
+
+        runtime.setMemoryBudget(others + 200, 0);
+        assertEquals(1, runtime.trimToBudget());
+        assertFalse(older.isLoaded());
+        assertTrue(newer.isLoaded());
+        assertTrue(pinned.isLoaded());
+        assertEquals(others + 200, runtime.getResidentModelBytes());
+        assertEquals("already within budget", 0, runtime.trimToBudget());
+        assertTrue(runtime.report().contains("older (unloaded)"));
+
+        use(older);
+        assertEquals(1, older.getReloads());
+        assertEquals("the reloaded model now counts as recent", 1, runtime.trimToBudget());
+        assertFalse(newer.isLoaded());
+    }
+
+    @Test
+    public void trimToBudget_keepsRecentlyUsedAndLeasedModels() throws Exception {
+        long others = runtime.getResidentModelBytes();
+        ModelHolder<Model> recent = track("recent", true);
+        ModelHolder<Model> leased = track("leased", true);
+        use(recent);
+
+        runtime.setMemoryBudget(others + 1, 60_000);
+        assertEquals(0, runtime.trimToBudget());
+
+        runtime.setMemoryBudget(others + 1, 0);
+        try (ModelHolder.Lease<Model> ignored = leased.acquire()) {
+            assertEquals(1, runtime.trimToBudget());
+            assertTrue(leased.isLoaded());
+        }
+        assertFalse(recent.isLoaded());
+    }
+
+    @Test
+    public void processStats_readsThreadsAndResidentMemory() {
+        assumeTrue(new File("/proc/self/status").exists());
+        assertTrue(OrtRuntime.readStatus("Threads:") > 1);
+        assertTrue(OrtRuntime.readStatus("VmRSS:") > 0);
+        assertEquals(-1, OrtRuntime.readStatus("NoSuchField:"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PacketRingBufferTest {
+
+    /** A packet whose bytes all equal the low byte of its timestamp, so reads can be checked. */
+    private static ByteBuffer packet(long timestamp, int size) {
+        ByteBuffer data = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            data.put(i, (byte) timestamp);
+        }
+        return data;
+    }
+
+    private static List<Long> readTimestamps(PacketRingBuffer ring, long from, long to) {
+        List<Long> timestamps = new ArrayList<>();
+        ring.read(from, to, (data, pts, key) -> {
+            for (int i = data.position(); i < data.limit(); i++) {
+                assertEquals((byte) pts, data.get(i));
+            }
+            timestamps.add(pts);
+        });
+        return timestamps;
+    }
+
+    @Test
+    public void readStartsAtKeyFrameBeforeWindow() {
+        PacketRingBuffer ring = new PacketRingBuffer(1000, 100);
+        for (long t = 0; t < 20; t++) {
+            assertTrue(ring.add(packet(t, 10), t, t % 5 == 0));
+        }
+        assertEquals(List.of(5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L), readTimestamps(ring, 7, 12));
+        assertEquals(List.of(10L), readTimestamps(ring, 10, 10));
+    }
+
+    @Test
+    public void evictsOldestPacketsWhenBytesRunOut() {
+        PacketRingBuffer ring = new PacketRingBuffer(100, 100);
+        for (long t = 0; t < 30; t++) {
+            assertTrue(ring.add(packet(t, 7 + (int) (t % 4)), t, t % 3 == 0));
+        }
+        assertEquals(29, ring.newestTimestampUs());
+        assertTrue(ring.size() < 30);
+
+        // The requested start was evicted, so reading begins at the oldest surviving key frame.
+        List<Long> timestamps = readTimestamps(ring, 0, Long.MAX_VALUE);
+        assertEquals(0, timestamps.get(0) % 3);
+        assertTrue(timestamps.get(0) >= ring.oldestTimestampUs());
+        assertEquals(29L, (long) timestamps.get(timestamps.size() - 1));
+    }
+
+    @Test
+    public void evictsOldestPacketsWhenSlotsRunOut() {
+        PacketRingBuffer ring = new PacketRingBuffer(1000, 4);
+        for (long t = 0; t < 6; t++) {
+            ring.add(packet(t, 1), t, true);
+        }
+        assertEquals(4, ring.size());
+        assertEquals(2, ring.oldestTimestampUs());
+    }
+
+    @Test
+    public void rejectsPacketLargerThanRing() {
+        PacketRingBuffer ring = new PacketRingBuffer(16, 4);
+        ring.add(packet(1, 8), 1, true);
+        assertFalse(ring.add(packet(2, 17), 2, true));
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void readsNothingWithoutKeyFrame() {
+        PacketRingBuffer ring = new PacketRingBuffer(100, 10);
+        ring.add(packet(1, 4), 1, false);
+        assertEquals(0, ring.read(0, 10, (data, pts, key) -> fail()));
+    }
+}
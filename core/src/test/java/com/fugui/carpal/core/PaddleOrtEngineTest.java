@@ -0,0 +1,205 @@
+package com.fugui.carpal.core;
+
+import ai.onnxruntime.OrtSession;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PaddleOrtEngineTest {
+
+    private static PaddleOrtEngine engine;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        if (TestAssets.has("det.onnx", "cls.onnx", "rec.onnx", "dict.txt")) {
+            engine = TestAssets.newPaddleEngine();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void ctcDecode_collapsesRepeatsAndBlanks() {
+        float[][] prob = {
+                {0.1f, 0.9f, 0f},
+                {0.1f, 0.9f, 0f},
+                {0.9f, 0.1f, 0f},
+                {0.1f, 0.9f, 0f},
+                {0f, 0.1f, 0.9f}};
+        assertArrayEquals(new int[]{1, 1, 2}, PaddleOrtEngine.ctcDecode(prob));
+    }
+
+    @Test
+    public void ctcConfidence_averagesEmittedCharacters() {
+        float[][] prob = {
+                {0.1f, 0.9f, 0f},
+                {0.1f, 0.8f, 0.1f},
+                {0.9f, 0.1f, 0f},
+                {0f, 0.3f, 0.7f}};
+        assertEquals((0.9f + 0.7f) / 2, PaddleOrtEngine.ctcConfidence(prob), 1e-6);
+        assertEquals(0f, PaddleOrtEngine.ctcConfidence(new float[][]{{1f, 0f}}), 0f);
+    }
+
+    @Test
+    public void postDb_findsComponentAboveThreshold() {
+        float[][] prob = new float[40][80];
+        for (int y = 10; y < 20; y++) {
+            for (int x = 20; x < 60; x++) {
+                prob[y][x] = 0.9f;
+            }
+        }
+        prob[30][5] = 0.9f; // isolated noise pixel
+
+        List<PaddleOrtEngine.RotatedBox> boxes = PaddleOrtEngine.postDb(prob, 0.3f, 0.5f);
+
+        assertEquals(1, boxes.size());
+        Box bound = boxes.get(0).bound();
+        assertTrue(bound.left < 20 && bound.right > 59);
+        assertTrue(bound.top < 10 && bound.bottom > 19);
+        assertEquals(0.9f, boxes.get(0).score, 1e-4);
+    }
+
+    @Test
+    public void resizeKeepAspect_letterboxesIntoTarget() {
+        PaddleOrtEngine.ResizeResult r = PaddleOrtEngine.resizeKeepAspect(new ImageBuffer(100, 50), 48, 192);
+        assertEquals(192, r.image.getWidth());
+        assertEquals(48, r.image.getHeight());
+        assertEquals(0.96f, r.scale, 1e-6);
+        assertEquals(48, r.padW);
+        assertEquals(0, r.padH);
+    }
+
+    @Test
+    public void uint8Det_matchesFloatDet() throws Exception {
+        // Text-like bars in colours that tell the channels apart, so a swapped channel or a wrong
+        // per-channel constant changes the scores.
+        ImageBuffer image = new ImageBuffer(1280, 736);
+        int[] pixels = image.getPixels();
+        Arrays.fill(pixels, 0xFF203040);
+        fill(image, new Box(200, 100, 700, 140), 0xFFF0C020);
+        fill(image, new Box(300, 400, 900, 460), 0xFF40E0F0);
+        List<PaddleOrtEngine.RotatedBox> expected = detectWith(TinyOnnxModels.floatDet(), image);
+        assertEquals(2, expected.size());
+
+        for (boolean channelsLast : new boolean[]{true, false}) {
+            byte[] det = TinyOnnxModels.uint8Det(channelsLast);
+            try (OrtSession session = OrtRuntime.get().createSession(
+                    AssetSource.readDirect(new ByteArrayInputStream(det)), 1)) {
+                assertEquals(channelsLast ? InputFormat.UINT8_NHWC : InputFormat.UINT8_NCHW, InputFormat.of(session));
+            }
+            List<PaddleOrtEngine.RotatedBox> boxes = detectWith(det, image);
+            assertEquals(expected.size(), boxes.size());
+            for (int i = 0; i < boxes.size(); i++) {
+                assertEquals(expected.get(i).score, boxes.get(i).score, 1e-4f);
+                Box want = expected.get(i).bound();
+                Box got = boxes.get(i).bound();
+                assertEquals(want.left, got.left, 0f);
+                assertEquals(want.top, got.top, 0f);
+                assertEquals(want.right, got.right, 0f);
+                assertEquals(want.bottom, got.bottom, 0f);
+            }
+        }
+    }
+
+    private static void fill(ImageBuffer image, Box box, int color) {
+        for (int y = (int) box.top; y < box.bottom; y++) {
+            Arrays.fill(image.getPixels(), y * image.getWidth() + (int) box.left,
+                    y * image.getWidth() + (int) box.right, color);
+        }
+    }
+
+    /** Runs det on a stand-in engine; cls and rec are loaded but never run. */
+    private static List<PaddleOrtEngine.RotatedBox> detectWith(byte[] det, ImageBuffer image) throws Exception {
+        byte[] unused = TinyOnnxModels.floatDet();
+        Map<String, byte[]> files = Map.of("det.onnx", det, "cls.onnx", unused, "rec.onnx", unused,
+                "dict.txt", "A\n".getBytes(StandardCharsets.UTF_8));
+        AssetSource assets = path -> new ByteArrayInputStream(files.get(path));
+        try (PaddleOrtEngine tiny = new PaddleOrtEngine(assets, "det.onnx", "cls.onnx", "rec.onnx", "dict.txt")) {
+            return tiny.detect(image).boxes;
+        }
+    }
+
+    @Test
+    public void warmUp_runsEverySessionOnBlankInput() throws Exception {
+        assumeTrue("OCR models not available", engine != null);
+        engine.warmUp();
+        assertTrue(engine.detect(new ImageBuffer(640, 480)).boxes.isEmpty());
+    }
+
+    @Test
+    public void swapModels_keepsRecognisingAcrossTheSwap() throws Exception {
+        assumeTrue("OCR models not available", engine != null);
+        ImageBuffer image = TestAssets.loadImage("road1.jpeg");
+        List<String> before = engine.runOcr(image).texts;
+
+        RecognitionCache cache = new RecognitionCache();
+        engine.setRecognitionCache(cache);
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> swap = engine.swapModels(TestAssets.SOURCE, "det.onnx", "cls.onnx", "rec.onnx", "dict.txt", loader);
+            engine.runOcr(image);
+            swap.get(60, TimeUnit.SECONDS);
+            assertEquals("reads of the old rec model are dropped", 0, cache.size());
+        } finally {
+            loader.shutdown();
+            engine.setRecognitionCache(null);
+        }
+        assertEquals(before, engine.runOcr(image).texts);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void swapModels_rejectsDictionaryWithoutRecModel() {
+        assumeTrue("OCR models not available", engine != null);
+        engine.swapModels(TestAssets.SOURCE, null, null, null, "dict.txt", Runnable::run);
+    }
+
+    @Test
+    public void recognitionCache_reusesTextForTheSameCrop() throws Exception {
+        assumeTrue("OCR models not available", engine != null);
+        ImageBuffer image = TestAssets.loadImage("road1.jpeg");
+        ImageBuffer crop = image.crop(0, 0, image.getWidth() / 2, image.getHeight() / 8);
+        RecognitionCache cache = new RecognitionCache();
+        engine.setRecognitionCache(cache);
+        try {
+            PaddleOrtEngine.Recognition first = engine.recognizeLine(crop);
+            PaddleOrtEngine.Recognition second = engine.recognizeLine(crop);
+            assertSame(first, second);
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        } finally {
+            engine.setRecognitionCache(null);
+        }
+    }
+
+    @Test
+    public void runOcr_findsTextInSampleImages() throws Exception {
+        assumeTrue("OCR models not available", engine != null);
+        for (String name : new String[]{"road.jpeg", "road1.jpeg"}) {
+            ImageBuffer image = TestAssets.loadImage(name);
+            PaddleOrtEngine.OcrResult result = engine.runOcr(image);
+
+            assertFalse("no text boxes in " + name, result.boxes.isEmpty());
+            assertEquals(result.boxes.size(), result.texts.size());
+            assertTrue("no recognised text in " + name, result.texts.stream().anyMatch(t -> !t.isEmpty()));
+        }
+    }
+}
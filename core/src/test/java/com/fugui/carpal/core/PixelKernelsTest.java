@@ -0,0 +1,94 @@
+package com.fugui.carpal.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class PixelKernelsTest {
+
+    @After
+    public void serial() {
+        PixelKernels.setParallelism(1);
+    }
+
+    private static ImageBuffer randomImage(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(3);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new ImageBuffer(width, height, pixels);
+    }
+
+    @Test
+    public void forEachRow_visitsEveryRowOnce() {
+        for (int threads : new int[]{1, 2, 3, 8}) {
+            PixelKernels.setParallelism(threads);
+            assertEquals(threads, PixelKernels.getParallelism());
+            int rows = 737;
+            AtomicIntegerArray visits = new AtomicIntegerArray(rows);
+            PixelKernels.forEachRow(rows, 1280, (from, to) -> {
+                for (int y = from; y < to; y++) {
+                    visits.incrementAndGet(y);
+                }
+            });
+            for (int y = 0; y < rows; y++) {
+                assertEquals("row " + y + " with " + threads + " threads", 1, visits.get(y));
+            }
+        }
+    }
+
+    @Test
+    public void forEachRow_keepsSmallImagesOnCaller() {
+        PixelKernels.setParallelism(4);
+        Thread caller = Thread.currentThread();
+        PixelKernels.forEachRow(48, 320, (from, to) -> {
+            assertSame(caller, Thread.currentThread());
+            assertEquals(0, from);
+            assertEquals(48, to);
+        });
+    }
+
+    @Test
+    public void parallelKernels_matchSerialOutput() {
+        ImageBuffer image = randomImage(1000, 600);
+        int[] detShape = {1, 3, 736, 1280};
+        float[][] prob = new float[736][1280];
+        Random random = new Random(5);
+        for (int y = 200; y < 260; y++) {
+            for (int x = 100; x < 500; x++) {
+                prob[y][x] = 0.6f + 0.3f * random.nextFloat();
+            }
+        }
+
+        ImageBuffer scaled = image.scale(1280, 736);
+        float[] yolo = YoloModelDetector.preprocessImage(image).getData();
+        float[] det = PaddleOrtEngine.toTensor(scaled, detShape).getData();
+        List<PaddleOrtEngine.RotatedBox> boxes = PaddleOrtEngine.postDb(prob, 0.3f, 0.5f);
+
+        PixelKernels.setParallelism(4);
+        assertArrayEquals(scaled.getPixels(), image.scale(1280, 736).getPixels());
+        assertArrayEquals(yolo, YoloModelDetector.preprocessImage(image).getData(), 0f);
+        assertArrayEquals(det, PaddleOrtEngine.toTensor(scaled, detShape).getData(), 0f);
+        List<PaddleOrtEngine.RotatedBox> parallelBoxes = PaddleOrtEngine.postDb(prob, 0.3f, 0.5f);
+        assertEquals(1, boxes.size());
+        assertEquals(boxes.size(), parallelBoxes.size());
+        Box serialBox = boxes.get(0).bound();
+        Box parallelBox = parallelBoxes.get(0).bound();
+        assertEquals(serialBox.left, parallelBox.left, 0f);
+        assertEquals(serialBox.top, parallelBox.top, 0f);
+        assertEquals(serialBox.right, parallelBox.right, 0f);
+        assertEquals(serialBox.bottom, parallelBox.bottom, 0f);
+        assertEquals(boxes.get(0).score, parallelBoxes.get(0).score, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setParallelism_rejectsZero() {
+        PixelKernels.setParallelism(0);
+    }
+}
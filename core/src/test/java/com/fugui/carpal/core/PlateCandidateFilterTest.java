@@ -0,0 +1,132 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlateCandidateFilterTest {
+
+    /** A vehicle crop with the DB boxes found in it; the plates are the boxes that must be kept. */
+    private static final class Scene {
+        final String name;
+        final int width, height, vehicles;
+        final List<Box> boxes = new ArrayList<>();
+        final List<Float> scores = new ArrayList<>();
+        final List<Integer> plates = new ArrayList<>();
+
+        Scene(String name, int width, int height, int vehicles) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.vehicles = vehicles;
+        }
+
+        /** Adds the box postDb produces for a text line of the given size centred at (cx, cy). */
+        Scene text(float cx, float cy, float textW, float textH, float score) {
+            float pad = (int) (textH * 0.5f) + 3;
+            boxes.add(new Box(Math.max(0, cx - textW / 2 - pad), Math.max(0, cy - textH / 2 - pad),
+                    Math.min(width, cx + textW / 2 + pad), Math.min(height, cy + textH / 2 + pad)));
+            scores.add(score);
+            return this;
+        }
+
+        Scene plate(float cx, float cy, float textW, float textH, float score) {
+            plates.add(boxes.size());
+            return text(cx, cy, textW, textH, score);
+        }
+
+        float[] scoreArray() {
+            float[] a = new float[scores.size()];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = scores.get(i);
+            }
+            return a;
+        }
+    }
+
+    private static List<Scene> scenes() {
+        return Arrays.asList(
+                new Scene("car rear, badge and brand lettering", 400, 300, 1)
+                        .text(200, 120, 24, 24, 0.92f)       // badge
+                        .text(300, 170, 70, 12, 0.88f)       // model name
+                        .text(110, 90, 18, 30, 0.7f)         // tall sticker
+                        .plate(200, 230, 90, 20, 0.81f),
+                new Scene("close truck, two-row plate, sign fragment behind", 500, 600, 1)
+                        .text(250, 40, 300, 60, 0.95f)       // shop sign in the background
+                        .text(120, 300, 60, 14, 0.85f)       // load-limit stencil
+                        .text(250, 420, 60, 10, 0.6f)        // phone number sticker
+                        .plate(250, 500, 80, 20, 0.72f)
+                        .plate(250, 530, 120, 24, 0.75f),
+                new Scene("distant car", 120, 90, 1)
+                        .text(60, 35, 8, 8, 0.8f)            // badge
+                        .plate(60, 70, 34, 8, 0.62f),
+                new Scene("low-confidence plate among confident clutter", 400, 300, 1)
+                        .text(80, 60, 60, 14, 0.97f)
+                        .text(320, 60, 60, 14, 0.96f)
+                        .text(200, 140, 30, 30, 0.99f)
+                        .text(200, 180, 4, 40, 0.9f)         // vertical strip
+                        .text(380, 280, 2, 2, 0.9f)          // speck
+                        .plate(200, 240, 100, 22, 0.55f),
+                new Scene("two overlapping cars in one region", 700, 300, 2)
+                        .text(150, 120, 24, 24, 0.9f)
+                        .text(520, 110, 24, 24, 0.9f)
+                        .text(600, 160, 70, 12, 0.93f)
+                        .text(350, 40, 200, 30, 0.94f)       // sign across both
+                        .plate(160, 240, 90, 20, 0.8f)
+                        .plate(530, 245, 85, 19, 0.7f));
+    }
+
+    @Test
+    public void keepsEveryPlateInTestScenes() {
+        PlateCandidateFilter filter = new PlateCandidateFilter();
+        int plates = 0;
+        int boxes = 0;
+        int boxesKept = 0;
+        for (Scene scene : scenes()) {
+            int[] kept = filter.select(scene.boxes, scene.scoreArray(), scene.width, scene.height, scene.vehicles);
+            List<Integer> keptList = new ArrayList<>();
+            for (int i : kept) {
+                keptList.add(i);
+            }
+            for (int plate : scene.plates) {
+                assertTrue("plate dropped in " + scene.name, keptList.contains(plate));
+            }
+            plates += scene.plates.size();
+            boxes += scene.boxes.size();
+            boxesKept += kept.length;
+        }
+
+        assertEquals(boxes, filter.getCandidatesSeen());
+        assertEquals(boxes - boxesKept, filter.getRejectedByGeometry() + filter.getDroppedByRank());
+        assertTrue("filter should skip most non-plate boxes, kept " + boxesKept + " of " + boxes,
+                boxesKept - plates <= (boxes - plates) / 2);
+    }
+
+    @Test
+    public void rejectsBoxesThatCannotBePlates() {
+        PlateCandidateFilter filter = new PlateCandidateFilter();
+        assertEquals(0f, filter.plateLikeness(new Box(0, 0, 20, 60), 0.9f, 400, 300), 0f);   // taller than wide
+        assertEquals(0f, filter.plateLikeness(new Box(0, 0, 6, 3), 0.9f, 400, 300), 0f);     // too narrow to read
+        assertEquals(0f, filter.plateLikeness(new Box(0, 0, 400, 250), 0.9f, 400, 300), 0f); // most of the crop
+        assertTrue(filter.plateLikeness(new Box(150, 220, 250, 260), 0.9f, 400, 300) > 0f);
+    }
+
+    @Test
+    public void keepsOriginalOrderAndLimitsPerVehicle() {
+        Scene scene = new Scene("many plate-like lines", 400, 300, 1);
+        for (int i = 0; i < 5; i++) {
+            scene.text(200, 50 + i * 50, 90, 20, 0.8f);
+        }
+        PlateCandidateFilter filter = new PlateCandidateFilter(2, PlateCandidateFilter.DEFAULT_MIN_ASPECT,
+                PlateCandidateFilter.DEFAULT_MAX_AREA_FRACTION);
+
+        // Lower lines rank higher, but results come back in detection order.
+        assertArrayEquals(new int[]{3, 4}, filter.select(scene.boxes, scene.scoreArray(), scene.width, scene.height));
+        assertEquals(4, filter.select(scene.boxes, scene.scoreArray(), scene.width, scene.height, 2).length);
+        assertEquals(4, filter.getDroppedByRank());
+    }
+}
@@ -0,0 +1,154 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class RecognitionCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private static PaddleOrtEngine.Recognition text(String text) {
+        return new PaddleOrtEngine.Recognition(text, 0.9f);
+    }
+
+    private static long[] hash(ImageBuffer crop) {
+        return RecognitionCache.hash(PaddleOrtEngine.resizeKeepAspect(crop, 48, 320));
+    }
+
+    /** A plate-like line of dark glyphs on a light background, shaped by {@code seed}. */
+    private static ImageBuffer line(long seed) {
+        Random random = new Random(seed);
+        int width = 320;
+        int height = 48;
+        int[] pixels = new int[width * height];
+        for (int glyph = 0; glyph < 8; glyph++) {
+            int x0 = 8 + glyph * 38;
+            boolean[] strokes = new boolean[6];
+            for (int s = 0; s < strokes.length; s++) {
+                strokes[s] = random.nextBoolean();
+            }
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < 32; x++) {
+                    boolean ink = y > 6 && y < 42 && strokes[x / 6 % 3 + (y < 24 ? 0 : 3)] && x % 6 < 3;
+                    int v = ink ? 30 : 220;
+                    pixels[y * width + x0 + x] = 0xFF000000 | v << 16 | v << 8 | v;
+                }
+            }
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] == 0) {
+                pixels[i] = 0xFFDCDCDC;
+            }
+        }
+        return new ImageBuffer(width, height, pixels);
+    }
+
+    private static ImageBuffer noisy(ImageBuffer image, long seed, int amplitude) {
+        Random random = new Random(seed);
+        int[] pixels = image.getPixels().clone();
+        for (int i = 0; i < pixels.length; i++) {
+            int d = random.nextInt(2 * amplitude + 1) - amplitude;
+            int p = pixels[i];
+            pixels[i] = 0xFF000000 | clamp((p >> 16 & 0xff) + d) << 16 | clamp((p >> 8 & 0xff) + d) << 8 | clamp((p & 0xff) + d);
+        }
+        return new ImageBuffer(image.getWidth(), image.getHeight(), pixels);
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    @Test
+    public void hash_matchesNoisyCopyButNotAnotherLine() {
+        long[] plate = hash(line(1));
+        assertTrue(RecognitionCache.distance(plate, hash(noisy(line(1), 7, 6)))
+                <= RecognitionCache.DEFAULT_MAX_DISTANCE);
+        assertTrue(RecognitionCache.distance(plate, hash(line(2)))
+                > RecognitionCache.DEFAULT_MAX_DISTANCE);
+        assertEquals("flat crops hash to zeros", 0,
+                RecognitionCache.distance(hash(new ImageBuffer(320, 48)), hash(noisy(new ImageBuffer(320, 48), 3, 2))));
+        assertEquals("a differently shaped crop never matches", Integer.MAX_VALUE,
+                RecognitionCache.distance(hash(new ImageBuffer(320, 48)), hash(new ImageBuffer(200, 48))));
+    }
+
+    @Test
+    public void hash_separatesCropsOfSampleImage() throws Exception {
+        assumeTrue(TestAssets.has("road1.jpeg"));
+        ImageBuffer image = TestAssets.loadImage("road1.jpeg");
+        int w = image.getWidth() / 6;
+        int h = image.getHeight() / 20;
+        ImageBuffer crop = image.crop(w * 2, h * 12, w, h);
+        long[] original = hash(crop);
+        long[] again = hash(noisy(crop, 5, 2));
+        long[] moved = hash(image.crop(w * 3, h * 12, w, h));
+        assertTrue(RecognitionCache.distance(original, again) <= RecognitionCache.DEFAULT_MAX_DISTANCE);
+        assertTrue(RecognitionCache.distance(original, moved) > RecognitionCache.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void get_returnsClosestLiveEntryAndCounts() {
+        RecognitionCache cache = new RecognitionCache(8, 4, 5000, now::get);
+        long[] plate = hash(line(1));
+        assertNull(cache.get(plate));
+        cache.put(plate, text("京A12345"));
+        cache.put(hash(line(2)), text("沪B67890"));
+
+        assertEquals("京A12345", cache.get(hash(noisy(line(1), 9, 6))).text);
+        assertEquals("沪B67890", cache.get(hash(line(2))).text);
+        assertNull(cache.get(hash(line(3))));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void put_replacesMatchingEntry() {
+        RecognitionCache cache = new RecognitionCache(8, 4, 5000, now::get);
+        cache.put(hash(line(1)), text("京A1234"));
+        cache.put(hash(noisy(line(1), 4, 6)), text("京A12345"));
+        assertEquals(1, cache.size());
+        assertEquals("京A12345", cache.get(hash(line(1))).text);
+    }
+
+    @Test
+    public void clear_dropsEveryEntry() {
+        RecognitionCache cache = new RecognitionCache(8, 4, 5000, now::get);
+        cache.put(hash(line(1)), text("京A12345"));
+        cache.put(hash(line(2)), text("沪B67890"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(hash(line(1))));
+    }
+
+    @Test
+    public void entriesExpireAfterTtlEvenWhenHit() {
+        RecognitionCache cache = new RecognitionCache(8, 4, 5000, now::get);
+        long[] plate = hash(line(1));
+        cache.put(plate, text("京A12345"));
+        now.addAndGet(4000);
+        assertNotNull(cache.get(plate));
+        now.addAndGet(1000);
+        assertNull(cache.get(plate));
+        assertEquals(1, cache.getExpired());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        RecognitionCache cache = new RecognitionCache(2, 4, 5000, now::get);
+        long[] a = hash(line(1));
+        long[] b = hash(line(2));
+        cache.put(a, text("a"));
+        cache.put(b, text("b"));
+        cache.get(a);
+        cache.put(hash(line(3)), text("c"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(a));
+        assertNull("b was least recently used", cache.get(b));
+    }
+}
@@ -0,0 +1,96 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SceneChangeDetectorTest {
+
+    private static final int W = 320;
+    private static final int H = 240;
+
+    private static byte[] frame(int background) {
+        byte[] luma = new byte[W * H];
+        Arrays.fill(luma, (byte) background);
+        return luma;
+    }
+
+    private static void fillRect(byte[] luma, int left, int top, int width, int height, int value) {
+        for (int y = top; y < top + height; y++) {
+            Arrays.fill(luma, y * W + left, y * W + left + width, (byte) value);
+        }
+    }
+
+    @Test
+    public void firstFrameIsAlwaysChanged() {
+        assertTrue(new SceneChangeDetector().hasChanged(frame(100), W, H));
+    }
+
+    @Test
+    public void identicalAndNoisyFramesAreSkipped() {
+        SceneChangeDetector detector = new SceneChangeDetector();
+        assertTrue(detector.hasChanged(frame(100), W, H));
+        assertFalse(detector.hasChanged(frame(100), W, H));
+
+        Random random = new Random(1);
+        byte[] noisy = frame(100);
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = (byte) (100 + random.nextInt(9) - 4);
+        }
+        assertFalse(detector.hasChanged(noisy, W, H));
+
+        assertEquals(3, detector.getFramesChecked());
+        assertEquals(2, detector.getFramesSkipped());
+    }
+
+    @Test
+    public void movingObjectIsDetected() {
+        SceneChangeDetector detector = new SceneChangeDetector();
+        byte[] before = frame(100);
+        fillRect(before, 20, 100, 80, 60, 220);
+        assertTrue(detector.hasChanged(before, W, H));
+
+        byte[] after = frame(100);
+        fillRect(after, 160, 100, 80, 60, 220);
+        assertTrue(detector.hasChanged(after, W, H));
+        assertFalse(detector.hasChanged(after, W, H));
+    }
+
+    @Test
+    public void sensitivityControlsSmallChanges() {
+        byte[] before = frame(100);
+        byte[] after = frame(100);
+        fillRect(after, 0, 0, 40, 30, 200); // about 4 of 256 blocks
+
+        SceneChangeDetector lenient = new SceneChangeDetector(16, 12f, 0.05f);
+        lenient.hasChanged(before, W, H);
+        assertFalse(lenient.hasChanged(after, W, H));
+
+        SceneChangeDetector sensitive = new SceneChangeDetector(16, 12f, 0.01f);
+        sensitive.hasChanged(before, W, H);
+        assertTrue(sensitive.hasChanged(after, W, H));
+    }
+
+    @Test
+    public void honoursRowAndPixelStride() {
+        int rowStride = W * 2 + 16;
+        ByteBuffer padded = ByteBuffer.allocate(rowStride * H);
+        for (int i = 0; i < padded.capacity(); i++) {
+            padded.put(i, (byte) 100);
+        }
+        SceneChangeDetector detector = new SceneChangeDetector();
+        assertTrue(detector.hasChanged(padded, W, H, rowStride, 2));
+
+        // Bytes between samples and past the row end are padding and must be ignored.
+        for (int y = 0; y < H; y++) {
+            padded.put(y * rowStride + 1, (byte) 255);
+            padded.put(y * rowStride + rowStride - 1, (byte) 255);
+        }
+        assertFalse(detector.hasChanged(padded, W, H, rowStride, 2));
+        assertEquals(0, padded.position());
+    }
+}
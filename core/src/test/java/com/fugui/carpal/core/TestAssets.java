@@ -0,0 +1,53 @@
+package com.fugui.carpal.core;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Resolves the models and sample images bundled with the Android app for JVM tests.
+ */
+final class TestAssets {
+
+    static final File DIR = new File(System.getProperty("carpal.assets", "../app/src/main/assets"));
+
+    static final AssetSource SOURCE = path -> new FileInputStream(new File(DIR, path));
+
+    private TestAssets() {
+    }
+
+    /**
+     * Large models such as rec.onnx and the YOLO weights are not checked in; tests that need them
+     * are skipped when they are missing.
+     */
+    static boolean has(String... names) {
+        for (String name : names) {
+            if (!new File(DIR, name).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static ImageBuffer loadImage(String name) throws IOException {
+        return loadImage(new File(DIR, name));
+    }
+
+    static ImageBuffer loadImage(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Unreadable image " + file.getName());
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        return new ImageBuffer(width, height, pixels);
+    }
+
+    static PaddleOrtEngine newPaddleEngine() throws Exception {
+        return new PaddleOrtEngine(SOURCE, "det.onnx", "cls.onnx", "rec.onnx", "dict.txt");
+    }
+}
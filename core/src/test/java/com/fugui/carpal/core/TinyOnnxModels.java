@@ -0,0 +1,175 @@
+package com.fugui.carpal.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tiny ONNX models for JVM tests, so the uint8 input path can be checked without the
+ * Python {@code onnx} package or the large bundled models.
+ * <p>
+ * The det stand-in maps a {1, 3, H, W} input to {@code Sigmoid(ReduceMean(x, axis=1))}, a
+ * {1, 1, H, W} map that {@link PaddleOrtEngine#detect} reads like a probability map. Its uint8
+ * variant has the prologue {@code tools/fold_normalization.py} puts in front of the float graph:
+ * {@code Cast -> [Transpose] -> Mul -> Add} with the same node, tensor and constant names.
+ */
+final class TinyOnnxModels {
+
+    // TensorProto.DataType
+    private static final int FLOAT = 1;
+    private static final int UINT8 = 2;
+    // AttributeProto.AttributeType
+    private static final int INT = 2;
+    private static final int INTS = 7;
+
+    // The 'paddle' preset of fold_normalization.py.
+    private static final double[] MEAN = {0.485, 0.456, 0.406};
+    private static final double[] STD = {0.229, 0.224, 0.225};
+
+    private TinyOnnxModels() {
+    }
+
+    static byte[] floatDet() {
+        Proto graph = new Proto();
+        graph.message(11, valueInfo("x", FLOAT, "1", "3", "h", "w"));
+        appendDetBody(graph, "x");
+        return model(graph);
+    }
+
+    /** The float det as {@code fold_normalization.py --layout nhwc|nchw} would wrap it. */
+    static byte[] uint8Det(boolean channelsLast) {
+        float[] scale = new float[3];
+        float[] bias = new float[3];
+        for (int c = 0; c < 3; c++) {
+            scale[c] = (float) (1.0 / (255.0 * STD[c]));
+            bias[c] = (float) (-MEAN[c] / STD[c]);
+        }
+
+        Proto graph = new Proto();
+        graph.message(11, channelsLast
+                ? valueInfo("x", UINT8, "1", "h", "w", "3")
+                : valueInfo("x", UINT8, "1", "3", "h", "w"));
+        graph.message(5, tensor("x_scale", scale, 1, 3, 1, 1));
+        graph.message(5, tensor("x_bias", bias, 1, 3, 1, 1));
+        graph.message(1, node("Cast", new String[]{"x"}, "x_float").message(5, intAttribute("to", FLOAT)));
+        String nchw = "x_float";
+        if (channelsLast) {
+            graph.message(1, node("Transpose", new String[]{nchw}, "x_nchw")
+                    .message(5, intsAttribute("perm", 0, 3, 1, 2)));
+            nchw = "x_nchw";
+        }
+        graph.message(1, node("Mul", new String[]{nchw, "x_scale"}, "x_scaled"));
+        graph.message(1, node("Add", new String[]{"x_scaled", "x_bias"}, "x_normalized"));
+        appendDetBody(graph, "x_normalized");
+        return model(graph);
+    }
+
+    private static void appendDetBody(Proto graph, String input) {
+        graph.string(2, "tiny_det");
+        graph.message(1, node("ReduceMean", new String[]{input}, "mean")
+                .message(5, intsAttribute("axes", 1))
+                .message(5, intAttribute("keepdims", 1)));
+        graph.message(1, node("Sigmoid", new String[]{"mean"}, "prob"));
+        graph.message(12, valueInfo("prob", FLOAT, "1", "1", "h", "w"));
+    }
+
+    private static byte[] model(Proto graph) {
+        Proto model = new Proto();
+        model.varint(1, 8); // ir_version
+        model.message(8, new Proto().string(1, "").varint(2, 13)); // opset_import
+        model.message(7, graph);
+        return model.toByteArray();
+    }
+
+    private static Proto node(String opType, String[] inputs, String output) {
+        Proto node = new Proto();
+        for (String input : inputs) {
+            node.string(1, input);
+        }
+        node.string(2, output);
+        node.string(3, output + "_node");
+        node.string(4, opType);
+        return node;
+    }
+
+    private static Proto intAttribute(String name, long value) {
+        return new Proto().string(1, name).varint(3, value).varint(20, INT);
+    }
+
+    private static Proto intsAttribute(String name, long... values) {
+        Proto attribute = new Proto().string(1, name);
+        for (long value : values) {
+            attribute.varint(8, value);
+        }
+        return attribute.varint(20, INTS);
+    }
+
+    private static Proto tensor(String name, float[] values, long... dims) {
+        Proto tensor = new Proto();
+        for (long dim : dims) {
+            tensor.varint(1, dim);
+        }
+        tensor.varint(2, FLOAT);
+        for (float value : values) {
+            tensor.fixed32(4, Float.floatToIntBits(value));
+        }
+        return tensor.string(8, name);
+    }
+
+    /** A tensor value; numeric dims are fixed, others are named symbolic dims. */
+    private static Proto valueInfo(String name, int elemType, String... dims) {
+        Proto shape = new Proto();
+        for (String dim : dims) {
+            shape.message(1, dim.chars().allMatch(Character::isDigit)
+                    ? new Proto().varint(1, Long.parseLong(dim))
+                    : new Proto().string(2, dim));
+        }
+        Proto tensorType = new Proto().varint(1, elemType).message(2, shape);
+        return new Proto().string(1, name).message(2, new Proto().message(1, tensorType));
+    }
+
+    /** Just enough of the protobuf wire format to write the messages above. */
+    private static final class Proto {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Proto varint(int field, long value) {
+            writeVarint((long) field << 3);
+            writeVarint(value);
+            return this;
+        }
+
+        Proto fixed32(int field, int value) {
+            writeVarint((long) field << 3 | 5);
+            for (int i = 0; i < 4; i++) {
+                bytes.write(value >>> (8 * i));
+            }
+            return this;
+        }
+
+        Proto string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Proto message(int field, Proto value) {
+            return bytes(field, value.toByteArray());
+        }
+
+        private Proto bytes(int field, byte[] value) {
+            writeVarint((long) field << 3 | 2);
+            writeVarint(value.length);
+            bytes.write(value, 0, value.length);
+            return this;
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class YoloModelDetectorTest {
+
+    private static final String[] LABELS = {"person", "car", "truck"};
+
+    /** Builds a [1, 4 + classes, anchors] YOLO output from (cx, cy, w, h, classId, score) rows. */
+    private static float[][][] output(float[]... anchors) {
+        float[][] out = new float[4 + LABELS.length][anchors.length];
+        for (int i = 0; i < anchors.length; i++) {
+            float[] a = anchors[i];
+            out[0][i] = a[0];
+            out[1][i] = a[1];
+            out[2][i] = a[2];
+            out[3][i] = a[3];
+            out[4 + (int) a[4]][i] = a[5];
+        }
+        return new float[][][]{out};
+    }
+
+    @Test
+    public void postProcess_scalesBoxesToOriginalImage() {
+        float[][][] out = output(new float[]{320, 320, 64, 32, 1, 0.9f});
+        List<DetectionResult> results = YoloModelDetector.postProcess(out, 1280, 640, LABELS);
+
+        assertEquals(1, results.size());
+        DetectionResult r = results.get(0);
+        assertEquals("car", r.getClassName());
+        assertEquals(0.9f, r.getConfidence(), 1e-6);
+        assertEquals(576f, r.getBoundingBox().left, 1e-3);
+        assertEquals(304f, r.getBoundingBox().top, 1e-3);
+        assertEquals(704f, r.getBoundingBox().right, 1e-3);
+        assertEquals(336f, r.getBoundingBox().bottom, 1e-3);
+    }
+
+    @Test
+    public void postProcess_dropsLowConfidenceAndSuppressesOverlaps() {
+        float[][][] out = output(
+                new float[]{100, 100, 50, 50, 1, 0.8f},
+                new float[]{102, 101, 50, 50, 2, 0.7f},
+                new float[]{400, 400, 50, 50, 1, 0.6f},
+                new float[]{500, 500, 50, 50, 0, 0.3f});
+        List<DetectionResult> results = YoloModelDetector.postProcess(out, 640, 640, LABELS);
+
+        assertEquals(2, results.size());
+        assertEquals(0.8f, results.get(0).getConfidence(), 1e-6);
+        assertEquals(0.6f, results.get(1).getConfidence(), 1e-6);
+    }
+
+    @Test
+    public void preprocessImage_normalisesPlanarRgb() {
+        int[] pixels = new int[640 * 640];
+        java.util.Arrays.fill(pixels, 0xFFFF8000);
+        FloatTensor tensor = YoloModelDetector.preprocessImage(new ImageBuffer(640, 640, pixels));
+
+        assertArrayEquals(new long[]{1, 3, 640, 640}, tensor.getShape());
+        int plane = 640 * 640;
+        assertEquals(1f, tensor.getData()[0], 1e-6);
+        assertEquals(128 / 255f, tensor.getData()[plane], 1e-6);
+        assertEquals(0f, tensor.getData()[2 * plane], 1e-6);
+    }
+}
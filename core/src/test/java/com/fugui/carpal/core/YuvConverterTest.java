@@ -0,0 +1,149 @@
+package com.fugui.carpal.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    private static final int W = 37;
+    private static final int H = 22;
+
+    /** A YUV_420_888 frame with padded rows, in either planar or interleaved chroma layout. */
+    private static final class Frame {
+        final int[][] y = new int[H][W];
+        final int[][] u = new int[(H + 1) / 2][(W + 1) / 2];
+        final int[][] v = new int[(H + 1) / 2][(W + 1) / 2];
+        ByteBuffer yPlane, uPlane, vPlane;
+        int yRowStride, uvRowStride, uvPixelStride;
+
+        Frame(long seed, boolean interleaved) {
+            Random random = new Random(seed);
+            for (int[] row : y) for (int i = 0; i < row.length; i++) row[i] = random.nextInt(256);
+            for (int[] row : u) for (int i = 0; i < row.length; i++) row[i] = random.nextInt(256);
+            for (int[] row : v) for (int i = 0; i < row.length; i++) row[i] = random.nextInt(256);
+
+            yRowStride = W + 11;
+            yPlane = ByteBuffer.allocate(yRowStride * H);
+            for (int r = 0; r < H; r++) for (int c = 0; c < W; c++) yPlane.put(r * yRowStride + c, (byte) y[r][c]);
+
+            int cw = u[0].length;
+            int ch = u.length;
+            if (interleaved) {
+                // NV21-like: V and U share one buffer, offset by one byte.
+                uvPixelStride = 2;
+                uvRowStride = cw * 2 + 6;
+                ByteBuffer vu = ByteBuffer.allocate(uvRowStride * ch + 1);
+                for (int r = 0; r < ch; r++) {
+                    for (int c = 0; c < cw; c++) {
+                        vu.put(r * uvRowStride + c * 2, (byte) v[r][c]);
+                        vu.put(r * uvRowStride + c * 2 + 1, (byte) u[r][c]);
+                    }
+                }
+                vPlane = vu.duplicate();
+                vu.position(1);
+                uPlane = vu.slice();
+            } else {
+                uvPixelStride = 1;
+                uvRowStride = cw + 3;
+                uPlane = ByteBuffer.allocate(uvRowStride * ch);
+                vPlane = ByteBuffer.allocate(uvRowStride * ch);
+                for (int r = 0; r < ch; r++) {
+                    for (int c = 0; c < cw; c++) {
+                        uPlane.put(r * uvRowStride + c, (byte) u[r][c]);
+                        vPlane.put(r * uvRowStride + c, (byte) v[r][c]);
+                    }
+                }
+            }
+        }
+
+        /** Straightforward floating point conversion followed by a separate rotation. */
+        ImageBuffer reference(int rotation) {
+            int[] upright = new int[W * H];
+            for (int r = 0; r < H; r++) {
+                for (int c = 0; c < W; c++) {
+                    float yy = y[r][c];
+                    float uu = u[r / 2][c / 2] - 128f;
+                    float vv = v[r / 2][c / 2] - 128f;
+                    int red = clamp(Math.round(yy + 1.402f * vv));
+                    int green = clamp(Math.round(yy - 0.344136f * uu - 0.714136f * vv));
+                    int blue = clamp(Math.round(yy + 1.772f * uu));
+                    upright[r * W + c] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+                }
+            }
+            ImageBuffer image = new ImageBuffer(W, H, upright);
+            for (int i = 0; i < rotation / 90; i++) {
+                image = rotate90(image);
+            }
+            return image;
+        }
+
+        ImageBuffer convert(YuvConverter converter, int rotation) {
+            return converter.convert(W, H, yPlane, yRowStride, 1, uPlane, vPlane, uvRowStride, uvPixelStride, rotation);
+        }
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    private static ImageBuffer rotate90(ImageBuffer src) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        ImageBuffer dst = new ImageBuffer(h, w);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                dst.getPixels()[x * h + (h - 1 - y)] = src.getPixel(x, y);
+            }
+        }
+        return dst;
+    }
+
+    private static void assertClose(ImageBuffer expected, ImageBuffer actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int[] e = expected.getPixels();
+        int[] a = actual.getPixels();
+        for (int i = 0; i < e.length; i++) {
+            for (int shift = 0; shift <= 24; shift += 8) {
+                int diff = Math.abs(((e[i] >> shift) & 0xFF) - ((a[i] >> shift) & 0xFF));
+                assertTrue("pixel " + i + " differs by " + diff, diff <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceForPlanarAndInterleavedChroma() {
+        for (boolean interleaved : new boolean[]{false, true}) {
+            Frame frame = new Frame(interleaved ? 2 : 1, interleaved);
+            for (int rotation : new int[]{0, 90, 180, 270}) {
+                assertClose(frame.reference(rotation), frame.convert(new YuvConverter(), rotation));
+            }
+        }
+    }
+
+    @Test
+    public void reusesOutputAndLeavesPlanePositions() {
+        Frame frame = new Frame(3, true);
+        YuvConverter converter = new YuvConverter();
+        ImageBuffer first = frame.convert(converter, 90);
+        ImageBuffer second = frame.convert(converter, 270);
+        ImageBuffer upright = frame.convert(converter, 0);
+
+        assertSame(first, second);
+        assertNotSame(first, upright);
+        assertEquals(0, frame.yPlane.position());
+        assertEquals(0, frame.uPlane.position());
+
+        YuvConverter fresh = new YuvConverter(false);
+        assertNotSame(frame.convert(fresh, 0), frame.convert(fresh, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedRotation() {
+        new Frame(4, false).convert(new YuvConverter(), 45);
+    }
+}
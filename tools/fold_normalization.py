@@ -0,0 +1,122 @@
+#!/usr/bin/env python3
+"""Wraps the bundled ONNX models so they take raw uint8 RGB pixels.
+
+The app otherwise converts every pixel to a normalised float on the CPU before each run. The
+wrapped graph starts with Cast -> [Transpose] -> Mul -> Add, where the Mul and Add fold the
+/255 scaling and the per-channel mean/std into one multiply-add. The Java side detects the uint8
+input (InputFormat) and copies pixel bytes straight into a direct buffer.
+
+The new input keeps the original input's name, so callers that address it by name still work.
+The core test PaddleOrtEngineTest.uint8Det_matchesFloatDet builds this same prologue on a tiny
+det model (TinyOnnxModels) and checks it against the float model; keep the two in step.
+Models whose input is already uint8 are left alone, so the script can be rerun safely.
+
+    pip install onnx
+    python3 tools/fold_normalization.py app/src/main/assets/det.onnx app/src/main/assets/cls.onnx \
+        app/src/main/assets/rec.onnx app/src/main/assets/yolo11m.onnx
+
+or ./gradlew :app:foldModelNormalization, which does the same for every model in the assets.
+"""
+
+import argparse
+import os
+import sys
+
+import onnx
+from onnx import TensorProto, helper
+
+# Must match the float preprocessing in PaddleOrtEngine.toTensor and
+# YoloModelDetector.preprocessImage.
+PRESETS = {
+    'paddle': ([0.485, 0.456, 0.406], [0.229, 0.224, 0.225]),
+    'yolo': ([0.0, 0.0, 0.0], [1.0, 1.0, 1.0]),
+}
+
+
+def preset_for(path):
+    return 'yolo' if os.path.basename(path).lower().startswith('yolo') else 'paddle'
+
+
+def copy_dim(dim):
+    if dim.HasField('dim_value'):
+        return dim.dim_value
+    return dim.dim_param or None
+
+
+def fold(model, mean, std, channels_last):
+    """Rewrites model in place; returns False if its input is already uint8."""
+    graph = model.graph
+    initializers = {init.name for init in graph.initializer}
+    original = next(i for i in graph.input if i.name not in initializers)
+    tensor_type = original.type.tensor_type
+    if tensor_type.elem_type == TensorProto.UINT8:
+        return False
+    if tensor_type.elem_type != TensorProto.FLOAT:
+        raise ValueError('expected a float input, got %s' % TensorProto.DataType.Name(tensor_type.elem_type))
+
+    dims = [copy_dim(d) for d in tensor_type.shape.dim]
+    if len(dims) != 4 or dims[1] != 3:
+        raise ValueError('expected an NCHW input with 3 channels, got %s' % dims)
+
+    name = original.name
+    normalized = name + '_normalized'
+    for node in graph.node:
+        for i, value in enumerate(node.input):
+            if value == name:
+                node.input[i] = normalized
+
+    # (x / 255 - mean) / std == x * (1 / (255 * std)) + (-mean / std)
+    scale = [1.0 / (255.0 * s) for s in std]
+    bias = [-m / s for m, s in zip(mean, std)]
+    constants = [
+        helper.make_tensor(name + '_scale', TensorProto.FLOAT, [1, 3, 1, 1], scale),
+        helper.make_tensor(name + '_bias', TensorProto.FLOAT, [1, 3, 1, 1], bias),
+    ]
+
+    prologue = [helper.make_node('Cast', [name], [name + '_float'], to=TensorProto.FLOAT)]
+    nchw = name + '_float'
+    if channels_last:
+        prologue.append(helper.make_node('Transpose', [nchw], [name + '_nchw'], perm=[0, 3, 1, 2]))
+        nchw = name + '_nchw'
+    prologue.append(helper.make_node('Mul', [nchw, name + '_scale'], [name + '_scaled']))
+    prologue.append(helper.make_node('Add', [name + '_scaled', name + '_bias'], [normalized]))
+
+    n, c, h, w = dims
+    shape = [n, h, w, c] if channels_last else dims
+    uint8_input = helper.make_tensor_value_info(name, TensorProto.UINT8, shape)
+    inputs = [uint8_input if i.name == name else i for i in graph.input]
+
+    wrapped = helper.make_graph(prologue + list(graph.node), graph.name, inputs, list(graph.output),
+                                initializer=constants + list(graph.initializer),
+                                doc_string=graph.doc_string, value_info=list(graph.value_info))
+    wrapped.sparse_initializer.extend(graph.sparse_initializer)
+    model.graph.CopyFrom(wrapped)
+    return True
+
+
+def main(argv):
+    parser = argparse.ArgumentParser(description=__doc__.split('\n')[0])
+    parser.add_argument('models', nargs='+', help='.onnx files to wrap')
+    parser.add_argument('--layout', choices=['nhwc', 'nchw'], default='nhwc',
+                        help='pixel layout of the new input (default: nhwc, interleaved RGB)')
+    parser.add_argument('--preset', choices=sorted(PRESETS),
+                        help='normalisation to fold; by default yolo* files get yolo, others paddle')
+    parser.add_argument('--out', help='directory for the wrapped models (default: overwrite in place)')
+    args = parser.parse_args(argv)
+    if args.out:
+        os.makedirs(args.out, exist_ok=True)
+
+    for path in args.models:
+        model = onnx.load(path)
+        mean, std = PRESETS[args.preset or preset_for(path)]
+        if not fold(model, mean, std, args.layout == 'nhwc'):
+            print('%s: input is already uint8, skipped' % path)
+            continue
+        onnx.checker.check_model(model)
+        target = os.path.join(args.out, os.path.basename(path)) if args.out else path
+        onnx.save(model, target)
+        print('%s: wrapped with uint8 %s input -> %s' % (path, args.layout.upper(), target))
+
+
+if __name__ == '__main__':
+    main(sys.argv[1:])